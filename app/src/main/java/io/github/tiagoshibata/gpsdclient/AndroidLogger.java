@@ -0,0 +1,18 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import android.util.Log;
+
+/**
+ * Forwards log messages from the streams to logcat.
+ */
+class AndroidLogger implements Logger {
+    @Override
+    public void info(String tag, String message) {
+        Log.i(tag, message);
+    }
+
+    @Override
+    public void warning(String tag, String message) {
+        Log.w(tag, message);
+    }
+}
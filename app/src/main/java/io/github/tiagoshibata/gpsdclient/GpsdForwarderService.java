@@ -6,42 +6,125 @@ import android.app.NotificationManager;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
+import android.hardware.SensorManager;
 import android.location.LocationManager;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
 import android.os.Build;
 import android.os.IBinder;
 import android.os.PowerManager;
 import android.util.Log;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.SocketException;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
-public class GpsdForwarderService extends Service implements LoggingCallback, OnNmeaMessageListenerCompat {
+public class GpsdForwarderService extends Service implements LoggingCallback {
     public static final String GPSD_SERVER_ADDRESS = "io.github.tiagoshibata.GPSD_SERVER_ADDRESS";
     public static final String GPSD_SERVER_PORT = "io.github.tiagoshibata.GPSD_SERVER_PORT";
+    // Optional, to stream to several servers. GPSD_SERVER_ADDRESS and GPSD_SERVER_PORT must still
+    // be given with the first server. Host names are resolved by the service in the background
+    public static final String GPSD_SERVER_ADDRESSES = "io.github.tiagoshibata.GPSD_SERVER_ADDRESSES";
+    public static final String GPSD_SERVER_PORTS = "io.github.tiagoshibata.GPSD_SERVER_PORTS";
+    public static final String GPSD_BATCH_DEADLINE_MS = "io.github.tiagoshibata.GPSD_BATCH_DEADLINE_MS";
+    // Bytes queued across the priority lanes, rounded up to a power of two. Any lane can fill it,
+    // so each preallocates it all: the queue takes 4 times as much memory
+    public static final String GPSD_QUEUE_BYTES = "io.github.tiagoshibata.GPSD_QUEUE_BYTES";
+    public static final String GPSD_OVERFLOW_POLICY = "io.github.tiagoshibata.GPSD_OVERFLOW_POLICY";
+    // Expire sentences queued for longer, e.g. while the link stalls, 0 to keep them until sent
+    public static final String GPSD_MAX_SENTENCE_AGE_MS = "io.github.tiagoshibata.GPSD_MAX_SENTENCE_AGE_MS";
+    // Rules as documented in SentenceFilter
+    public static final String GPSD_SENTENCE_FILTER = "io.github.tiagoshibata.GPSD_SENTENCE_FILTER";
+    // Size of the store-and-forward journal, 0 to disable it
+    public static final String GPSD_JOURNAL_BYTES = "io.github.tiagoshibata.GPSD_JOURNAL_BYTES";
+    public static final String GPSD_REPLAY_BYTES_PER_SECOND = "io.github.tiagoshibata.GPSD_REPLAY_BYTES_PER_SECOND";
+    public static final String GPSD_TRANSPORT = "io.github.tiagoshibata.GPSD_TRANSPORT";
+    // Forward one epoch per interval while stationary, 0 to always forward at the full rate
+    public static final String GPSD_STATIONARY_INTERVAL_S = "io.github.tiagoshibata.GPSD_STATIONARY_INTERVAL_S";
+    // Suppress unchanged GSA, GSV and VTG repeats, forwarding them at least once per interval. 0
+    // to forward every repeat
+    public static final String GPSD_DUPLICATE_REFRESH_S = "io.github.tiagoshibata.GPSD_DUPLICATE_REFRESH_S";
+    // Send RMC and ZDA right away on a dedicated thread, ahead of batching and the adaptive rate.
+    // Only supported over UDP
+    public static final String GPSD_TIME_SERVICE = "io.github.tiagoshibata.GPSD_TIME_SERVICE";
+    // Append a $PGFTS sentence with the GNSS HAL timestamp to each time sentence
+    public static final String GPSD_HAL_TIMESTAMPS = "io.github.tiagoshibata.GPSD_HAL_TIMESTAMPS";
+    // Compress batches for a relay next to gpsd, see the relay module. Only supported over UDP
+    public static final String GPSD_COMPRESSION = "io.github.tiagoshibata.GPSD_COMPRESSION";
+    public static final String TRANSPORT_UDP = "udp";
+    public static final String TRANSPORT_TCP = "tcp";
+    // Listen on GPSD_SERVER_PORT for clients to connect, instead of connecting to a server
+    public static final String TRANSPORT_TCP_SERVER = "tcp-server";
+    // Port receiving binary accelerometer, gyroscope and barometer frames, 0 to disable them. Only
+    // supported over UDP
+    public static final String GPSD_SENSOR_PORT = "io.github.tiagoshibata.GPSD_SENSOR_PORT";
+    public static final String GPSD_SENSOR_RATE_HZ = "io.github.tiagoshibata.GPSD_SENSOR_RATE_HZ";
+    public static final String GPSD_SENSOR_BATCH_US = "io.github.tiagoshibata.GPSD_SENSOR_BATCH_US";
+    private static final int DEFAULT_QUEUE_BYTES = 4096;
+    private static final int DEFAULT_SENSOR_RATE_HZ = 100;
+    private static final int DEFAULT_SENSOR_BATCH_US = 100000;
+    private static final int DEFAULT_REPLAY_BYTES_PER_SECOND = 4096;
+    private static final String JOURNAL_FILE = "journal";
     private static final String TAG = "GpsdClientService";
     private static final String NOTIFICATION_CHANNEL = "gpsd_streaming";
     private static final int NOTIFICATION_ID = 1;
-    private UdpSensorStream sensorStream;
+    private final NmeaForwarder forwarder = new NmeaForwarder();
+    // Stops streams and opens the journal, which block for up to a second and must not run on the
+    // main thread. Handovers run one after the other, in the order streams were replaced
+    private final ExecutorService streamExecutor = Executors.newSingleThreadExecutor();
+    private AddressResolver addressResolver;
+    private ConnectivityManager.NetworkCallback networkCallback;
+    private MotionSensorCapture motionSensorCapture;
+    // Intent the running stream was created from
+    private Intent streamIntent;
     private Binder binder = new Binder();
-    private LoggingCallback loggingCallback;
+    // Also used from the NMEA listener thread
+    private volatile LogBuffer logBuffer;
     private PowerManager.WakeLock wakeLock;
     private NmeaMessageListenerCompat nmeaMessageListener = new NmeaMessageListenerCompat();
 
     class Binder extends android.os.Binder {
-        void setLoggingCallback(LoggingCallback callback) {
-            loggingCallback = callback;
+        /**
+         * @param  log log shown to the user, written without blocking the service
+         */
+        void setLog(LogBuffer log) {
+            logBuffer = log;
+        }
+
+        /**
+         * @return latency histograms and counters of the running stream, or null if not streaming
+         */
+        String getStatistics() {
+            SensorStream stream = forwarder.getStream();
+            if (stream == null)
+                return null;
+            AdaptiveRateController rateController = forwarder.getRateController();
+            DuplicateSuppressor duplicateSuppressor = forwarder.getDuplicateSuppressor();
+            return "HAL to callback: " + forwarder.getCallbackLatency().getSummary() + "\n" + stream.getStatistics() +
+                    (rateController != null ? "\n" + rateController.getStatistics() : "") +
+                    (duplicateSuppressor != null ? "\n" + duplicateSuppressor.getStatistics() : "") +
+                    "\n" + addressResolver.getStatistics();
         }
     }
 
     @Override
     public void onCreate() {
         super.onCreate();
+        QueuedSensorStream.setLogger(new AndroidLogger());
         try {
-            nmeaMessageListener.start((LocationManager)getSystemService(Context.LOCATION_SERVICE), this, this);
+            nmeaMessageListener.start((LocationManager)getSystemService(Context.LOCATION_SERVICE), this::onNmeaMessage, this);
         } catch (RuntimeException e) {
             log(e.getMessage());
         }
-
+        addressResolver = new AddressResolver(HostResolver.SYSTEM);
+        registerNetworkCallback();
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             // Setup notification channel
@@ -61,9 +144,16 @@ public class GpsdForwarderService extends Service implements LoggingCallback, On
         super.onStartCommand(intent, flags, startId);
         String serverAddress = intent.getStringExtra(GPSD_SERVER_ADDRESS);
         int serverPort = intent.getIntExtra(GPSD_SERVER_PORT, -1);
+        String transport = getTransport(intent);
         if (serverAddress == null || serverPort <= 0)
             throw new RuntimeException(
                     "GpsdClientService requires parameters " + GPSD_SERVER_ADDRESS + " and " + GPSD_SERVER_PORT);
+        // Host names are resolved by addressResolver. The service's main thread is the UI thread
+        // when sharing the process between the activity and the service, and networking on the UI
+        // thread is forbidden. See:
+        // https://developer.android.com/reference/android/app/Service.html#onStartCommand(android.content.Intent, int, int)
+        String[] hosts = getServerHosts(intent, serverAddress);
+        int[] ports = getServerPorts(intent, serverPort);
         Context applicationContext = getApplicationContext();
         Notification.Builder builder = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O ?
                 new Notification.Builder(applicationContext, NOTIFICATION_CHANNEL) :
@@ -71,25 +161,263 @@ public class GpsdForwarderService extends Service implements LoggingCallback, On
         builder
                 .setSmallIcon(R.drawable.notification_icon)
                 .setContentTitle("Streaming GPS")
-                .setContentText("Streaming to " + serverAddress + ":" + serverPort)
+                .setContentText(transport.equals(TRANSPORT_TCP_SERVER) ?
+                        "Listening on TCP port " + serverPort :
+                        "Streaming to " + serverAddress + ":" + serverPort +
+                        (hosts.length > 1 ? " and " + (hosts.length - 1) + " more" : "") +
+                        " over " + transport.toUpperCase(Locale.US))
                 .build();
         startForeground(NOTIFICATION_ID, builder.build());
-        if (sensorStream != null)
-            sensorStream.stop();
-        // Note: GPSD_SERVER_ADDRESS must in a resolved form.
-        // An exception will be thrown if a hostname is given, since the service's main thread is
-        // the UI thread when sharing the process between the activity and the service, and
-        // networking on the UI thread is forbidden. See:
-        // https://developer.android.com/reference/android/app/Service.html#onStartCommand(android.content.Intent, int, int)
-        InetSocketAddress server = new InetSocketAddress(serverAddress, serverPort);
         try {
-            sensorStream = new UdpSensorStream(server);
-        } catch (SocketException e) {
+            String filterConfiguration = intent.getStringExtra(GPSD_SENTENCE_FILTER);
+            SentenceFilter filter = filterConfiguration != null ? new SentenceFilter(filterConfiguration) : null;
+            QueuedSensorStream stream = (QueuedSensorStream)forwarder.getStream();
+            QueuedSensorStream previousStream = null;
+            boolean created = false;
+            int stationaryInterval = intent.getIntExtra(GPSD_STATIONARY_INTERVAL_S, 0);
+            if (stream == null || stationaryInterval != streamIntent.getIntExtra(GPSD_STATIONARY_INTERVAL_S, 0)) {
+                forwarder.setRateController(stationaryInterval > 0 ?
+                        new AdaptiveRateController(TimeUnit.SECONDS.toMillis(stationaryInterval)) : null);
+            }
+            int duplicateRefresh = intent.getIntExtra(GPSD_DUPLICATE_REFRESH_S, 0);
+            if (stream == null || duplicateRefresh != streamIntent.getIntExtra(GPSD_DUPLICATE_REFRESH_S, 0)) {
+                forwarder.setDuplicateSuppressor(duplicateRefresh > 0 ?
+                        new DuplicateSuppressor(TimeUnit.SECONDS.toMillis(duplicateRefresh)) : null);
+            }
+            if (stream == null || !reconfigureSensorStream(stream, transport, hosts, intent)) {
+                stopMotionSensors();
+                previousStream = stream;
+                stream = createSensorStream(transport, hosts, ports, intent);
+                created = true;
+            }
+            int journalSize = intent.getIntExtra(GPSD_JOURNAL_BYTES, 0);
+            boolean journaling = created && journalSize > 0;
+            // Sentences wait in the new stream's queue until the previous stream transmitted what
+            // it still has queued and released the journal, so that none is lost, reordered or
+            // transmitted without the journal
+            if (previousStream != null || journaling)
+                stream.hold();
+            streamIntent = intent;
+            stream.setMaxSentenceAge(intent.getLongExtra(GPSD_MAX_SENTENCE_AGE_MS, 0));
+            forwarder.start(stream, filter);
+            resolveServers(stream, transport, hosts, ports, intent.getIntExtra(GPSD_SENSOR_PORT, 0));
+            if (previousStream != null || journaling) {
+                handOver(previousStream, stream, journaling ? journalSize : 0,
+                        intent.getIntExtra(GPSD_REPLAY_BYTES_PER_SECOND, DEFAULT_REPLAY_BYTES_PER_SECOND));
+            }
+            if (intent.getIntExtra(GPSD_SENSOR_PORT, 0) > 0 && motionSensorCapture == null) {
+                motionSensorCapture = new MotionSensorCapture((SensorManager)getSystemService(Context.SENSOR_SERVICE), this);
+                stream.setFrameQueue(motionSensorCapture.getFrameQueue());
+                motionSensorCapture.start(intent.getIntExtra(GPSD_SENSOR_RATE_HZ, DEFAULT_SENSOR_RATE_HZ),
+                        intent.getIntExtra(GPSD_SENSOR_BATCH_US, DEFAULT_SENSOR_BATCH_US));
+            }
+        } catch (IOException | IllegalArgumentException e) {
             fail(e.toString());
         }
         return START_REDELIVER_INTENT;
     }
 
+    /**
+     * Stop the previous stream and open the journal on the stream executor, then release the
+     * sentences held by the new stream.
+     *
+     * @param  journalSize size of the journal, 0 for none
+     */
+    private void handOver(QueuedSensorStream previousStream, QueuedSensorStream stream, int journalSize,
+                          int replayBytesPerSecond) {
+        streamExecutor.execute(() -> {
+            try {
+                if (previousStream != null) {
+                    previousStream.stop();
+                    log(previousStream.getStatistics());
+                }
+                if (journalSize == 0)
+                    return;
+                // Mapping the file while the previous stream's thread still writes to it would
+                // corrupt it
+                if (previousStream != null && !previousStream.isStopped()) {
+                    log(LogBuffer.Level.ERROR, "Previous stream didn't release the journal, streaming without store and forward");
+                    return;
+                }
+                try {
+                    // Kept across service restarts, so that sentences journaled before being
+                    // killed are still replayed
+                    stream.setJournal(new SentenceJournal(new File(getFilesDir(), JOURNAL_FILE), journalSize),
+                            replayBytesPerSecond);
+                } catch (IOException e) {
+                    log(LogBuffer.Level.ERROR, "Can't open the journal, streaming without store and forward: " + e.toString());
+                }
+            } finally {
+                stream.release();
+            }
+        });
+    }
+
+    private static String getTransport(Intent intent) {
+        String transport = intent.getStringExtra(GPSD_TRANSPORT);
+        return transport != null ? transport : TRANSPORT_UDP;
+    }
+
+    /**
+     * Apply new settings to the running stream, keeping its network thread, socket and queued
+     * sentences. New servers are applied once resolved.
+     *
+     * @return false if the settings require a new stream: a different transport, queue, journal
+     * or time service
+     */
+    private boolean reconfigureSensorStream(QueuedSensorStream stream, String transport, String[] hosts,
+                                            Intent intent) throws IOException {
+        Intent previous = streamIntent;
+        if (!transport.equals(getTransport(previous)) ||
+                intent.getIntExtra(GPSD_QUEUE_BYTES, DEFAULT_QUEUE_BYTES) != previous.getIntExtra(GPSD_QUEUE_BYTES, DEFAULT_QUEUE_BYTES) ||
+                !Objects.equals(intent.getStringExtra(GPSD_OVERFLOW_POLICY), previous.getStringExtra(GPSD_OVERFLOW_POLICY)) ||
+                intent.getIntExtra(GPSD_JOURNAL_BYTES, 0) != previous.getIntExtra(GPSD_JOURNAL_BYTES, 0) ||
+                intent.getBooleanExtra(GPSD_TIME_SERVICE, false) != previous.getBooleanExtra(GPSD_TIME_SERVICE, false) ||
+                intent.getBooleanExtra(GPSD_HAL_TIMESTAMPS, false) != previous.getBooleanExtra(GPSD_HAL_TIMESTAMPS, false))
+            return false;
+        checkTransportSupport(transport, hosts, intent);
+        int sensorPort = intent.getIntExtra(GPSD_SENSOR_PORT, 0);
+        if (sensorPort == 0 || sensorPort != previous.getIntExtra(GPSD_SENSOR_PORT, 0))
+            stopMotionSensors();
+        switch (transport) {
+            case TRANSPORT_UDP:
+                stream.setFlushDeadline(intent.getLongExtra(GPSD_BATCH_DEADLINE_MS, 0));
+                ((UdpSensorStream)stream).setCompression(intent.getBooleanExtra(GPSD_COMPRESSION, false));
+                break;
+            case TRANSPORT_TCP_SERVER:
+                int port = intent.getIntExtra(GPSD_SERVER_PORT, -1);
+                if (port != previous.getIntExtra(GPSD_SERVER_PORT, -1))
+                    ((TcpServerSensorStream)stream).setAddress(new InetSocketAddress(port));
+                break;
+        }
+        log("Reconfigured " + transport.toUpperCase(Locale.US) + " stream");
+        return true;
+    }
+
+    private static boolean hasServerList(Intent intent) {
+        String[] addresses = intent.getStringArrayExtra(GPSD_SERVER_ADDRESSES);
+        int[] ports = intent.getIntArrayExtra(GPSD_SERVER_PORTS);
+        return addresses != null && ports != null && addresses.length == ports.length && addresses.length > 0;
+    }
+
+    private static String[] getServerHosts(Intent intent, String serverAddress) {
+        return hasServerList(intent) ? intent.getStringArrayExtra(GPSD_SERVER_ADDRESSES) : new String[]{serverAddress};
+    }
+
+    private static int[] getServerPorts(Intent intent, int serverPort) {
+        return hasServerList(intent) ? intent.getIntArrayExtra(GPSD_SERVER_PORTS) : new int[]{serverPort};
+    }
+
+    /**
+     * Point the stream at the servers once resolved, and again whenever their addresses change.
+     * Until then, sentences are journaled or discarded.
+     */
+    private void resolveServers(QueuedSensorStream stream, String transport, String[] hosts, int[] ports,
+                                int sensorPort) {
+        if (transport.equals(TRANSPORT_TCP_SERVER)) {
+            // Listens on every interface, nothing to resolve
+            addressResolver.setTargets(new String[0], new int[0], null);
+            return;
+        }
+        stream.setSendErrorListener(addressResolver::onSendError);
+        addressResolver.setTargets(hosts, ports, addresses -> {
+            // Called from the resolver thread, possibly after the stream was replaced
+            if (forwarder.getStream() != stream)
+                return;
+            try {
+                if (stream instanceof UdpSensorStream)
+                    ((UdpSensorStream)stream).setDestinations(addresses, sensorPort);
+                else
+                    ((TcpSensorStream)stream).setAddress(addresses[0]);
+            } catch (IOException e) {
+                log(LogBuffer.Level.ERROR, e.toString());
+            }
+        });
+    }
+
+    /**
+     * Resolve the servers again when the default network changes, e.g. switching between Wi-Fi
+     * and mobile data, which may have different DNS views, and reopen the stream's sockets on the
+     * new network.
+     */
+    private void registerNetworkCallback() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP)
+            return;  // Relies on the TTL and send errors instead
+        networkCallback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                onNetworkChanged();
+            }
+
+            @Override
+            public void onLost(Network network) {
+                onNetworkChanged();
+            }
+        };
+        ConnectivityManager connectivityManager = (ConnectivityManager)getSystemService(Context.CONNECTIVITY_SERVICE);
+        try {
+            connectivityManager.registerNetworkCallback(new NetworkRequest.Builder()
+                    .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                    .build(), networkCallback);
+        } catch (RuntimeException e) {
+            log(e.toString());
+            networkCallback = null;
+        }
+    }
+
+    /**
+     * Called from the connectivity callback. Datagram sockets are reopened once the resolver
+     * reports the addresses, a TCP connection right away.
+     */
+    private void onNetworkChanged() {
+        addressResolver.onNetworkChanged();
+        SensorStream stream = forwarder.getStream();
+        if (stream instanceof TcpSensorStream)
+            ((TcpSensorStream)stream).reconnect();
+    }
+
+    private static void checkTransportSupport(String transport, String[] hosts, Intent intent) {
+        if (transport.equals(TRANSPORT_UDP))
+            return;
+        if (hosts.length > 1)
+            throw new IllegalArgumentException("Streaming to multiple servers is only supported over UDP");
+        if (intent.getIntExtra(GPSD_SENSOR_PORT, 0) > 0)
+            throw new IllegalArgumentException("Streaming motion sensors is only supported over UDP");
+        if (intent.getBooleanExtra(GPSD_TIME_SERVICE, false))
+            throw new IllegalArgumentException("Time service is only supported over UDP");
+        if (intent.getBooleanExtra(GPSD_COMPRESSION, false))
+            throw new IllegalArgumentException("Compression is only supported over UDP");
+    }
+
+    /**
+     * Create a stream without destinations, which are set by {@link #resolveServers}.
+     */
+    private QueuedSensorStream createSensorStream(String transport, String[] hosts, int[] ports, Intent intent) throws IOException {
+        int queueCapacity = intent.getIntExtra(GPSD_QUEUE_BYTES, DEFAULT_QUEUE_BYTES);
+        String overflowPolicyName = intent.getStringExtra(GPSD_OVERFLOW_POLICY);
+        SentenceRingBuffer.OverflowPolicy overflowPolicy = overflowPolicyName != null ?
+                SentenceRingBuffer.OverflowPolicy.valueOf(overflowPolicyName) :
+                SentenceRingBuffer.OverflowPolicy.DROP_NEWEST;
+        checkTransportSupport(transport, hosts, intent);
+        switch (transport) {
+            case TRANSPORT_UDP:
+                UdpSensorStream stream = new UdpSensorStream(new InetSocketAddress[0], intent.getIntExtra(GPSD_SENSOR_PORT, 0),
+                        intent.getLongExtra(GPSD_BATCH_DEADLINE_MS, 0), queueCapacity, overflowPolicy);
+                if (intent.getBooleanExtra(GPSD_TIME_SERVICE, false))
+                    stream.setTimeService(intent.getBooleanExtra(GPSD_HAL_TIMESTAMPS, false));
+                stream.setCompression(intent.getBooleanExtra(GPSD_COMPRESSION, false));
+                return stream;
+            case TRANSPORT_TCP:
+                return new TcpSensorStream(null, queueCapacity, overflowPolicy);
+            case TRANSPORT_TCP_SERVER:
+                // Listens on every interface, the server address is ignored
+                return new TcpServerSensorStream(new InetSocketAddress(ports[0]),
+                        TcpServerSensorStream.DEFAULT_CLIENT_BUFFER_SIZE, queueCapacity, overflowPolicy);
+            default:
+                throw new IllegalArgumentException("Unknown transport " + transport);
+        }
+    }
+
     @Override
     public IBinder onBind(Intent intent) {
         return binder;
@@ -99,27 +427,74 @@ public class GpsdForwarderService extends Service implements LoggingCallback, On
     public void onDestroy() {
         super.onDestroy();
         nmeaMessageListener.stop();
-        if (sensorStream != null)
-            sensorStream.stop();
-        wakeLock.release();
+        if (networkCallback != null)
+            ((ConnectivityManager)getSystemService(Context.CONNECTIVITY_SERVICE)).unregisterNetworkCallback(networkCallback);
+        stopSensorStream();
+        // Once the stream stopped, keeping the device awake while it sends what it still has
+        streamExecutor.execute(() -> {
+            addressResolver.stop();
+            wakeLock.release();
+        });
+        streamExecutor.shutdown();
+    }
+
+    private void stopMotionSensors() {
+        if (motionSensorCapture == null)
+            return;
+        motionSensorCapture.stop();
+        log(motionSensorCapture.getStatistics());
+        motionSensorCapture = null;
     }
 
+    private void stopSensorStream() {
+        // Stopped first, so that their last frames are sent
+        stopMotionSensors();
+        SentenceFilter filter = forwarder.getFilter();
+        AdaptiveRateController rateController = forwarder.getRateController();
+        DuplicateSuppressor duplicateSuppressor = forwarder.getDuplicateSuppressor();
+        SensorStream stream = forwarder.stop();
+        if (stream == null)
+            return;
+        streamExecutor.execute(() -> {
+            stream.stop();
+            log(stream.getStatistics());
+        });
+        log("HAL to callback: " + forwarder.getCallbackLatency().getSummary());
+        forwarder.getCallbackLatency().reset();
+        log(forwarder.getScanner().getStatistics());
+        if (filter != null)
+            log(filter.getStatistics());
+        if (rateController != null)
+            log(rateController.getStatistics());
+        if (duplicateSuppressor != null)
+            log(duplicateSuppressor.getStatistics());
+        log(addressResolver.getStatistics());
+    }
 
-    @Override
-    public void onNmeaMessage(String nmeaMessage) {
-        if (sensorStream != null)
-            sensorStream.send(nmeaMessage + "\r\n");
+    private void onNmeaMessage(String message, long timestamp) {
+        forwarder.onNmeaMessage(message, timestamp);
+        LogBuffer log = logBuffer;
+        if (log != null && log.isEnabled(LogBuffer.Level.TRACE))
+            log.log(LogBuffer.Level.TRACE, message);
     }
 
     @Override
     public void log(String message) {
-        Log.i(TAG, message);
-        if (loggingCallback != null)
-            loggingCallback.log(message);
+        log(LogBuffer.Level.INFO, message);
+    }
+
+    private void log(LogBuffer.Level level, String message) {
+        if (level == LogBuffer.Level.ERROR)
+            Log.e(TAG, message);
+        else
+            Log.i(TAG, message);
+        LogBuffer log = logBuffer;
+        if (log != null)
+            log.log(level, message);
     }
 
     private void fail(String message) {
-        log(message);
+        log(LogBuffer.Level.ERROR, message);
         stopForeground(true);
         stopSelf();
     }
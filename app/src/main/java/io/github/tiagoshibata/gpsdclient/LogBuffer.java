@@ -0,0 +1,116 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded log of recent messages, written without locks from any thread.
+ * <p>
+ * Messages are stored in a ring and the oldest are overwritten. Instead of notifying the reader
+ * of every message, the change listener is called once after the reader has caught up, so that a
+ * burst of messages costs a single redraw.
+ */
+class LogBuffer implements LoggingCallback {
+    enum Level {
+        ERROR,
+        INFO,
+        // Every forwarded sentence
+        TRACE,
+    }
+
+    private static class Entry {
+        private final long sequence;
+        private final String message;
+
+        private Entry(long sequence, String message) {
+            this.sequence = sequence;
+            this.message = message;
+        }
+    }
+
+    private final AtomicReferenceArray<Entry> entries;
+    private final int mask;
+    private final AtomicLong nextSequence = new AtomicLong();
+    private final AtomicBoolean changed = new AtomicBoolean();
+    private final Runnable changeListener;
+    private volatile Level level = Level.INFO;
+
+    /**
+     * @param  capacity       messages kept, rounded up to a power of two
+     * @param  changeListener called from the writing thread when the log changes after it was
+     *                        last read
+     */
+    LogBuffer(int capacity, Runnable changeListener) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        entries = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+        this.changeListener = changeListener;
+    }
+
+    void setLevel(Level level) {
+        this.level = level;
+    }
+
+    /**
+     * @return whether messages of the given level are kept. Check before building expensive
+     * messages.
+     */
+    boolean isEnabled(Level level) {
+        return level.compareTo(this.level) <= 0;
+    }
+
+    void log(Level level, String message) {
+        if (!isEnabled(level))
+            return;
+        long sequence = nextSequence.getAndIncrement();
+        entries.set((int)sequence & mask, new Entry(sequence, message));
+        if (!changed.getAndSet(true))
+            changeListener.run();
+    }
+
+    @Override
+    public void log(String message) {
+        log(Level.INFO, message);
+    }
+
+    /**
+     * Get the most recent messages, marking the log as read.
+     *
+     * @param  maxLines maximum number of lines, counting line breaks inside messages
+     * @return the messages, oldest first, separated by line breaks
+     */
+    String getTail(int maxLines) {
+        changed.set(false);
+        long end = nextSequence.get();
+        long start = end;
+        int lines = 0;
+        // Walk back to find where the tail starts, skipping entries overwritten meanwhile
+        while (start > 0 && end - start < entries.length() && lines < maxLines) {
+            Entry entry = entries.get((int)(start - 1) & mask);
+            if (entry == null || entry.sequence != start - 1)
+                break;
+            lines += countLines(entry.message);
+            start--;
+        }
+        StringBuilder tail = new StringBuilder();
+        for (long sequence = start; sequence < end; sequence++) {
+            Entry entry = entries.get((int)sequence & mask);
+            if (entry == null || entry.sequence != sequence)
+                continue;
+            if (tail.length() > 0)
+                tail.append('\n');
+            tail.append(entry.message);
+        }
+        return tail.toString();
+    }
+
+    private static int countLines(String message) {
+        int lines = 1;
+        for (int i = 0; i < message.length(); i++) {
+            if (message.charAt(i) == '\n')
+                lines++;
+        }
+        return lines;
+    }
+}
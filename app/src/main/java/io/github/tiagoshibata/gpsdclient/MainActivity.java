@@ -9,58 +9,125 @@ import android.content.ServiceConnection;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.location.LocationManager;
-import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
 import android.provider.Settings;
 import android.text.Editable;
 import android.text.TextWatcher;
-import android.text.method.ScrollingMovementMethod;
+import android.view.Choreographer;
 import android.view.View;
+import android.widget.AdapterView;
 import android.widget.Button;
+import android.widget.CheckBox;
+import android.widget.Spinner;
 import android.widget.TextView;
 
-import java.lang.ref.WeakReference;
-import java.net.InetAddress;
-import java.net.UnknownHostException;
-
 public class MainActivity extends Activity {
     private static final int REQUEST_CODE_FINE_LOCATION = 0;
     private static final String SERVER_ADDRESS = "SERVER_ADDRESS";
     private static final String SERVER_PORT = "SERVER_PORT";
+    private static final String BATCH_EPOCHS = "BATCH_EPOCHS";
+    private static final String STORE_AND_FORWARD = "STORE_AND_FORWARD";
+    private static final String MOTION_SENSORS = "MOTION_SENSORS";
+    private static final String ADAPTIVE_RATE = "ADAPTIVE_RATE";
+    private static final String SKIP_DUPLICATES = "SKIP_DUPLICATES";
+    private static final String TIME_SERVICE = "TIME_SERVICE";
+    private static final String HAL_TIMESTAMPS = "HAL_TIMESTAMPS";
+    private static final String COMPRESSION = "COMPRESSION";
+    private static final int STATIONARY_INTERVAL_S = 30;
+    private static final int DUPLICATE_REFRESH_S = 10;
+    private static final int JOURNAL_BYTES = 4 * 1024 * 1024;
+    // A couple of epochs at 1 Hz, older fixes are useless to a live client
+    private static final long MAX_SENTENCE_AGE_MS = 2000;
+    private static final String TRANSPORT = "TRANSPORT";
+    private static final String SENTENCE_FILTER = "SENTENCE_FILTER";
+    private static final String LOG_LEVEL = "LOG_LEVEL";
+    private static final int LOG_CAPACITY = 256;
+    // Matches the entries of R.array.transports
+    private static final String[] TRANSPORTS = {
+            GpsdForwarderService.TRANSPORT_UDP,
+            GpsdForwarderService.TRANSPORT_TCP,
+            GpsdForwarderService.TRANSPORT_TCP_SERVER,
+    };
+    // Long enough to gather a whole burst of sentences from the chipset, short enough to stay
+    // within a 1 Hz epoch
+    private static final long BATCH_DEADLINE_MS = 250;
+    private static final long STATISTICS_INTERVAL_MS = 2000;
     private Intent gpsdForwarderServiceIntent;
     private SharedPreferences preferences;
     private TextView textView;
+    private TextView statisticsTextView;
     private TextView serverAddressTextView;
     private TextView serverPortTextView;
+    private TextView sentenceFilterTextView;
+    private CheckBox batchEpochsCheckBox;
+    private CheckBox storeAndForwardCheckBox;
+    private CheckBox motionSensorsCheckBox;
+    private CheckBox adaptiveRateCheckBox;
+    private CheckBox skipDuplicatesCheckBox;
+    private CheckBox timeServiceCheckBox;
+    private CheckBox halTimestampsCheckBox;
+    private CheckBox compressionCheckBox;
+    private Spinner transportSpinner;
+    private Spinner logLevelSpinner;
     private Button startStopButton;
+    private Button applyButton;
     private boolean connected;
+    private GpsdForwarderService.Binder serviceBinder;
+    private final Handler handler = new Handler();
+    // Redraw the log at most once per frame, however many messages arrive
+    private final Choreographer.FrameCallback logRenderer = frameTimeNanos -> renderLog();
+    private final Runnable logRenderScheduler = () -> Choreographer.getInstance().postFrameCallback(logRenderer);
+    private final LogBuffer logBuffer = new LogBuffer(LOG_CAPACITY, () -> handler.post(logRenderScheduler));
+    private final Runnable statisticsUpdater = new Runnable() {
+        @Override
+        public void run() {
+            if (serviceBinder == null)
+                return;
+            String statistics = serviceBinder.getStatistics();
+            statisticsTextView.setText(statistics != null ? statistics : "");
+            handler.postDelayed(this, STATISTICS_INTERVAL_MS);
+        }
+    };
     private ServiceConnection serviceConnection = new ServiceConnection() {
-        private LoggingCallback logger = message -> runOnUiThread(() -> print(message));
-
         @Override
         public void onServiceConnected(ComponentName name, IBinder service) {
             GpsdForwarderService.Binder binder = (GpsdForwarderService.Binder)service;
-            binder.setLoggingCallback(logger);
+            binder.setLog(logBuffer);
+            serviceBinder = binder;
+            handler.post(statisticsUpdater);
         }
 
         @Override
         public void onServiceDisconnected(ComponentName name) {
-            logger.log("GpsdForwarderService died");
+            logBuffer.log(LogBuffer.Level.ERROR, "GpsdForwarderService died");
+            stopStatisticsUpdates();
             setServiceConnected(false);
             startStopButton.setEnabled(true);
         }
     };
-    private AsyncTask<String, Void, String> gpsdServiceTask;
 
     private void initializeUi() {
         setContentView(R.layout.activity_main);
         textView = findViewById(R.id.textView);
-        textView.setMovementMethod(new ScrollingMovementMethod());
+        statisticsTextView = findViewById(R.id.statistics);
         serverAddressTextView = findViewById(R.id.serverAddress);
         serverPortTextView = findViewById(R.id.serverPort);
+        sentenceFilterTextView = findViewById(R.id.sentenceFilter);
+        batchEpochsCheckBox = findViewById(R.id.batchEpochs);
+        storeAndForwardCheckBox = findViewById(R.id.storeAndForward);
+        motionSensorsCheckBox = findViewById(R.id.motionSensors);
+        adaptiveRateCheckBox = findViewById(R.id.adaptiveRate);
+        skipDuplicatesCheckBox = findViewById(R.id.skipDuplicates);
+        timeServiceCheckBox = findViewById(R.id.timeService);
+        halTimestampsCheckBox = findViewById(R.id.halTimestamps);
+        compressionCheckBox = findViewById(R.id.compression);
+        transportSpinner = findViewById(R.id.transport);
+        logLevelSpinner = findViewById(R.id.logLevel);
         startStopButton = findViewById(R.id.startStopButton);
+        applyButton = findViewById(R.id.applyButton);
 
         serverPortTextView.addTextChangedListener(new TextWatcher() {
             @Override
@@ -83,8 +150,11 @@ public class MainActivity extends Activity {
                     else if (text.charAt(0) == '0')
                         serverPortTextView.setText(Integer.toString(value));
                     startStopButton.setEnabled(true);
+                    applyButton.setEnabled(connected);
                 } else {
-                    startStopButton.setEnabled(false);
+                    // Stopping doesn't need a port
+                    startStopButton.setEnabled(connected);
+                    applyButton.setEnabled(false);
                 }
             }
         });
@@ -92,6 +162,29 @@ public class MainActivity extends Activity {
         preferences = getPreferences(MODE_PRIVATE);
         serverAddressTextView.setText(getStringPreferenceOrEmpty(SERVER_ADDRESS));
         serverPortTextView.setText(getStringPreferenceOrEmpty(SERVER_PORT));
+        sentenceFilterTextView.setText(getStringPreferenceOrEmpty(SENTENCE_FILTER));
+        batchEpochsCheckBox.setChecked(preferences.getBoolean(BATCH_EPOCHS, false));
+        storeAndForwardCheckBox.setChecked(preferences.getBoolean(STORE_AND_FORWARD, false));
+        motionSensorsCheckBox.setChecked(preferences.getBoolean(MOTION_SENSORS, false));
+        adaptiveRateCheckBox.setChecked(preferences.getBoolean(ADAPTIVE_RATE, false));
+        skipDuplicatesCheckBox.setChecked(preferences.getBoolean(SKIP_DUPLICATES, false));
+        timeServiceCheckBox.setChecked(preferences.getBoolean(TIME_SERVICE, false));
+        halTimestampsCheckBox.setChecked(preferences.getBoolean(HAL_TIMESTAMPS, false));
+        compressionCheckBox.setChecked(preferences.getBoolean(COMPRESSION, false));
+        transportSpinner.setSelection(Math.min(preferences.getInt(TRANSPORT, 0), TRANSPORTS.length - 1));
+        // Entries of R.array.log_levels match LogBuffer.Level
+        logLevelSpinner.setSelection(Math.min(preferences.getInt(LOG_LEVEL, LogBuffer.Level.INFO.ordinal()),
+                LogBuffer.Level.values().length - 1));
+        logLevelSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                logBuffer.setLevel(LogBuffer.Level.values()[position]);
+                preferences.edit().putInt(LOG_LEVEL, position).apply();
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {}
+        });
     }
 
     private String getStringPreferenceOrEmpty(String key) {
@@ -120,6 +213,8 @@ public class MainActivity extends Activity {
     protected void onDestroy() {
         super.onDestroy();
         stopGpsdService();
+        handler.removeCallbacks(logRenderScheduler);
+        Choreographer.getInstance().removeFrameCallback(logRenderer);
     }
 
     private boolean ensureLocationPermission() {
@@ -143,97 +238,183 @@ public class MainActivity extends Activity {
         if (!ensureLocationPermission())
             return;
         if (!connected) {
-            String serverAddress = serverAddressTextView.getText().toString();
-            String serverPort = serverPortTextView.getText().toString();
-            preferences.edit()
-                    .putString(SERVER_ADDRESS, serverAddress)
-                    .putString(SERVER_PORT, serverPort)
-                    .apply();
-            gpsdServiceTask = new StartGpsdServiceTask(this);
-            gpsdServiceTask.execute(serverAddress, serverPort);
-            startStopButton.setEnabled(false);
+            setServiceConnected(startGpsdService());
         } else {
             stopGpsdService();
+            setServiceConnected(false);
         }
-        setServiceConnected(!connected);
     }
 
-    private static class StartGpsdServiceTask extends AsyncTask<String, Void, String> {
-        private WeakReference<MainActivity> activityRef;
-        private int port;
+    /**
+     * Apply the settings to the running service, which switches without losing sentences.
+     */
+    public void applyButtonOnClick(View view) {
+        if (connected)
+            startGpsdService();
+    }
 
-        StartGpsdServiceTask(MainActivity activity) {
-            activityRef = new WeakReference<>(activity);
+    /**
+     * Start the service, or apply the settings if it's running. Host names are passed unresolved
+     * and resolved by the service in the background.
+     *
+     * @return false if the settings are invalid or the service couldn't be started
+     */
+    private boolean startGpsdService() {
+        String serverAddress = serverAddressTextView.getText().toString();
+        String serverPort = serverPortTextView.getText().toString();
+        preferences.edit()
+                .putString(SERVER_ADDRESS, serverAddress)
+                .putString(SERVER_PORT, serverPort)
+                .putBoolean(BATCH_EPOCHS, batchEpochsCheckBox.isChecked())
+                .putBoolean(STORE_AND_FORWARD, storeAndForwardCheckBox.isChecked())
+                .putBoolean(MOTION_SENSORS, motionSensorsCheckBox.isChecked())
+                .putBoolean(ADAPTIVE_RATE, adaptiveRateCheckBox.isChecked())
+                .putBoolean(SKIP_DUPLICATES, skipDuplicatesCheckBox.isChecked())
+                .putBoolean(TIME_SERVICE, timeServiceCheckBox.isChecked())
+                .putBoolean(HAL_TIMESTAMPS, halTimestampsCheckBox.isChecked())
+                .putBoolean(COMPRESSION, compressionCheckBox.isChecked())
+                .putInt(TRANSPORT, transportSpinner.getSelectedItemPosition())
+                .putString(SENTENCE_FILTER, sentenceFilterTextView.getText().toString())
+                .apply();
+        // When listening, only the port is used
+        String[] servers = (isServerMode() ? "0.0.0.0" : serverAddress).split(",");
+        String[] hosts = new String[servers.length];
+        int[] ports = new int[servers.length];
+        if (!parseServers(servers, serverPort, hosts, ports))
+            return false;
+        Intent intent = new Intent(this, GpsdForwarderService.class);
+        intent.putExtra(GpsdForwarderService.GPSD_SERVER_ADDRESS, hosts[0])
+                .putExtra(GpsdForwarderService.GPSD_SERVER_PORT, ports[0])
+                .putExtra(GpsdForwarderService.GPSD_SERVER_ADDRESSES, hosts)
+                .putExtra(GpsdForwarderService.GPSD_SERVER_PORTS, ports)
+                .putExtra(GpsdForwarderService.GPSD_BATCH_DEADLINE_MS,
+                        batchEpochsCheckBox.isChecked() ? BATCH_DEADLINE_MS : 0)
+                .putExtra(GpsdForwarderService.GPSD_JOURNAL_BYTES,
+                        storeAndForwardCheckBox.isChecked() ? JOURNAL_BYTES : 0)
+                // Late sentences are kept when storing and forwarding, which delivers everything
+                .putExtra(GpsdForwarderService.GPSD_MAX_SENTENCE_AGE_MS,
+                        storeAndForwardCheckBox.isChecked() ? 0 : MAX_SENTENCE_AGE_MS)
+                .putExtra(GpsdForwarderService.GPSD_SENSOR_PORT,
+                        motionSensorsCheckBox.isChecked() ? ports[0] + 1 : 0)
+                .putExtra(GpsdForwarderService.GPSD_STATIONARY_INTERVAL_S,
+                        adaptiveRateCheckBox.isChecked() ? STATIONARY_INTERVAL_S : 0)
+                .putExtra(GpsdForwarderService.GPSD_DUPLICATE_REFRESH_S,
+                        skipDuplicatesCheckBox.isChecked() ? DUPLICATE_REFRESH_S : 0)
+                .putExtra(GpsdForwarderService.GPSD_TIME_SERVICE, timeServiceCheckBox.isChecked())
+                .putExtra(GpsdForwarderService.GPSD_HAL_TIMESTAMPS, halTimestampsCheckBox.isChecked())
+                .putExtra(GpsdForwarderService.GPSD_COMPRESSION, compressionCheckBox.isChecked())
+                .putExtra(GpsdForwarderService.GPSD_TRANSPORT,
+                        TRANSPORTS[transportSpinner.getSelectedItemPosition()])
+                .putExtra(GpsdForwarderService.GPSD_SENTENCE_FILTER,
+                        sentenceFilterTextView.getText().toString());
+        print(isServerMode() ? "Listening on port " + ports[0] : "Streaming to " + describeServers(hosts, ports));
+        if (gpsdForwarderServiceIntent != null) {
+            // Already running and bound, the service applies the new settings
+            if (startService(intent) == null) {
+                print("Failed to reconfigure service");
+                return true;  // Still running with the previous settings
+            }
+            gpsdForwarderServiceIntent = intent;
+            return true;
+        }
+        try {
+            if (!bindService(intent, serviceConnection, BIND_ABOVE_CLIENT | BIND_IMPORTANT)) {
+                throw new RuntimeException("Failed to bind to service");
+            }
+            if (startService(intent) == null) {
+                unbindService(serviceConnection);
+                throw new RuntimeException("Failed to start service");
+            }
+            gpsdForwarderServiceIntent = intent;
+        } catch (RuntimeException e) {
+            print(e.getMessage());
+            return false;
         }
+        return true;
+    }
 
-        @Override
-        protected String doInBackground(String... host) {
-            port = Integer.parseInt(host[1]);
+    /**
+     * Parse a list of servers, given as host or host:port (IPv6 addresses with a port must be
+     * enclosed in brackets).
+     *
+     * @param  servers     servers to be parsed
+     * @param  defaultPort port of servers given without one
+     * @param  hosts       receives the host of each server
+     * @param  ports       receives the port of each server
+     * @return false if a port is invalid
+     */
+    private boolean parseServers(String[] servers, String defaultPort, String[] hosts, int[] ports) {
+        for (int i = 0; i < servers.length; i++) {
+            String server = servers[i].trim();
+            String port = defaultPort;
+            hosts[i] = server;
+            int portSeparator = server.lastIndexOf(':');
+            if (portSeparator > 0 && (server.indexOf(':') == portSeparator || server.charAt(portSeparator - 1) == ']')) {
+                hosts[i] = server.substring(0, portSeparator);
+                port = server.substring(portSeparator + 1);
+            }
+            // Brackets only delimit IPv6 literals from the port
+            if (hosts[i].startsWith("[") && hosts[i].endsWith("]"))
+                hosts[i] = hosts[i].substring(1, hosts[i].length() - 1);
             try {
-                return InetAddress.getByName(host[0]).getHostAddress();
-            } catch (UnknownHostException e) {
-                cancel(false);
-                return "Can't resolve " + host[0];
+                ports[i] = Integer.parseInt(port);
+            } catch (NumberFormatException e) {
+                print("Invalid port in " + server);
+                return false;
+            }
+            if (hosts[i].isEmpty() || ports[i] <= 0 || ports[i] > 65535) {
+                print("Invalid server " + server);
+                return false;
             }
         }
+        return true;
+    }
 
-        @Override
-        protected void onCancelled(String result) {
-            MainActivity activity = activityRef.get();
-            if (activity == null)
-                return;
-            activity.print(result != null ? result : "StartGpsdServiceTask was cancelled");
-            activity.setServiceConnected(false);
-            activity.startStopButton.setEnabled(true);
+    private static String describeServers(String[] hosts, int[] ports) {
+        StringBuilder description = new StringBuilder();
+        for (int i = 0; i < hosts.length; i++) {
+            if (i > 0)
+                description.append(", ");
+            description.append(hosts[i]).append(':').append(ports[i]);
         }
+        return description.toString();
+    }
 
-        @Override
-        protected void onPostExecute(String address) {
-            MainActivity activity = activityRef.get();
-            if (activity == null)
-                return;
-            Intent intent = new Intent(activity, GpsdForwarderService.class);
-            intent.putExtra(GpsdForwarderService.GPSD_SERVER_ADDRESS, address)
-                    .putExtra(GpsdForwarderService.GPSD_SERVER_PORT, port);
-            activity.print("Streaming to " + address + ":" + port);
-            try {
-                if (!activity.bindService(intent, activity.serviceConnection, BIND_ABOVE_CLIENT | BIND_IMPORTANT)) {
-                    throw new RuntimeException("Failed to bind to service");
-                }
-                if (activity.startService(intent) == null) {
-                    activity.unbindService(activity.serviceConnection);
-                    throw new RuntimeException("Failed to start service");
-                }
-                activity.gpsdForwarderServiceIntent = intent;
-            } catch (RuntimeException e) {
-                activity.setServiceConnected(false);
-                activity.print(e.getMessage());
-            }
-            activity.startStopButton.setEnabled(true);
-            activity.gpsdServiceTask = null;
-        }
+    private boolean isServerMode() {
+        return TRANSPORTS[transportSpinner.getSelectedItemPosition()].equals(GpsdForwarderService.TRANSPORT_TCP_SERVER);
     }
 
     private void stopGpsdService() {
-        if (gpsdServiceTask != null) {
-            gpsdServiceTask.cancel(true);
-            gpsdServiceTask = null;
-        }
         if (gpsdForwarderServiceIntent != null) {
+            stopStatisticsUpdates();
             unbindService(serviceConnection);
             stopService(gpsdForwarderServiceIntent);
             gpsdForwarderServiceIntent = null;
         }
     }
 
+    private void stopStatisticsUpdates() {
+        serviceBinder = null;
+        handler.removeCallbacks(statisticsUpdater);
+    }
+
     private void setServiceConnected(boolean connected) {
         this.connected = connected;
         startStopButton.setText(connected ? R.string.stop : R.string.start);
-        serverAddressTextView.setEnabled(!connected);
-        serverPortTextView.setEnabled(!connected);
+        // Settings stay editable while streaming, and are applied with the apply button
+        applyButton.setEnabled(connected);
     }
 
     private void print(String message) {
-        textView.append(message + "\n");
+        logBuffer.log(message);
+    }
+
+    /**
+     * Show the tail of the log that fits the view.
+     */
+    private void renderLog() {
+        int height = textView.getHeight();
+        int lines = height > 0 ? Math.max(1, height / textView.getLineHeight()) : LOG_CAPACITY;
+        textView.setText(logBuffer.getTail(lines));
     }
 }
@@ -0,0 +1,114 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import java.util.Locale;
+
+/**
+ * Captures accelerometer, gyroscope and barometer samples and packs them into binary frames.
+ * <p>
+ * Sensors are registered with a maximum report latency, so that chipsets with a FIFO batch
+ * samples and wake the application processor less often. Samples are delivered on a dedicated
+ * thread, separate from NMEA delivery, which is the single producer of the frame queue.
+ */
+class MotionSensorCapture implements SensorEventListener {
+    private static final int FRAMES = 64;
+    private static final long STOP_TIMEOUT_MS = 1000;
+    private final SensorManager sensorManager;
+    private final LoggingCallback loggingCallback;
+    private final FrameQueue frameQueue = new FrameQueue(FRAMES, UdpSensorStream.MAX_DATAGRAM_SIZE);
+    private final SensorFrameEncoder accelerometer =
+            new SensorFrameEncoder(frameQueue, SensorFrameEncoder.TYPE_ACCELEROMETER, 3);
+    private final SensorFrameEncoder gyroscope =
+            new SensorFrameEncoder(frameQueue, SensorFrameEncoder.TYPE_GYROSCOPE, 3);
+    private final SensorFrameEncoder pressure =
+            new SensorFrameEncoder(frameQueue, SensorFrameEncoder.TYPE_PRESSURE, 1);
+    private HandlerThread handlerThread;
+
+    MotionSensorCapture(SensorManager sensorManager, LoggingCallback loggingCallback) {
+        this.sensorManager = sensorManager;
+        this.loggingCallback = loggingCallback;
+    }
+
+    /**
+     * @return frames to be transmitted by the stream
+     */
+    FrameQueue getFrameQueue() {
+        return frameQueue;
+    }
+
+    /**
+     * Register the sensors that are available.
+     *
+     * @param  rateHz             requested sampling rate, a hint to the sensors
+     * @param  maxReportLatencyUs maximum time samples can be batched by the sensor hub
+     */
+    void start(int rateHz, int maxReportLatencyUs) {
+        handlerThread = new HandlerThread("MotionSensors", Process.THREAD_PRIORITY_DISPLAY);
+        handlerThread.start();
+        Handler handler = new Handler(handlerThread.getLooper());
+        int samplingPeriodUs = 1000000 / Math.max(rateHz, 1);
+        for (int type : new int[]{Sensor.TYPE_ACCELEROMETER, Sensor.TYPE_GYROSCOPE, Sensor.TYPE_PRESSURE}) {
+            Sensor sensor = sensorManager.getDefaultSensor(type);
+            if (sensor == null) {
+                loggingCallback.log("Sensor type " + type + " not available");
+                continue;
+            }
+            if (!sensorManager.registerListener(this, sensor, samplingPeriodUs, maxReportLatencyUs, handler))
+                loggingCallback.log("Failed to register " + sensor.getName());
+        }
+    }
+
+    /**
+     * Unregister the sensors and publish the last partial frames, waiting briefly for the sensor
+     * thread to finish.
+     */
+    void stop() {
+        if (handlerThread == null)
+            return;
+        sensorManager.unregisterListener(this);
+        // Flushed from the sensor thread, which is the only producer of the frame queue
+        new Handler(handlerThread.getLooper()).post(() -> {
+            accelerometer.flush();
+            gyroscope.flush();
+            pressure.flush();
+        });
+        handlerThread.quitSafely();
+        try {
+            handlerThread.join(STOP_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        handlerThread = null;
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        switch (event.sensor.getType()) {
+            case Sensor.TYPE_ACCELEROMETER:
+                accelerometer.add(event.timestamp, event.values);
+                break;
+            case Sensor.TYPE_GYROSCOPE:
+                gyroscope.add(event.timestamp, event.values);
+                break;
+            case Sensor.TYPE_PRESSURE:
+                pressure.add(event.timestamp, event.values);
+                break;
+        }
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {}  // Ignored
+
+    String getStatistics() {
+        return String.format(Locale.US, "Encoded %d accelerometer, %d gyroscope and %d pressure samples, dropped %d",
+                accelerometer.getSamplesEncoded(), gyroscope.getSamplesEncoded(), pressure.getSamplesEncoded(),
+                accelerometer.getSamplesDropped() + gyroscope.getSamplesDropped() + pressure.getSamplesDropped());
+    }
+}
@@ -8,38 +8,90 @@ import android.location.LocationProvider;
 import android.location.OnNmeaMessageListener;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
+/**
+ * Receives NMEA sentences and location provider events on a dedicated high priority thread, so
+ * that delivery isn't delayed by work on the main thread.
+ */
 public class NmeaMessageListenerCompat implements LocationListener {
     private LocationManager locationManager;
     private LoggingCallback loggingCallback;
+    private HandlerThread handlerThread;
     private GpsStatus.NmeaListener nmeaListener;
     private OnNmeaMessageListener onNmeaMessageListener;
 
+    /**
+     * Register the listeners. Callbacks are invoked from the listener thread.
+     *
+     * @throws RuntimeException if the listeners couldn't be registered, in which case the listener
+     * thread is stopped
+     */
     void start(LocationManager locationManager, OnNmeaMessageListenerCompat listener, LoggingCallback loggingCallback) {
         this.locationManager = locationManager;
         this.loggingCallback = loggingCallback;
+        handlerThread = new HandlerThread("NmeaListener", Process.THREAD_PRIORITY_URGENT_DISPLAY);
+        handlerThread.start();
+        Handler handler = new Handler(handlerThread.getLooper());
+        try {
+            register(listener, handler);
+        } catch (RuntimeException e) {
+            // Nothing will be delivered, release the thread and updates requested before failing
+            locationManager.removeUpdates(this);
+            handlerThread.quit();
+            handlerThread = null;
+            throw e;
+        }
+    }
 
+    private void register(OnNmeaMessageListenerCompat listener, Handler handler) {
         try {
             try {
-                locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, 0, 0, this);
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R)
+                    locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, 0, 0, (Executor)handler::post, this);
+                else
+                    locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, 0, 0, this, handler.getLooper());
             } catch (IllegalArgumentException e) {
                 throw new RuntimeException("No GPS available");
             }
 
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-                onNmeaMessageListener = (message, timestamp) -> listener.onNmeaMessage(message);
-                locationManager.addNmeaListener(onNmeaMessageListener);
+                onNmeaMessageListener = (message, timestamp) -> listener.onNmeaMessage(message, timestamp);
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R)
+                    locationManager.addNmeaListener(handler::post, onNmeaMessageListener);
+                else
+                    locationManager.addNmeaListener(onNmeaMessageListener, handler);
             } else {
-                nmeaListener = (timestamp, message) -> listener.onNmeaMessage(message);
-                // Workaround SDK 29 bug: https://issuetracker.google.com/issues/141019880
-                try {
+                nmeaListener = (timestamp, message) -> listener.onNmeaMessage(message, timestamp);
+                // The legacy listener is called on the looper of the thread registering it, so
+                // register it from the listener thread
+                FutureTask<Void> registration = new FutureTask<>(() -> {
+                    // Workaround SDK 29 bug: https://issuetracker.google.com/issues/141019880
                     Method addNmeaListener = LocationManager.class.getMethod("addNmeaListener", GpsStatus.NmeaListener.class);
                     addNmeaListener.invoke(locationManager, nmeaListener);
-                } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
-                    throw new RuntimeException("Failed to call addNmeaListener through reflection: " + e.toString());
+                    return null;
+                });
+                handler.post(registration);
+                try {
+                    registration.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof SecurityException)
+                        throw (SecurityException)cause;
+                    if (cause instanceof InvocationTargetException && cause.getCause() instanceof SecurityException)
+                        throw (SecurityException)cause.getCause();
+                    throw new RuntimeException("Failed to call addNmeaListener through reflection: " + cause.toString());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while registering NMEA listener");
                 }
             }
         } catch (SecurityException e) {
@@ -47,7 +99,13 @@ public class NmeaMessageListenerCompat implements LocationListener {
         }
     }
 
+    /**
+     * Unregister the listeners and stop the listener thread, after the callbacks already queued
+     * to it are delivered. Does nothing if starting failed.
+     */
     void stop() {
+        if (handlerThread == null)
+            return;
         locationManager.removeUpdates(this);
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
@@ -61,6 +119,8 @@ public class NmeaMessageListenerCompat implements LocationListener {
                 loggingCallback.log("Failed to call removeNmeaListener through reflection: " + e.toString());
             }
         }
+        handlerThread.quitSafely();
+        handlerThread = null;
     }
 
     @Override
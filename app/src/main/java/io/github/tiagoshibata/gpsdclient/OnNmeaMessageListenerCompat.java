@@ -1,5 +0,0 @@
-package io.github.tiagoshibata.gpsdclient;
-
-public interface OnNmeaMessageListenerCompat {
-    void onNmeaMessage(String message);
-}
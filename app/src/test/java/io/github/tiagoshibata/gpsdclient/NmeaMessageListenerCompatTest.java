@@ -0,0 +1,194 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import android.location.GpsStatus;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.location.OnNmeaMessageListener;
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyFloat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.RETURNS_DEFAULTS;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Checks that each registration path delivers callbacks on the listener thread while the main
+ * thread, which the test runs on, is kept busy as if by UI work. On the main looper, a sentence
+ * would wait for the whole UI work.
+ * <p>
+ * Runs on SDKs up to 28, which Robolectric supports on JDK 8, the JDK the Android Gradle plugin
+ * runs on. The executor registration of SDK 30 isn't covered.
+ */
+@RunWith(RobolectricTestRunner.class)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class NmeaMessageListenerCompatTest {
+    private static final String SENTENCE = "$GNGGA,083559.00,4717.11437,N,00833.91522,E,1,12,0.8,499.6,M,48.0,M,,*75";
+    private static final long TIMESTAMP = 1039422959000L;
+    private static final long UI_WORK_MILLIS = 500;
+    private static final long MAX_LATENCY_MILLIS = 100;
+    private static final long QUIT_TIMEOUT_MILLIS = 1000;
+    // Records the legacy listener and the looper it's registered from, which calls it back
+    private final LocationManager locationManager = mock(LocationManager.class, this::answer);
+    private final NmeaMessageListenerCompat listener = new NmeaMessageListenerCompat();
+    private volatile GpsStatus.NmeaListener legacyListener;
+    private volatile Looper legacyLooper;
+    private volatile boolean legacyDenied;
+    private volatile Thread deliveryThread;
+    private volatile long deliveryNanos;
+    private volatile String deliveredMessage;
+
+    @After
+    public void tearDown() {
+        listener.stop();
+    }
+
+    @Test
+    @Config(sdk = 23)
+    public void legacyRegistrationDeliversOffMainThread() {
+        start();
+        ArgumentCaptor<Looper> looper = ArgumentCaptor.forClass(Looper.class);
+        verify(locationManager).requestLocationUpdates(eq(LocationManager.GPS_PROVIDER), eq(0L), eq(0f),
+                eq(listener), looper.capture());
+        assertNotNull("Legacy listener not registered", legacyListener);
+        assertNotEquals(Looper.getMainLooper(), looper.getValue());
+        assertEquals(looper.getValue(), legacyLooper);
+
+        long sent = System.nanoTime();
+        new Handler(legacyLooper).post(() -> legacyListener.onNmeaReceived(TIMESTAMP, SENTENCE));
+        checkDelivery(sent);
+    }
+
+    @Test
+    @Config(sdk = 24)
+    public void handlerRegistrationDeliversOffMainThread() {
+        checkHandlerRegistration();
+    }
+
+    @Test
+    @Config(sdk = 28)
+    public void handlerRegistrationDeliversOffMainThreadOnP() {
+        checkHandlerRegistration();
+    }
+
+    @Test
+    @Config(sdk = 23)
+    public void failedLegacyRegistrationStopsListenerThread() throws InterruptedException {
+        legacyDenied = true;
+        checkFailedStart();
+    }
+
+    @Test
+    @Config(sdk = 24)
+    public void failedRegistrationStopsListenerThread() throws InterruptedException {
+        doThrow(new SecurityException()).when(locationManager)
+                .addNmeaListener(any(OnNmeaMessageListener.class), any(Handler.class));
+        checkFailedStart();
+    }
+
+    private Object answer(InvocationOnMock invocation) throws Throwable {
+        Object[] arguments = invocation.getArguments();
+        if (invocation.getMethod().getName().equals("addNmeaListener") && arguments.length == 1 &&
+                arguments[0] instanceof GpsStatus.NmeaListener) {
+            if (legacyDenied)
+                throw new SecurityException();
+            legacyListener = (GpsStatus.NmeaListener)arguments[0];
+            legacyLooper = Looper.myLooper();
+        }
+        return RETURNS_DEFAULTS.answer(invocation);
+    }
+
+    private void checkHandlerRegistration() {
+        start();
+        ArgumentCaptor<Looper> looper = ArgumentCaptor.forClass(Looper.class);
+        verify(locationManager).requestLocationUpdates(eq(LocationManager.GPS_PROVIDER), eq(0L), eq(0f),
+                eq(listener), looper.capture());
+        ArgumentCaptor<OnNmeaMessageListener> nmeaListener = ArgumentCaptor.forClass(OnNmeaMessageListener.class);
+        ArgumentCaptor<Handler> handler = ArgumentCaptor.forClass(Handler.class);
+        verify(locationManager).addNmeaListener(nmeaListener.capture(), handler.capture());
+        assertNotEquals(Looper.getMainLooper(), looper.getValue());
+        assertEquals(looper.getValue(), handler.getValue().getLooper());
+
+        long sent = System.nanoTime();
+        handler.getValue().post(() -> nmeaListener.getValue().onNmeaMessage(SENTENCE, TIMESTAMP));
+        checkDelivery(sent);
+
+        deliveryThread = null;
+        new Handler(looper.getValue()).post(() -> listener.onProviderEnabled(LocationManager.GPS_PROVIDER));
+        checkDelivery(System.nanoTime());
+    }
+
+    /**
+     * Check that a failed start removes the location updates and stops the listener thread.
+     */
+    private void checkFailedStart() throws InterruptedException {
+        try {
+            start();
+            fail("Started without permission");
+        } catch (RuntimeException e) {
+            assertEquals("No permission to access GPS", e.getMessage());
+        }
+        ArgumentCaptor<Looper> looper = ArgumentCaptor.forClass(Looper.class);
+        verify(locationManager).requestLocationUpdates(eq(LocationManager.GPS_PROVIDER), eq(0L), eq(0f),
+                eq(listener), looper.capture());
+        verify(locationManager).removeUpdates(listener);
+        Thread thread = looper.getValue().getThread();
+        thread.join(QUIT_TIMEOUT_MILLIS);
+        assertFalse("Listener thread still running", thread.isAlive());
+    }
+
+    private void start() {
+        listener.start(locationManager, (message, timestamp) -> {
+            deliveredMessage = message;
+            onDelivered();
+        }, message -> onDelivered());
+        verify(locationManager, never()).requestLocationUpdates(anyString(), anyLong(), anyFloat(),
+                any(LocationListener.class));
+    }
+
+    private void onDelivered() {
+        deliveryNanos = System.nanoTime();
+        deliveryThread = Thread.currentThread();
+    }
+
+    /**
+     * Keep the main thread busy, then check the callback arrived meanwhile on the listener thread.
+     */
+    private void checkDelivery(long sentNanos) {
+        assertEquals(Looper.getMainLooper().getThread(), Thread.currentThread());
+        // Busy rather than sleeping, Robolectric's SystemClock.sleep only advances its clock
+        long workStart = System.nanoTime();
+        while (System.nanoTime() - workStart < TimeUnit.MILLISECONDS.toNanos(UI_WORK_MILLIS))
+            continue;
+        Thread thread = deliveryThread;
+        assertNotNull("Not delivered while the main thread was busy", thread);
+        assertEquals("NmeaListener", thread.getName());
+        assertNotEquals(Looper.getMainLooper().getThread(), thread);
+        long latencyMillis = TimeUnit.NANOSECONDS.toMillis(deliveryNanos - sentNanos);
+        assertTrue("Delivered after " + latencyMillis + " ms", latencyMillis < MAX_LATENCY_MILLIS);
+        assertEquals(SENTENCE, deliveredMessage);
+    }
+}
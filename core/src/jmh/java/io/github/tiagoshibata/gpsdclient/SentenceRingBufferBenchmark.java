@@ -0,0 +1,41 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of queueing and dequeueing a sentence, and of validating it, without any networking.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SentenceRingBufferBenchmark {
+    private static final String SENTENCE = "$GPGGA,123519,4807.038,N,01131.000,E,1,08,0.9,545.4,M,46.9,M,,*47";
+    private final SentenceRingBuffer ring = new SentenceRingBuffer(4096, 256,
+            SentenceRingBuffer.OverflowPolicy.DROP_NEWEST);
+    private final byte[] sentence = new byte[256];
+    private final NmeaScanner scanner = new NmeaScanner();
+
+    @Benchmark
+    public int offerPoll() {
+        ring.offer(SENTENCE);
+        return ring.poll(sentence, 0);
+    }
+
+    @Benchmark
+    public boolean scan() {
+        return scanner.scan(SENTENCE);
+    }
+}
@@ -0,0 +1,123 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Forwarding pipeline benchmarks, sending to a loopback DatagramChannel.
+ * <p>
+ * Run with {@code ./gradlew :core:jmh}. The gc profiler reports the allocation rate per operation.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class UdpSensorStreamBenchmark {
+    private static final String SENTENCE = "$GPGGA,123519,4807.038,N,01131.000,E,1,08,0.9,545.4,M,46.9,M,,*47";
+    private static final int QUEUE_BYTES = 64 * 1024;
+    private static final long RECEIVE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private DatagramChannel receiver;
+    private UdpSensorStream stream;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Delivered {
+        // Reported as sentences received per second
+        public long sentences;
+        private final ByteBuffer datagram = ByteBuffer.allocateDirect(UdpSensorStream.MAX_DATAGRAM_SIZE);
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            sentences = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        receiver = DatagramChannel.open();
+        receiver.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        receiver.configureBlocking(false);
+        stream = new UdpSensorStream(new SocketAddress[]{receiver.getLocalAddress()}, 0, QUEUE_BYTES,
+                SentenceRingBuffer.OverflowPolicy.DROP_NEWEST);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        stream.stop();
+        receiver.close();
+    }
+
+    /**
+     * Time for one sentence to go through the queue, the network thread and the loopback socket.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int latency(Delivered delivered) throws IOException {
+        stream.send(SENTENCE);
+        long start = System.nanoTime();
+        // Busy wait, to measure the pipeline instead of the receiver's wakeup
+        while (drain(delivered) == 0) {
+            if (System.nanoTime() - start > RECEIVE_TIMEOUT_NANOS)
+                throw new IOException("Sentence lost");
+        }
+        return delivered.datagram.position();
+    }
+
+    /**
+     * Queueing throughput. Sentences the network thread can't keep up with are dropped, so the
+     * delivered sentences counter is the sustained forwarding rate.
+     */
+    @Benchmark
+    @Group("throughput")
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void send() {
+        stream.send(SENTENCE);
+    }
+
+    @Benchmark
+    @Group("throughput")
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int receive(Delivered delivered) throws IOException {
+        return drain(delivered);
+    }
+
+    /**
+     * @return sentences in the datagram received, or 0 if none was pending
+     */
+    private int drain(Delivered delivered) throws IOException {
+        ByteBuffer datagram = delivered.datagram;
+        datagram.clear();
+        if (receiver.receive(datagram) == null)
+            return 0;
+        int sentences = 0;
+        for (int i = 0; i < datagram.position(); i++) {
+            if (datagram.get(i) == '\n')
+                sentences++;
+        }
+        delivered.sentences += sentences;
+        return sentences;
+    }
+}
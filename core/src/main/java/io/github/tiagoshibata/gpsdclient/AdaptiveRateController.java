@@ -0,0 +1,176 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reduces the forwarding rate while the receiver is stationary.
+ * <p>
+ * Speed is read from RMC and the fix quality and HDOP from GGA. The receiver is considered
+ * stationary once the speed stays below {@link #STOP_SPEED_KNOTS} for {@link #STOP_DELAY_NANOS},
+ * and moving again as soon as a single fix is faster than {@link #START_SPEED_KNOTS}. Fixes
+ * without a valid position or with a HDOP above {@link #MAX_HDOP} have unreliable speeds and
+ * don't change the state, but restart the stop delay.
+ * <p>
+ * Sentences are grouped in epochs, each starting at a sentence carrying a new UTC time. While
+ * stationary, a whole epoch is forwarded once every interval and the others are suppressed. When
+ * motion resumes the rest of the current epoch is already forwarded, starting with the sentence
+ * that reported it.
+ * <p>
+ * Must be called from a single thread. Counters can be read from any thread.
+ */
+public class AdaptiveRateController {
+    public static final double STOP_SPEED_KNOTS = 1;
+    // Well above the speed noise of a stationary receiver with good HDOP
+    public static final double START_SPEED_KNOTS = 2;
+    public static final double MAX_HDOP = 5;
+    public static final long STOP_DELAY_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final int TYPE_RMC = 'R' << 16 | 'M' << 8 | 'C';
+    private static final int TYPE_GGA = 'G' << 16 | 'G' << 8 | 'A';
+    private static final int RMC_STATUS_FIELD = 2;
+    private static final int RMC_SPEED_FIELD = 7;
+    private static final int GGA_QUALITY_FIELD = 6;
+    private static final int GGA_HDOP_FIELD = 8;
+    private final long stationaryIntervalNanos;
+    private volatile boolean stationary;
+    private double epochTime = Double.NaN;
+    private boolean epochForwarded = true;
+    private long lastForwardedEpochNanos;
+    private long slowSinceNanos = -1;
+    private double hdop = Double.NaN;
+    // Whether the last GGA reported no fix, tracked apart from the HDOP, which is then unknown
+    private boolean noFix;
+    private volatile long stops;
+    private volatile long starts;
+    private volatile long epochsForwarded;
+    private volatile long epochsSuppressed;
+    private volatile long sentencesSuppressed;
+    private volatile long bytesSaved;
+
+    /**
+     * @param  stationaryIntervalMillis time between forwarded epochs while stationary
+     */
+    public AdaptiveRateController(long stationaryIntervalMillis) {
+        if (stationaryIntervalMillis <= 0)
+            throw new IllegalArgumentException("Stationary interval must be positive");
+        stationaryIntervalNanos = TimeUnit.MILLISECONDS.toNanos(stationaryIntervalMillis);
+    }
+
+    /**
+     * Update the motion state from a valid sentence and decide whether it is forwarded.
+     *
+     * @param  scanner scanner holding the sentence
+     * @return true if the sentence's epoch is forwarded
+     */
+    public boolean accept(NmeaScanner scanner) {
+        return accept(scanner, System.nanoTime());
+    }
+
+    boolean accept(NmeaScanner scanner, long now) {
+        double time = scanner.getTime();
+        if (!Double.isNaN(time) && time != epochTime) {
+            epochTime = time;
+            epochForwarded = !stationary || now - lastForwardedEpochNanos >= stationaryIntervalNanos;
+            if (epochForwarded) {
+                lastForwardedEpochNanos = now;
+                epochsForwarded++;
+            } else {
+                epochsSuppressed++;
+            }
+        }
+        switch (scanner.getType()) {
+            case TYPE_GGA:
+                char quality = scanner.getCharField(GGA_QUALITY_FIELD);
+                noFix = quality == 0 || quality == '0';
+                hdop = noFix ? Double.NaN : scanner.getDecimalField(GGA_HDOP_FIELD);
+                break;
+            case TYPE_RMC:
+                double speed = scanner.getCharField(RMC_STATUS_FIELD) == 'A' ?
+                        scanner.getDecimalField(RMC_SPEED_FIELD) : Double.NaN;
+                updateMotion(speed, now);
+                break;
+        }
+        return epochForwarded;
+    }
+
+    private void updateMotion(double speed, long now) {
+        // HDOP is unknown until a GGA is seen, in which case only the RMC status is trusted. A
+        // GGA without a fix overrides an RMC that still reports one
+        if (Double.isNaN(speed) || noFix || hdop > MAX_HDOP) {
+            slowSinceNanos = -1;
+            return;
+        }
+        if (speed > START_SPEED_KNOTS) {
+            slowSinceNanos = -1;
+            if (stationary) {
+                stationary = false;
+                starts++;
+                if (!epochForwarded) {
+                    epochForwarded = true;
+                    epochsSuppressed--;
+                    epochsForwarded++;
+                    lastForwardedEpochNanos = now;
+                }
+            }
+        } else if (speed < STOP_SPEED_KNOTS && !stationary) {
+            if (slowSinceNanos < 0) {
+                slowSinceNanos = now;
+            } else if (now - slowSinceNanos >= STOP_DELAY_NANOS) {
+                stationary = true;
+                stops++;
+            }
+        } else if (speed >= STOP_SPEED_KNOTS) {
+            slowSinceNanos = -1;
+        }
+    }
+
+    /**
+     * Count a sentence that would have been sent, but was suppressed by {@link #accept}.
+     *
+     * @param  bytes sentence length
+     */
+    public void recordSuppressed(int bytes) {
+        sentencesSuppressed++;
+        bytesSaved += bytes;
+    }
+
+    public boolean isStationary() {
+        return stationary;
+    }
+
+    /**
+     * @return transitions from moving to stationary
+     */
+    public long getStops() {
+        return stops;
+    }
+
+    /**
+     * @return transitions from stationary to moving
+     */
+    public long getStarts() {
+        return starts;
+    }
+
+    public long getEpochsForwarded() {
+        return epochsForwarded;
+    }
+
+    public long getEpochsSuppressed() {
+        return epochsSuppressed;
+    }
+
+    public long getSentencesSuppressed() {
+        return sentencesSuppressed;
+    }
+
+    public long getBytesSaved() {
+        return bytesSaved;
+    }
+
+    public String getStatistics() {
+        return String.format(Locale.US, "Adaptive rate: %s, stopped %d times, started %d times, forwarded %d of %d epochs, suppressed %d sentences (%d bytes)",
+                stationary ? "stationary" : "moving", stops, starts, epochsForwarded,
+                epochsForwarded + epochsSuppressed, sentencesSuppressed, bytesSaved);
+    }
+}
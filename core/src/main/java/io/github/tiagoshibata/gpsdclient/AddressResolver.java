@@ -0,0 +1,229 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Resolves server host names on a background thread and reports when their addresses change.
+ * <p>
+ * Results are cached for their TTL and resolved again when it expires, when the network changes
+ * ({@link #onNetworkChanged}) or after repeated send errors ({@link #onSendError}). If resolving fails, the
+ * last known addresses are kept and resolving is retried with exponential backoff. Nothing here
+ * blocks the caller: the listener is called from the resolver thread, and can switch a running
+ * stream to the new addresses.
+ */
+public class AddressResolver {
+    private static final String TAG = "AddressResolver";
+    private static final int SEND_ERRORS_BEFORE_REFRESH = 3;
+    // Limits refreshes caused by send errors, e.g. while the server is down
+    private static final long MIN_ERROR_REFRESH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final long MIN_RETRY_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long MAX_RETRY_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final long STOP_TIMEOUT_MS = 1000;
+
+    public interface Listener {
+        /**
+         * Called from the resolver thread when the addresses of the targets are first resolved or
+         * change, and after the network changed even if they didn't, since sockets connected
+         * through the previous network must be opened again.
+         *
+         * @param  addresses addresses of the targets resolved so far, in the order they were given
+         */
+        void onResolved(InetSocketAddress[] addresses);
+    }
+
+    private static class Entry {
+        private InetAddress[] addresses;
+        private long expiresNanos;
+        private long retryNanos;
+    }
+
+    private static class Targets {
+        private final String[] hosts;
+        private final int[] ports;
+        private final Listener listener;
+        private InetSocketAddress[] resolved;
+
+        private Targets(String[] hosts, int[] ports, Listener listener) {
+            this.hosts = hosts;
+            this.ports = ports;
+            this.listener = listener;
+        }
+    }
+
+    private final HostResolver resolver;
+    // Only used by the resolver thread
+    private final Map<String, Entry> cache = new HashMap<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile Targets targets;
+    private volatile boolean refreshRequested;
+    // Whether the next refresh reports the addresses even if unchanged
+    private volatile boolean reportRequested;
+    private final AtomicInteger sendErrors = new AtomicInteger();
+    private volatile long lastRefreshNanos = System.nanoTime();
+    private volatile InetSocketAddress[] resolved = new InetSocketAddress[0];
+    private volatile long resolutions;
+    private volatile long failures;
+    private volatile long cacheHits;
+    private volatile long changes;
+
+    /**
+     * Start the resolver thread.
+     *
+     * @param  resolver resolver of host names
+     */
+    public AddressResolver(HostResolver resolver) {
+        this.resolver = resolver;
+        thread = new Thread(this::run, TAG);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Resolve a new list of servers, replacing the previous one. The listener is called once they
+     * are resolved, right away if the cache holds them, and again whenever they change.
+     *
+     * @param  hosts    host names or address literals
+     * @param  ports    port of each host
+     * @param  listener receives the addresses
+     */
+    public void setTargets(String[] hosts, int[] ports, Listener listener) {
+        if (hosts.length != ports.length)
+            throw new IllegalArgumentException("Expected a port for each host");
+        targets = new Targets(hosts.clone(), ports.clone(), listener);
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Resolve every host again, e.g. because the network changed.
+     */
+    public void refresh() {
+        lastRefreshNanos = System.nanoTime();
+        sendErrors.set(0);
+        refreshRequested = true;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Resolve every host again after the default network changed, e.g. switching between Wi-Fi
+     * and mobile data, and report the addresses to the listener even if they are unchanged.
+     */
+    public void onNetworkChanged() {
+        reportRequested = true;
+        refresh();
+    }
+
+    /**
+     * Report a failed transmission. Hosts are resolved again after repeated errors, in case the
+     * servers moved. Doesn't block, so it can be called from the network thread.
+     */
+    public void onSendError() {
+        if (sendErrors.incrementAndGet() >= SEND_ERRORS_BEFORE_REFRESH &&
+                System.nanoTime() - lastRefreshNanos >= MIN_ERROR_REFRESH_INTERVAL_NANOS)
+            refresh();
+    }
+
+    public void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(STOP_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            long now = System.nanoTime();
+            boolean report = false;
+            if (refreshRequested) {
+                refreshRequested = false;
+                report = reportRequested;
+                reportRequested = false;
+                for (Entry entry : cache.values())
+                    entry.expiresNanos = now;
+            }
+            long nextExpiry = now + MAX_RETRY_NANOS;
+            Targets targets = this.targets;
+            if (targets != null) {
+                InetSocketAddress[] addresses = new InetSocketAddress[targets.hosts.length];
+                int count = 0;
+                for (int i = 0; i < targets.hosts.length && running; i++) {
+                    Entry entry = lookup(targets.hosts[i]);
+                    if (entry.addresses != null)
+                        addresses[count++] = new InetSocketAddress(entry.addresses[0], targets.ports[i]);
+                    if (entry.expiresNanos - nextExpiry < 0)
+                        nextExpiry = entry.expiresNanos;
+                }
+                addresses = Arrays.copyOf(addresses, count);
+                // Only reported if still current, setTargets might have been called meanwhile
+                boolean changed = !Arrays.equals(addresses, targets.resolved);
+                if (targets == this.targets && count > 0 && (changed || report)) {
+                    if (targets.resolved != null && changed) {
+                        changes++;
+                        QueuedSensorStream.logger.info(TAG, "Addresses changed to " + Arrays.toString(addresses));
+                    }
+                    targets.resolved = addresses;
+                    resolved = addresses;
+                    targets.listener.onResolved(addresses);
+                }
+            }
+            long wait = nextExpiry - System.nanoTime();
+            if (wait > 0 && running && !refreshRequested && targets == this.targets)
+                LockSupport.parkNanos(this, wait);
+        }
+    }
+
+    /**
+     * @return cache entry of a host, resolved again if expired
+     */
+    private Entry lookup(String host) {
+        Entry entry = cache.get(host);
+        if (entry == null) {
+            entry = new Entry();
+            cache.put(host, entry);
+        } else if (System.nanoTime() - entry.expiresNanos < 0) {
+            cacheHits++;
+            return entry;
+        }
+        resolutions++;
+        try {
+            HostResolver.Result result = resolver.resolve(host);
+            if (result.addresses.length == 0)
+                throw new UnknownHostException(host);
+            entry.addresses = result.addresses;
+            entry.expiresNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(result.ttlMillis);
+            entry.retryNanos = 0;
+        } catch (UnknownHostException e) {
+            failures++;
+            // Keep the last known addresses, the server is likely still there
+            entry.retryNanos = entry.retryNanos == 0 ? MIN_RETRY_NANOS : Math.min(entry.retryNanos * 2, MAX_RETRY_NANOS);
+            entry.expiresNanos = System.nanoTime() + entry.retryNanos;
+            QueuedSensorStream.logger.warning(TAG, "Can't resolve " + host +
+                    (entry.addresses != null ? ", keeping " + entry.addresses[0].getHostAddress() : ""));
+        }
+        return entry;
+    }
+
+    /**
+     * @return last addresses reported to the listener
+     */
+    public InetSocketAddress[] getResolved() {
+        return resolved;
+    }
+
+    public String getStatistics() {
+        return String.format(Locale.US, "Resolved %d times, %d failed, %d cache hits, addresses changed %d times, current %s",
+                resolutions, failures, cacheHits, changes, Arrays.toString(resolved));
+    }
+}
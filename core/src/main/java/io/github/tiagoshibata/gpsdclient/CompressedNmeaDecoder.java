@@ -0,0 +1,95 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decompresses datagrams written by {@link CompressedNmeaEncoder}, passing plain NMEA datagrams
+ * through.
+ * <p>
+ * Not thread safe.
+ */
+public class CompressedNmeaDecoder {
+    private final Inflater inflater = new Inflater(true);
+    // Raw deflate streams have no trailer, so a padding byte makes sure the end of the stream is
+    // reached within the input. See Inflater(boolean)
+    private byte[] input = new byte[0];
+    private volatile long datagrams;
+    private volatile long compressed;
+    private volatile long malformed;
+
+    /**
+     * Decode a datagram.
+     *
+     * @param  datagram    datagram between position and limit, which are left unchanged
+     * @param  destination heap buffer receiving the sentences from its position, which is advanced
+     * @return false if the datagram is malformed or doesn't fit the destination, in which case
+     * the destination is left unchanged
+     */
+    public boolean decode(ByteBuffer datagram, ByteBuffer destination) {
+        int start = datagram.position();
+        int length = datagram.remaining();
+        if (length == 0) {
+            malformed++;
+            return false;
+        }
+        byte first = datagram.get(start);
+        if (first == '$' || first == '!') {
+            if (length > destination.remaining()) {
+                malformed++;
+                return false;
+            }
+            destination.put(datagram.duplicate());
+            datagrams++;
+            return true;
+        }
+        if (length < CompressedNmeaEncoder.HEADER_SIZE ||
+                (datagram.getShort(start) & 0xffff) != CompressedNmeaEncoder.MAGIC ||
+                datagram.get(start + 2) != CompressedNmeaEncoder.VERSION) {
+            malformed++;
+            return false;
+        }
+        int compressedLength = length - CompressedNmeaEncoder.HEADER_SIZE;
+        if (input.length < compressedLength + 1)
+            input = new byte[compressedLength + 1];
+        ByteBuffer payload = datagram.duplicate();
+        payload.position(start + CompressedNmeaEncoder.HEADER_SIZE);
+        payload.get(input, 0, compressedLength);
+        input[compressedLength] = 0;
+        inflater.reset();
+        inflater.setDictionary(CompressedNmeaEncoder.DICTIONARY);
+        inflater.setInput(input, 0, compressedLength + 1);
+        int offset = destination.arrayOffset() + destination.position();
+        int inflated;
+        try {
+            inflated = inflater.inflate(destination.array(), offset, destination.remaining());
+        } catch (DataFormatException e) {
+            malformed++;
+            return false;
+        }
+        if (!inflater.finished()) {
+            malformed++;
+            return false;
+        }
+        destination.position(destination.position() + inflated);
+        datagrams++;
+        compressed++;
+        return true;
+    }
+
+    /**
+     * @return datagrams decoded, compressed or not
+     */
+    public long getDatagrams() {
+        return datagrams;
+    }
+
+    public long getCompressed() {
+        return compressed;
+    }
+
+    public long getMalformed() {
+        return malformed;
+    }
+}
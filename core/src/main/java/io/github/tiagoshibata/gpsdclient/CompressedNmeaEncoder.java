@@ -0,0 +1,125 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses datagrams of NMEA sentences for metered links, to be decompressed by a relay next to
+ * gpsd with {@link CompressedNmeaDecoder}.
+ * <p>
+ * Each datagram, usually a whole epoch, is compressed on its own with raw deflate and a preset
+ * dictionary of common sentence addresses and fields, so that a lost datagram never affects the
+ * following ones. Compressed datagrams start with a 3 byte header:
+ * <pre>
+ * u16 magic (0x4e5a, "NZ")
+ * u8  version (1)
+ * </pre>
+ * followed by the deflate stream. Datagrams that wouldn't shrink are sent as they are, which the
+ * relay recognizes by their leading '$' or '!'.
+ * <p>
+ * Not thread safe.
+ */
+public class CompressedNmeaEncoder {
+    public static final int MAGIC = 0x4e5a;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 3;
+    // Shared by both ends. Deflate finds matches closer to the end of the dictionary more
+    // cheaply, so the most common strings come last
+    static final byte[] DICTIONARY = (
+            "$GPGLL,,,,,,V,N*64\r\n$GPDTM,W84,,0.0,N,0.0,E,0.0,W84*6F\r\n$GPTXT,01,01,02,ANTENNA OK*35\r\n" +
+            "$GNGST,,,,,,,,*\r\n$GNZDA,,,,2025,00,00*\r\n$GPVTG,,T,,M,0.000,N,0.000,K,A*\r\n" +
+            "$GAGSV,3,1,10,,,,,,,,,,,,,,,,,7*\r\n$GBGSV,3,1,12,,,,,,,,,,,,,,,,,1*\r\n" +
+            "$GLGSV,3,1,10,,,,,,,,,,,,,,,,,1*\r\n$GPGSV,4,1,14,,,,,,,,,,,,,,,,,1*\r\n" +
+            "$GNGSA,A,3,,,,,,,,,,,,,,,,1*\r\n$GNGSA,A,3,,,,,,,,,,,,,,,,2*\r\n" +
+            "$GNGSA,A,3,,,,,,,,,,,,,,,,3*\r\n$GNGSA,A,3,,,,,,,,,,,,,,,,4*\r\n" +
+            "$GNRMC,,A,,N,,E,0.000,,,,,A,V*\r\n$GNGGA,,,N,,E,1,12,0.8,,M,,M,,*\r\n"
+    ).getBytes(StandardCharsets.US_ASCII);
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+    private final byte[] input;
+    private final byte[] output;
+    private final ByteBuffer outputBuffer;
+    private volatile long datagrams;
+    private volatile long compressed;
+    private volatile long bytesIn;
+    private volatile long bytesOut;
+
+    /**
+     * @param  maxDatagramSize largest datagram to be compressed
+     */
+    public CompressedNmeaEncoder(int maxDatagramSize) {
+        input = new byte[maxDatagramSize];
+        output = new byte[maxDatagramSize];
+        outputBuffer = ByteBuffer.wrap(output);
+    }
+
+    /**
+     * Compress a datagram.
+     *
+     * @param  datagram sentences between position and limit, which are left unchanged
+     * @return the compressed datagram, valid until the next call, or the datagram itself if it
+     * wouldn't shrink
+     */
+    public ByteBuffer encode(ByteBuffer datagram) {
+        int length = datagram.remaining();
+        datagrams++;
+        bytesIn += length;
+        if (length > input.length) {
+            bytesOut += length;
+            return datagram;
+        }
+        datagram.duplicate().get(input, 0, length);
+        deflater.reset();
+        deflater.setDictionary(DICTIONARY);
+        deflater.setInput(input, 0, length);
+        deflater.finish();
+        int compressedLength = HEADER_SIZE;
+        // Stops at the original size, compressing further would only grow the datagram
+        while (!deflater.finished() && compressedLength < length) {
+            int deflated = deflater.deflate(output, compressedLength, length - compressedLength);
+            if (deflated == 0)
+                break;
+            compressedLength += deflated;
+        }
+        if (!deflater.finished() || compressedLength >= length) {
+            bytesOut += length;
+            return datagram;
+        }
+        output[0] = (byte)(MAGIC >> 8);
+        output[1] = (byte)MAGIC;
+        output[2] = VERSION;
+        outputBuffer.clear();
+        outputBuffer.limit(compressedLength);
+        compressed++;
+        bytesOut += compressedLength;
+        return outputBuffer;
+    }
+
+    /**
+     * @return datagrams encoded, compressed or not
+     */
+    public long getDatagrams() {
+        return datagrams;
+    }
+
+    public long getCompressed() {
+        return compressed;
+    }
+
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    public String getStatistics() {
+        long bytesIn = this.bytesIn;
+        long bytesOut = this.bytesOut;
+        return String.format(Locale.US, "Compression: compressed %d of %d datagrams, %d bytes to %d (%.1f%%)",
+                compressed, datagrams, bytesIn, bytesOut, bytesIn > 0 ? 100. * bytesOut / bytesIn : 0);
+    }
+}
@@ -0,0 +1,257 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Suppresses sentences repeated unchanged from epoch to epoch, such as GSA and GSV while the sky
+ * hasn't changed.
+ * <p>
+ * A small fixed-size cache is keyed by the sentence address and its index in the run of
+ * consecutive sentences with that address, e.g. the message number of a GSV report or the
+ * constellation of each GNGSA. It holds a hash and a copy of the last forwarded sentence of each
+ * key. A byte-identical repeat is suppressed until the refresh interval since it was last
+ * forwarded passes. Only sentences without time nor position are suppressed: GSA, GSV, VTG, DTM
+ * and HDT.
+ * <p>
+ * gpsd discards multi-sentence reports with missing parts, so runs are suppressed only as a
+ * whole: once a sentence in a run has to be forwarded, the repeats held back before it are
+ * released to be sent first ({@link #getReleased}), and the rest of the run is forwarded.
+ * <p>
+ * Must be called from a single thread. Counters can be read from any thread.
+ */
+public class DuplicateSuppressor {
+    private static final int ENTRIES = 32;
+    // Fewer than ENTRIES, so that the sentences held in a run are never evicted
+    private static final int MAX_RUN = 16;
+    private static final int MAX_SENTENCE_LENGTH = 96;
+    private static final int TYPE_GSA = 'G' << 16 | 'S' << 8 | 'A';
+    private static final int TYPE_GSV = 'G' << 16 | 'S' << 8 | 'V';
+    private static final int TYPE_VTG = 'V' << 16 | 'T' << 8 | 'G';
+    private static final int TYPE_DTM = 'D' << 16 | 'T' << 8 | 'M';
+    private static final int TYPE_HDT = 'H' << 16 | 'D' << 8 | 'T';
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private final long refreshNanos;
+    // Address packed in a long, shifted left by 8 bits, and index in its run
+    private final long[] keys = new long[ENTRIES];
+    private final long[] hashes = new long[ENTRIES];
+    private final StringBuilder[] sentences = new StringBuilder[ENTRIES];
+    private final long[] forwardedNanos = new long[ENTRIES];
+    private final long[] lastUsed = new long[ENTRIES];
+    private int entries;
+    private long uses;
+    private long runAddress = -1;
+    private int runIndex;
+    private boolean runForwarded;
+    private final int[] held = new int[MAX_RUN];
+    private int heldCount;
+    private int releasedCount;
+    private volatile long lookups;
+    private volatile long suppressed;
+    private volatile long refreshes;
+    private volatile long released;
+    private volatile long bytesSaved;
+
+    /**
+     * @param  refreshIntervalMillis time after which a repeat is forwarded even if unchanged
+     */
+    public DuplicateSuppressor(long refreshIntervalMillis) {
+        if (refreshIntervalMillis <= 0)
+            throw new IllegalArgumentException("Refresh interval must be positive");
+        refreshNanos = TimeUnit.MILLISECONDS.toNanos(refreshIntervalMillis);
+        for (int i = 0; i < ENTRIES; i++)
+            sentences[i] = new StringBuilder(MAX_SENTENCE_LENGTH);
+    }
+
+    /**
+     * Decide whether a valid sentence is forwarded. If it is, the sentences returned by
+     * {@link #getReleased} must be sent before it.
+     *
+     * @param  scanner  scanner holding the sentence
+     * @param  sentence the sentence
+     * @return false if the sentence is an unchanged repeat
+     */
+    public boolean accept(NmeaScanner scanner, CharSequence sentence) {
+        return accept(scanner, sentence, System.nanoTime());
+    }
+
+    boolean accept(NmeaScanner scanner, CharSequence sentence, long now) {
+        releasedCount = 0;
+        long address = packAddress(sentence);
+        if (address != runAddress) {
+            runAddress = address;
+            runIndex = 0;
+            runForwarded = false;
+            heldCount = 0;
+        } else {
+            runIndex++;
+        }
+        int length = sentence.length();
+        if (!isCacheable(scanner) || runIndex >= MAX_RUN || length > MAX_SENTENCE_LENGTH)
+            return forward(-1, now);
+        lookups++;
+        long key = address << 8 | runIndex;
+        long hash = hash(sentence);
+        int entry = find(key);
+        if (entry >= 0 && hashes[entry] == hash && contentEquals(sentences[entry], sentence)) {
+            lastUsed[entry] = ++uses;
+            if (now - forwardedNanos[entry] < refreshNanos) {
+                if (!runForwarded) {
+                    held[heldCount++] = entry;
+                    suppressed++;
+                    bytesSaved += length + 2;
+                    return false;
+                }
+            } else {
+                refreshes++;
+            }
+            return forward(entry, now);
+        }
+        if (entry < 0) {
+            entry = allocate();
+            keys[entry] = key;
+        }
+        lastUsed[entry] = ++uses;
+        hashes[entry] = hash;
+        sentences[entry].setLength(0);
+        sentences[entry].append(sentence);
+        return forward(entry, now);
+    }
+
+    /**
+     * Forward the current sentence, releasing the repeats held before it in its run.
+     */
+    private boolean forward(int entry, long now) {
+        if (entry >= 0)
+            forwardedNanos[entry] = now;
+        for (int i = 0; i < heldCount; i++) {
+            int heldEntry = held[i];
+            forwardedNanos[heldEntry] = now;
+            suppressed--;
+            bytesSaved -= sentences[heldEntry].length() + 2;
+        }
+        released += heldCount;
+        releasedCount = heldCount;
+        heldCount = 0;
+        runForwarded = true;
+        return true;
+    }
+
+    /**
+     * @return number of sentences to be sent before the last accepted one
+     */
+    public int getReleasedCount() {
+        return releasedCount;
+    }
+
+    /**
+     * @param  index index of the released sentence, below {@link #getReleasedCount()}
+     * @return a sentence held earlier in the run of the last accepted one, valid until the next
+     * call to {@link #accept}
+     */
+    public CharSequence getReleased(int index) {
+        return sentences[held[index]];
+    }
+
+    private static boolean isCacheable(NmeaScanner scanner) {
+        if (scanner.hasTime())
+            return false;
+        switch (scanner.getType()) {
+            case TYPE_GSA:
+            case TYPE_GSV:
+            case TYPE_VTG:
+            case TYPE_DTM:
+            case TYPE_HDT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return up to the first 5 characters of the address field packed in a long
+     */
+    private static long packAddress(CharSequence sentence) {
+        long address = 0;
+        for (int i = 1; i < 6 && i < sentence.length() && sentence.charAt(i) != ','; i++)
+            address = address << 8 | (sentence.charAt(i) & 0xff);
+        return address;
+    }
+
+    private static long hash(CharSequence sentence) {
+        // FNV-1a
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < sentence.length(); i++)
+            hash = (hash ^ (sentence.charAt(i) & 0xff)) * FNV_PRIME;
+        return hash;
+    }
+
+    private static boolean contentEquals(StringBuilder cached, CharSequence sentence) {
+        if (cached.length() != sentence.length())
+            return false;
+        for (int i = 0; i < cached.length(); i++) {
+            if (cached.charAt(i) != sentence.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    private int find(long key) {
+        for (int i = 0; i < entries; i++) {
+            if (keys[i] == key)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return a free entry, or the least recently used one
+     */
+    private int allocate() {
+        if (entries < ENTRIES)
+            return entries++;
+        int oldest = 0;
+        for (int i = 1; i < ENTRIES; i++) {
+            if (lastUsed[i] < lastUsed[oldest])
+                oldest = i;
+        }
+        return oldest;
+    }
+
+    /**
+     * @return sentences looked up in the cache
+     */
+    public long getLookups() {
+        return lookups;
+    }
+
+    public long getSuppressed() {
+        return suppressed;
+    }
+
+    /**
+     * @return unchanged repeats forwarded because the refresh interval passed
+     */
+    public long getRefreshes() {
+        return refreshes;
+    }
+
+    /**
+     * @return repeats held back, then sent to keep their run whole
+     */
+    public long getReleased() {
+        return released;
+    }
+
+    public long getBytesSaved() {
+        return bytesSaved;
+    }
+
+    public String getStatistics() {
+        long lookups = this.lookups;
+        long suppressed = this.suppressed;
+        return String.format(Locale.US, "Duplicates: suppressed %d of %d cacheable sentences (%.1f%% hit rate), saved %d bytes, %d refreshed, %d released to keep reports whole",
+                suppressed, lookups, lookups > 0 ? 100. * suppressed / lookups : 0, bytesSaved, refreshes, released);
+    }
+}
@@ -0,0 +1,129 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Pool of preallocated binary frames, handed from a single producer to the network thread.
+ * <p>
+ * The producer acquires a free frame, fills it and publishes it. The network thread transmits
+ * published frames and releases them back to the pool. Nothing is allocated or locked after
+ * construction. If every frame is in use, acquiring fails and the producer should drop its data.
+ */
+public class FrameQueue {
+    /**
+     * Single producer, single consumer ring of buffer references.
+     */
+    private static class Ring {
+        private final ByteBuffer[] slots;
+        private final int mask;
+        private final AtomicLong head = new AtomicLong();
+        private final AtomicLong tail = new AtomicLong();
+
+        private Ring(int capacity) {
+            slots = new ByteBuffer[capacity];
+            mask = capacity - 1;
+        }
+
+        private boolean offer(ByteBuffer buffer) {
+            long position = head.get();
+            if (position - tail.get() == slots.length)
+                return false;
+            slots[(int)position & mask] = buffer;
+            head.set(position + 1);
+            return true;
+        }
+
+        private ByteBuffer poll() {
+            long position = tail.get();
+            if (position == head.get())
+                return null;
+            ByteBuffer buffer = slots[(int)position & mask];
+            slots[(int)position & mask] = null;
+            tail.set(position + 1);
+            return buffer;
+        }
+    }
+
+    private final Ring free;
+    private final Ring ready;
+    private final int frameSize;
+    private volatile Thread consumer;
+    private volatile long exhausted;
+
+    /**
+     * @param  frames    number of frames, rounded up to a power of two
+     * @param  frameSize size of each frame in bytes
+     */
+    public FrameQueue(int frames, int frameSize) {
+        int capacity = Integer.highestOneBit(Math.max(frames, 2) - 1) << 1;
+        this.frameSize = frameSize;
+        free = new Ring(capacity);
+        ready = new Ring(capacity);
+        for (int i = 0; i < capacity; i++)
+            free.offer(ByteBuffer.allocateDirect(frameSize));
+    }
+
+    /**
+     * Set the thread unparked when a frame is published.
+     */
+    void setConsumer(Thread consumer) {
+        this.consumer = consumer;
+    }
+
+    /**
+     * Take a free frame. Must only be called from the producer thread.
+     *
+     * @return a cleared frame, or null if all frames are in use
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer frame = free.poll();
+        if (frame == null) {
+            exhausted++;
+            return null;
+        }
+        frame.clear();
+        return frame;
+    }
+
+    /**
+     * Queue a frame for transmission. Must only be called from the producer thread.
+     *
+     * @param  frame frame obtained from {@link #acquire()}, flipped for reading
+     */
+    public void publish(ByteBuffer frame) {
+        // Can't fail, there are as many ready slots as frames
+        ready.offer(frame);
+        Thread consumer = this.consumer;
+        if (consumer != null)
+            LockSupport.unpark(consumer);
+    }
+
+    /**
+     * Take a published frame. Must only be called from the consumer thread.
+     *
+     * @return the oldest published frame, or null if none is pending
+     */
+    ByteBuffer poll() {
+        return ready.poll();
+    }
+
+    /**
+     * Return a transmitted frame to the pool. Must only be called from the consumer thread.
+     */
+    void release(ByteBuffer frame) {
+        free.offer(frame);
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    /**
+     * @return times a frame was requested while all were in use
+     */
+    public long getExhausted() {
+        return exhausted;
+    }
+}
@@ -0,0 +1,43 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves host names, so that tests can replace DNS with a local stub.
+ */
+public interface HostResolver {
+    /**
+     * Addresses of a host and for how long they can be cached.
+     */
+    class Result {
+        public final InetAddress[] addresses;
+        public final long ttlMillis;
+
+        public Result(InetAddress[] addresses, long ttlMillis) {
+            this.addresses = addresses;
+            this.ttlMillis = ttlMillis;
+        }
+    }
+
+    /**
+     * The platform resolver. It doesn't expose record TTLs, so results are cached for a minute,
+     * short enough to follow dynamic DNS updates.
+     */
+    HostResolver SYSTEM = new HostResolver() {
+        @Override
+        public Result resolve(String host) throws UnknownHostException {
+            return new Result(InetAddress.getAllByName(host), TimeUnit.MINUTES.toMillis(1));
+        }
+    };
+
+    /**
+     * Resolve a host name or address literal. Might block.
+     *
+     * @param  host host name or address literal
+     * @return at least one address
+     * @throws UnknownHostException if the host couldn't be resolved
+     */
+    Result resolve(String host) throws UnknownHostException;
+}
@@ -0,0 +1,22 @@
+package io.github.tiagoshibata.gpsdclient;
+
+/**
+ * Destination of log messages from the streams, so that they don't depend on the platform.
+ */
+public interface Logger {
+    Logger STANDARD_ERROR = new Logger() {
+        @Override
+        public void info(String tag, String message) {
+            System.err.println(tag + ": " + message);
+        }
+
+        @Override
+        public void warning(String tag, String message) {
+            System.err.println(tag + ": warning: " + message);
+        }
+    };
+
+    void info(String tag, String message);
+
+    void warning(String tag, String message);
+}
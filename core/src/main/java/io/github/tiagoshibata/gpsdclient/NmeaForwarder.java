@@ -0,0 +1,126 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Validates, filters and queues sentences from a NMEA source to a stream.
+ * <p>
+ * This is the path every sentence takes, whether it comes from the GNSS receiver or from a
+ * replayed log.
+ */
+public class NmeaForwarder implements OnNmeaMessageListenerCompat {
+    private static final int TYPE_RMC = 'R' << 16 | 'M' << 8 | 'C';
+    private static final int TYPE_ZDA = 'Z' << 16 | 'D' << 8 | 'A';
+    private final NmeaScanner scanner = new NmeaScanner();
+    // From the source timestamp to the callback. Both are wall clock times, so this includes any
+    // offset between the GNSS and system clocks
+    private final LatencyHistogram callbackLatency = new LatencyHistogram();
+    private volatile SensorStream stream;
+    private volatile SentenceFilter filter;
+    private volatile AdaptiveRateController rateController;
+    private volatile DuplicateSuppressor duplicateSuppressor;
+
+    /**
+     * Start forwarding to a stream.
+     *
+     * @param  stream destination
+     * @param  filter filter, or null to forward every valid sentence
+     */
+    public void start(SensorStream stream, SentenceFilter filter) {
+        this.filter = filter;
+        this.stream = stream;
+    }
+
+    /**
+     * Reduce the rate while stationary. Set before {@link #start}.
+     *
+     * @param  rateController controller observing every valid sentence, or null to always forward
+     *                        at the full rate
+     */
+    public void setRateController(AdaptiveRateController rateController) {
+        this.rateController = rateController;
+    }
+
+    /**
+     * Suppress unchanged repeats. Set before {@link #start}.
+     *
+     * @param  duplicateSuppressor suppressor consulted for every sentence to be sent, or null to
+     *                             forward repeats
+     */
+    public void setDuplicateSuppressor(DuplicateSuppressor duplicateSuppressor) {
+        this.duplicateSuppressor = duplicateSuppressor;
+    }
+
+    /**
+     * Stop forwarding. The stream isn't stopped.
+     *
+     * @return the stream, or null if not forwarding
+     */
+    public SensorStream stop() {
+        SensorStream stream = this.stream;
+        this.stream = null;
+        return stream;
+    }
+
+    @Override
+    public void onNmeaMessage(String message, long timestamp) {
+        callbackLatency.record(TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - timestamp));
+        // Corrupted sentences would be rejected by gpsd anyway
+        if (!scanner.scan(message))
+            return;
+        SensorStream stream = this.stream;
+        SentenceFilter filter = this.filter;
+        AdaptiveRateController rateController = this.rateController;
+        DuplicateSuppressor duplicateSuppressor = this.duplicateSuppressor;
+        // Sees sentences blocked by the filter too, so that speed is known even if RMC is blocked
+        boolean due = rateController == null || rateController.accept(scanner);
+        if (stream != null && (filter == null || filter.accept(message))) {
+            // Time sentences skip batching and the rate reduction if the stream has a time
+            // service, since time sources stay put
+            if (isTimeSentence() && stream.sendTime(message, timestamp))
+                return;
+            if (!due)
+                rateController.recordSuppressed(message.length());
+            else if (duplicateSuppressor == null)
+                stream.send(message);
+            else if (duplicateSuppressor.accept(scanner, message))
+                sendWithReleased(stream, duplicateSuppressor, message);
+        }
+    }
+
+    private static void sendWithReleased(SensorStream stream, DuplicateSuppressor duplicateSuppressor, String message) {
+        // Rarely any, only when a run changes after its first sentences were held back
+        for (int i = 0; i < duplicateSuppressor.getReleasedCount(); i++)
+            stream.send(duplicateSuppressor.getReleased(i).toString());
+        stream.send(message);
+    }
+
+    private boolean isTimeSentence() {
+        int type = scanner.getType();
+        return type == TYPE_RMC || type == TYPE_ZDA;
+    }
+
+    public SensorStream getStream() {
+        return stream;
+    }
+
+    public SentenceFilter getFilter() {
+        return filter;
+    }
+
+    public AdaptiveRateController getRateController() {
+        return rateController;
+    }
+
+    public DuplicateSuppressor getDuplicateSuppressor() {
+        return duplicateSuppressor;
+    }
+
+    public NmeaScanner getScanner() {
+        return scanner;
+    }
+
+    public LatencyHistogram getCallbackLatency() {
+        return callbackLatency;
+    }
+}
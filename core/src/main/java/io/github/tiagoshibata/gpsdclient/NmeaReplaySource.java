@@ -0,0 +1,190 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a recorded NMEA log to a listener, in place of the GNSS receiver.
+ * <p>
+ * The log is memory-mapped and read in place. Pacing follows the UTC time field of GGA, RMC, GNS,
+ * GLL and ZDA sentences: each fix is delivered once the log time elapsed since the first fix,
+ * divided by the speed factor, has passed. Other sentences are delivered right after the fix
+ * preceding them.
+ * <p>
+ * With tagging, a sequence number and the {@link System#nanoTime()} of delivery are appended as
+ * two extra fields to every valid sentence, and the checksum is updated, so that a receiver can
+ * measure loss, reordering and latency. Invalid sentences are delivered unchanged.
+ */
+public class NmeaReplaySource {
+    private static final long MILLIS_PER_DAY = TimeUnit.DAYS.toMillis(1);
+    // Longer gaps in the log are skipped instead of waited for
+    private static final long MAX_GAP_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final int MAX_LINE_LENGTH = 1024;
+    // Weight of each hhmmss digit
+    private static final int[] TIME_DIGIT_MILLIS = {36000000, 3600000, 600000, 60000, 10000, 1000};
+    private final File log;
+    private final double speed;
+    private boolean tagging;
+    private final NmeaScanner scanner = new NmeaScanner();
+    private final byte[] line = new byte[MAX_LINE_LENGTH];
+    private final StringBuilder tagged = new StringBuilder(MAX_LINE_LENGTH);
+    private volatile long delivered;
+    private volatile long sequence;
+    // Log time of the last fix, in milliseconds since midnight
+    private long lastFixMillis = -1;
+    private long logElapsedMillis;
+    private long startNanos;
+
+    /**
+     * @param  log   NMEA log, one sentence per line
+     * @param  speed speed factor relative to the recording (e.g. 10 replays a 1 Hz log at 10 Hz),
+     *               or 0 to replay as fast as possible
+     */
+    public NmeaReplaySource(File log, double speed) {
+        if (speed < 0)
+            throw new IllegalArgumentException("Negative speed " + speed);
+        this.log = log;
+        this.speed = speed;
+    }
+
+    /**
+     * @param  tagging whether to append a sequence number and the delivery time to each sentence
+     */
+    public void setTagging(boolean tagging) {
+        this.tagging = tagging;
+    }
+
+    /**
+     * Replay the log, blocking until it ends or the thread is interrupted. Can be called again to
+     * replay the log once more, with sequence numbers and pacing continuing where they left off.
+     *
+     * @param  listener receives the sentences, with the wall clock time of delivery as timestamp
+     * @return false if interrupted
+     */
+    public boolean replay(OnNmeaMessageListenerCompat listener) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(log, "r")) {
+            if (file.length() > Integer.MAX_VALUE)
+                throw new IOException(log + " is larger than 2 GiB");
+            MappedByteBuffer map = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            if (startNanos == 0)
+                startNanos = System.nanoTime();
+            int lineStart = 0;
+            int limit = map.limit();
+            for (int i = 0; i <= limit; i++) {
+                if (i < limit && map.get(i) != '\n')
+                    continue;
+                int length = i - lineStart;
+                if (length > 0 && length <= line.length) {
+                    for (int j = 0; j < length; j++)
+                        line[j] = map.get(lineStart + j);
+                    if (!deliver(listener, length))
+                        return false;
+                }
+                lineStart = i + 1;
+            }
+        }
+        return true;
+    }
+
+    private boolean deliver(OnNmeaMessageListenerCompat listener, int length) {
+        while (length > 0 && (line[length - 1] == '\r' || line[length - 1] == '\n'))
+            length--;
+        if (length == 0)
+            return true;
+        boolean valid = scanner.scan(line, length);
+        if (valid && scanner.hasTime() && !waitForFix())
+            return false;
+        String sentence;
+        if (tagging && valid)
+            sentence = tag(length);
+        else
+            sentence = new String(line, 0, length, StandardCharsets.US_ASCII);
+        listener.onNmeaMessage(sentence, System.currentTimeMillis());
+        delivered++;
+        return true;
+    }
+
+    /**
+     * Wait until the fix in the scanned sentence is due.
+     *
+     * @return false if interrupted
+     */
+    private boolean waitForFix() {
+        long fixMillis = parseTime(scanner.getTimeStart(), scanner.getTimeEnd());
+        if (fixMillis < 0 || fixMillis == lastFixMillis)
+            return true;
+        if (lastFixMillis >= 0) {
+            long gap = (fixMillis - lastFixMillis + MILLIS_PER_DAY) % MILLIS_PER_DAY;
+            if (gap <= MAX_GAP_MILLIS)
+                logElapsedMillis += gap;
+        }
+        lastFixMillis = fixMillis;
+        if (speed == 0)
+            return !Thread.currentThread().isInterrupted();
+        long due = startNanos + (long)(TimeUnit.MILLISECONDS.toNanos(logElapsedMillis) / speed);
+        for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+            LockSupport.parkNanos(this, wait);
+            if (Thread.currentThread().isInterrupted())
+                return false;
+        }
+        return !Thread.currentThread().isInterrupted();
+    }
+
+    /**
+     * @return hhmmss.sss time field as milliseconds since midnight, or -1 if malformed
+     */
+    private long parseTime(int start, int end) {
+        if (end - start < 6)
+            return -1;
+        long millis = 0;
+        for (int i = 0; i < 6; i++) {
+            int digit = line[start + i] - '0';
+            if (digit < 0 || digit > 9)
+                return -1;
+            millis += digit * TIME_DIGIT_MILLIS[i];
+        }
+        int scale = 100;
+        for (int i = start + 7; i < end && scale > 0; i++, scale /= 10) {
+            int digit = line[i] - '0';
+            if (digit < 0 || digit > 9)
+                return -1;
+            millis += digit * scale;
+        }
+        return millis;
+    }
+
+    private String tag(int length) {
+        // Valid sentences end with *hh
+        int end = length - 3;
+        tagged.setLength(0);
+        for (int i = 0; i < end; i++)
+            tagged.append((char)line[i]);
+        tagged.append(',').append(sequence++).append(',').append(System.nanoTime());
+        int checksum = 0;
+        for (int i = 1; i < tagged.length(); i++)
+            checksum ^= tagged.charAt(i);
+        tagged.append('*').append(Character.toUpperCase(Character.forDigit(checksum >> 4, 16)))
+                .append(Character.toUpperCase(Character.forDigit(checksum & 0xf, 16)));
+        return tagged.toString();
+    }
+
+    /**
+     * @return sentences delivered so far
+     */
+    public long getDelivered() {
+        return delivered;
+    }
+
+    /**
+     * @return tagged sentences delivered so far, which is also the next sequence number
+     */
+    public long getTagged() {
+        return sequence;
+    }
+}
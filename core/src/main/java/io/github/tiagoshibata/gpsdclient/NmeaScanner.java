@@ -0,0 +1,269 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import java.util.Locale;
+
+/**
+ * Incremental NMEA 0183 sentence validator and classifier.
+ * <p>
+ * A single instance is reused for every sentence: {@link #scan} verifies the sentence and records
+ * where its fields are, which can then be queried without allocating. Sentences can be scanned
+ * from a CharSequence or from a byte array.
+ */
+public class NmeaScanner {
+    public enum Result {
+        VALID,
+        // Missing start delimiter, address or checksum, as happens with truncated sentences
+        TRUNCATED,
+        BAD_CHECKSUM,
+    }
+
+    private CharSequence chars;
+    private byte[] bytes;
+    private int length;
+    private Result result;
+    private int addressEnd;
+    private int timeStart;
+    private int timeEnd;
+    private volatile long validSentences;
+    private volatile long truncatedSentences;
+    private volatile long badChecksumSentences;
+
+    /**
+     * Scan a sentence, with or without its CRLF terminator.
+     *
+     * @param  sentence sentence to be scanned
+     * @return true if the sentence is valid
+     */
+    public boolean scan(CharSequence sentence) {
+        chars = sentence;
+        bytes = null;
+        length = sentence.length();
+        return scan();
+    }
+
+    /**
+     * Scan a sentence stored in a byte array, with or without its CRLF terminator.
+     *
+     * @param  sentence array holding the sentence, starting at index 0
+     * @param  length   sentence length
+     * @return true if the sentence is valid
+     */
+    public boolean scan(byte[] sentence, int length) {
+        chars = null;
+        bytes = sentence;
+        this.length = length;
+        return scan();
+    }
+
+    private char at(int index) {
+        return bytes != null ? (char)(bytes[index] & 0xff) : chars.charAt(index);
+    }
+
+    private boolean scan() {
+        timeStart = timeEnd = addressEnd = -1;
+        while (length > 0 && (at(length - 1) == '\r' || at(length - 1) == '\n'))
+            length--;
+        // Shortest valid sentence is $P + 1 character + *hh
+        if (length < 6 || (at(0) != '$' && at(0) != '!'))
+            return finish(Result.TRUNCATED);
+        int checksum = 0;
+        int position = 1;
+        for (; position < length; position++) {
+            char c = at(position);
+            if (c == '*')
+                break;
+            if (c == ',' && addressEnd < 0)
+                addressEnd = position;
+            checksum ^= c;
+        }
+        if (addressEnd < 0)
+            addressEnd = position;
+        if (position != length - 3)
+            return finish(Result.TRUNCATED);
+        int high = hexValue(at(length - 2));
+        int low = hexValue(at(length - 1));
+        if (high < 0 || low < 0)
+            return finish(Result.TRUNCATED);
+        if ((high << 4 | low) != checksum)
+            return finish(Result.BAD_CHECKSUM);
+        findTimeField();
+        return finish(Result.VALID);
+    }
+
+    private boolean finish(Result result) {
+        this.result = result;
+        switch (result) {
+            case VALID:
+                validSentences++;
+                return true;
+            case TRUNCATED:
+                truncatedSentences++;
+                break;
+            case BAD_CHECKSUM:
+                badChecksumSentences++;
+                break;
+        }
+        return false;
+    }
+
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9')
+            return c - '0';
+        if (c >= 'A' && c <= 'F')
+            return c - 'A' + 10;
+        if (c >= 'a' && c <= 'f')
+            return c - 'a' + 10;
+        return -1;
+    }
+
+    private void findTimeField() {
+        int field;
+        if (isType('G', 'G', 'A') || isType('R', 'M', 'C') || isType('G', 'N', 'S') || isType('Z', 'D', 'A'))
+            field = 1;
+        else if (isType('G', 'L', 'L'))
+            field = 5;
+        else
+            return;
+        int start = findField(field);
+        if (start < 0)
+            return;
+        int end = findFieldEnd(start);
+        if (end > start) {
+            timeStart = start;
+            timeEnd = end;
+        }
+    }
+
+    /**
+     * @return index of the first character of a field, or -1 if the sentence has fewer fields
+     */
+    private int findField(int field) {
+        int start = addressEnd;
+        for (int i = 1; i < field && start < length; i++) {
+            do {
+                start++;
+            } while (start < length && at(start) != ',' && at(start) != '*');
+        }
+        if (start >= length || at(start) != ',')
+            return -1;
+        return start + 1;
+    }
+
+    private int findFieldEnd(int start) {
+        int end = start;
+        while (end < length && at(end) != ',' && at(end) != '*')
+            end++;
+        return end;
+    }
+
+    private double parseDecimal(int start, int end) {
+        boolean negative = start < end && at(start) == '-';
+        if (negative)
+            start++;
+        if (start == end)
+            return Double.NaN;
+        double value = 0;
+        double scale = 0;
+        for (int i = start; i < end; i++) {
+            char c = at(i);
+            if (c == '.' && scale == 0) {
+                scale = 1;
+                continue;
+            }
+            if (c < '0' || c > '9')
+                return Double.NaN;
+            value = value * 10 + (c - '0');
+            scale *= 10;
+        }
+        if (scale > 1)
+            value /= scale;
+        return negative ? -value : value;
+    }
+
+    private boolean isType(char a, char b, char c) {
+        return !isProprietary() && addressEnd == 6 && at(3) == a && at(4) == b && at(5) == c;
+    }
+
+    public Result getResult() {
+        return result;
+    }
+
+    /**
+     * @return true if the last scanned sentence is proprietary ($P...)
+     */
+    public boolean isProprietary() {
+        return at(1) == 'P';
+    }
+
+    /**
+     * @return the talker of the last scanned sentence packed as two characters (e.g. 'G' << 8 | 'P'
+     * for GP), or 0 for proprietary sentences
+     */
+    public int getTalker() {
+        return isProprietary() ? 0 : at(1) << 8 | at(2);
+    }
+
+    /**
+     * @return the sentence type of the last scanned sentence packed as three characters, or 0 for
+     * proprietary sentences
+     */
+    public int getType() {
+        return isProprietary() || addressEnd < 6 ? 0 : at(3) << 16 | at(4) << 8 | at(5);
+    }
+
+    /**
+     * @param  field field number, starting at 1 for the field after the address
+     * @return numeric value of a field of the last valid sentence, or NaN if empty or not a number
+     */
+    public double getDecimalField(int field) {
+        int start = findField(field);
+        return start < 0 ? Double.NaN : parseDecimal(start, findFieldEnd(start));
+    }
+
+    /**
+     * @param  field field number, starting at 1 for the field after the address
+     * @return first character of a field of the last valid sentence, or 0 if empty
+     */
+    public char getCharField(int field) {
+        int start = findField(field);
+        return start < 0 || start == findFieldEnd(start) ? 0 : at(start);
+    }
+
+    /**
+     * @return UTC time field of the last scanned sentence as hhmmss.sss, or NaN if absent
+     */
+    public double getTime() {
+        return hasTime() ? parseDecimal(timeStart, timeEnd) : Double.NaN;
+    }
+
+    public boolean hasTime() {
+        return timeStart >= 0;
+    }
+
+    /**
+     * @return index of the UTC time field of the last scanned sentence, if {@link #hasTime()}
+     */
+    public int getTimeStart() {
+        return timeStart;
+    }
+
+    /**
+     * @return index after the end of the UTC time field of the last scanned sentence
+     */
+    public int getTimeEnd() {
+        return timeEnd;
+    }
+
+    public long getValidSentences() {
+        return validSentences;
+    }
+
+    public long getInvalidSentences() {
+        return truncatedSentences + badChecksumSentences;
+    }
+
+    public String getStatistics() {
+        return String.format(Locale.US, "Validated %d sentences, discarded %d truncated and %d with bad checksum",
+                validSentences, truncatedSentences, badChecksumSentences);
+    }
+}
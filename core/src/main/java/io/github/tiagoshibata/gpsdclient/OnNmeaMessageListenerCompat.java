@@ -0,0 +1,10 @@
+package io.github.tiagoshibata.gpsdclient;
+
+public interface OnNmeaMessageListenerCompat {
+    /**
+     * @param  message   NMEA sentence
+     * @param  timestamp time reported by the GNSS HAL with the sentence, in milliseconds since
+     *                   the epoch
+     */
+    void onNmeaMessage(String message, long timestamp);
+}
@@ -0,0 +1,786 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Base for streams that queue sentences to a network thread, which batches them and hands them to
+ * the transport.
+ * <p>
+ * With a flush deadline, sentences are batched until a sentence with a new fix time is received,
+ * the batch would exceed its maximum size or the deadline elapses since the first sentence of the
+ * batch. Without one, the batch is transmitted as soon as the queue is drained, so a backlog is
+ * still gathered into a single write.
+ * <p>
+ * The network thread never blocks on the transport. While a transport isn't ready, e.g. while
+ * connecting or while the socket doesn't accept more data, the batch is kept and sentences wait
+ * in the queue. Batches that fail to be transmitted are stored in a {@link SentenceJournal}, if
+ * one is set, and replayed at a limited rate, interleaved with live data, once a transmission
+ * succeeds again.
+ * <p>
+ * Sentences are queued in priority lanes ({@link SentenceLanes}), so that under backpressure
+ * satellite detail is shed first and positions are sent first, and may expire after a maximum
+ * age instead of being sent late. Sentences only change order once the queue is about to shed.
+ * <p>
+ * Binary frames published to a {@link FrameQueue}, if one is set, are transmitted by the same
+ * thread, between batches, through {@link #transmitFrame}. They are best effort: frames that fail
+ * to be transmitted are discarded.
+ * <p>
+ * The destination and batching can be changed while running: changes are applied by the network
+ * thread between two batches, so that every sentence is transmitted exactly once, either before
+ * or after the change, and queued sentences are kept. Stopping transmits what is still queued.
+ * <p>
+ * The time each sentence spends queued and the time from dequeueing it to its transmission
+ * returning are recorded in histograms, without locking or allocating.
+ */
+public abstract class QueuedSensorStream implements SensorStream {
+    private static final long DROP_REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final long REPLAY_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long STOP_TIMEOUT_MS = 1000;
+    // Time left for the transport to take what is still queued when stopping, within the stop
+    // timeout
+    private static final long STOP_FLUSH_NANOS = TimeUnit.MILLISECONDS.toNanos(STOP_TIMEOUT_MS / 2);
+    static volatile Logger logger = Logger.STANDARD_ERROR;
+    final String TAG;
+
+    private class NetworkThread extends Thread {
+        private final SentenceLanes messageQueue;
+        private volatile boolean running = true;
+        private long stopDeadlineNanos;
+        private volatile long flushDeadlineNanos;
+        private final ConcurrentLinkedQueue<Runnable> reconfigurations = new ConcurrentLinkedQueue<>();
+        private volatile long reconfigured;
+        private final byte[] sentence;
+        // Reused for every write, so that sending allocates nothing
+        private final ByteBuffer batch;
+        private int batchSentences;
+        private volatile int batchBytes;
+        private long batchStartNanos;
+        // Whether the batch was flipped to be transmitted and the transport hasn't taken all of it
+        private boolean transmitting;
+        // Whether the batch being transmitted is the oldest journal record
+        private boolean replayingBatch;
+        private long transportDelayNanos;
+        // Sentence dequeued while the batch before it waited for the transport, kept in sentence
+        private int heldLength = -1;
+        private long heldNanos;
+        // Dequeue time of each sentence in the batch
+        private final long[] dequeueNanos;
+        private final NmeaScanner scanner = new NmeaScanner();
+        private final byte[] epochTime = new byte[16];
+        private int epochTimeLength;
+        private volatile long packetsSent;
+        private volatile long sentencesSent;
+        private volatile long sentencesJournaled;
+        private volatile long sentencesLost;
+        private volatile long batchesReplayed;
+        private volatile long bytesSent;
+        private volatile FrameQueue frameQueue;
+        private volatile long framesSent;
+        private volatile long frameErrors;
+        private volatile long sendErrors;
+        private volatile Runnable sendErrorListener;
+        private final LatencyHistogram queueLatency = new LatencyHistogram();
+        private final LatencyHistogram sendLatency = new LatencyHistogram();
+        private boolean linkDown;
+        private volatile SentenceJournal journal;
+        // Whether queued sentences are held until the journal is set
+        private volatile boolean held;
+        private volatile int replayBytesPerSecond;
+        private double replayTokens;
+        private long lastReplayNanos;
+        private long reportedDrops;
+        private long lastDropReportNanos = System.nanoTime();
+
+        private NetworkThread(long flushDeadlineMillis, int maxBatchSize, int queueCapacity,
+                              SentenceRingBuffer.OverflowPolicy overflowPolicy) {
+            super(TAG);
+            flushDeadlineNanos = TimeUnit.MILLISECONDS.toNanos(flushDeadlineMillis);
+            batch = ByteBuffer.allocateDirect(maxBatchSize);
+            sentence = new byte[maxBatchSize - 2];
+            // Shortest valid sentence is 6 bytes, plus the terminator
+            dequeueNanos = new long[maxBatchSize / 8 + 1];
+            messageQueue = new SentenceLanes(queueCapacity, sentence.length, overflowPolicy);
+        }
+
+        @Override
+        public void run() {
+            prepare();
+            while (running) {
+                reconfigure();
+                if (held) {
+                    // Sentences wait in the queue meanwhile. Unparked by release()
+                    LockSupport.parkNanos(this, DROP_REPORT_INTERVAL_NANOS);
+                    reportDrops();
+                    continue;
+                }
+                if (transmitting && !flush()) {
+                    waitForTransport();
+                    transmitFrames();
+                    reportDrops();
+                    continue;
+                }
+                if (heldLength >= 0) {
+                    int length = heldLength;
+                    heldLength = -1;
+                    append(sentence, length, heldNanos);
+                    continue;
+                }
+                if (flushDeadlineNanos > 0 && batch.position() != 0 &&
+                        System.nanoTime() - batchStartNanos >= flushDeadlineNanos && !flush())
+                    continue;
+                long timeout = batch.position() == 0 ?
+                        DROP_REPORT_INTERVAL_NANOS :
+                        batchStartNanos + flushDeadlineNanos - System.nanoTime();
+                if (isReplaying())
+                    timeout = Math.min(timeout, REPLAY_INTERVAL_NANOS);
+                int length = messageQueue.poll(sentence, timeout);
+                if (length >= 0) {
+                    long now = System.nanoTime();
+                    queueLatency.record(now - messageQueue.getPolledTimestamp());
+                    if (!reconfigurations.isEmpty()) {
+                        // Changed while waiting, possibly before this sentence was sent, so it's
+                        // gathered after the change
+                        heldLength = length;
+                        heldNanos = now;
+                        continue;
+                    }
+                    append(sentence, length, now);
+                }
+                else if (System.nanoTime() - batchStartNanos >= flushDeadlineNanos)
+                    flush();  // Deadline expired or queue drained
+                replay();
+                transmitFrames();
+                reportDrops();
+            }
+            // Sentences queued before stop() are transmitted, waiting for the transport until the
+            // stop deadline
+            reconfigure();
+            while (true) {
+                if (transmitting && !flush()) {
+                    waitForTransport();
+                    continue;
+                }
+                int length = heldLength;
+                heldLength = -1;
+                long now = System.nanoTime();
+                if (length < 0) {
+                    length = messageQueue.poll(sentence, 0);
+                    if (length < 0)
+                        break;
+                    queueLatency.record(now - messageQueue.getPolledTimestamp());
+                } else {
+                    now = heldNanos;
+                }
+                append(sentence, length, now);
+            }
+            while (!flush())
+                waitForTransport();
+            transmitFrames();
+            try {
+                close();
+                if (journal != null)
+                    journal.close();
+            } catch (IOException e) {
+                logger.warning(TAG, e.toString());
+            }
+        }
+
+        /**
+         * Apply pending changes, after transmitting the batch gathered so far. If the transport
+         * isn't ready, changes are applied with the batch still pending, to be transmitted after
+         * them.
+         */
+        private void reconfigure() {
+            if (reconfigurations.isEmpty())
+                return;
+            flush();
+            for (Runnable change = reconfigurations.poll(); change != null; change = reconfigurations.poll()) {
+                change.run();
+                reconfigured++;
+            }
+            prepare();
+        }
+
+        /**
+         * Prepare the transport ahead of the next batch, e.g. start connecting.
+         */
+        private void prepare() {
+            if (transmitting)
+                return;
+            try {
+                prepareTransmit();
+            } catch (IOException e) {
+                onSendError(e);
+            }
+        }
+
+        private void append(byte[] message, int length, long now) {
+            if (((flushDeadlineNanos > 0 && startsNewEpoch(message, length)) || length + 2 > batch.remaining()) &&
+                    !flush()) {
+                heldLength = length;
+                heldNanos = now;
+                return;
+            }
+            if (batch.position() == 0)
+                batchStartNanos = now;
+            batch.put(message, 0, length).put((byte)'\r').put((byte)'\n');
+            if (batchSentences < dequeueNanos.length)
+                dequeueNanos[batchSentences] = now;
+            batchSentences++;
+            batchBytes = batch.position();
+        }
+
+        /**
+         * Transmit the batch, or the rest of it if the transport took only part of it before.
+         *
+         * @return false if the batch is kept until the transport is ready, see
+         * {@link #prepareTransmit}
+         */
+        private boolean flush() {
+            if (!transmitting) {
+                if (batch.position() == 0)
+                    return true;
+                batch.flip();
+                transmitting = true;
+            }
+            try {
+                long delay = prepareTransmit();
+                if (delay == 0) {
+                    transmit(batch);
+                    onLinkUp();
+                    if (!batch.hasRemaining()) {
+                        onTransmitted();
+                        return true;
+                    }
+                }
+                // Not ready, or took part of the batch. While the link is down, batches go to
+                // the journal instead of waiting
+                if (canWait() && (journal == null || !linkDown))
+                    return hold(delay);
+            } catch (IOException e) {
+                onSendError(e);
+                // Without a journal, the batch waits for a transport that recovers on its own,
+                // e.g. by reconnecting
+                if (journal == null && canWait()) {
+                    try {
+                        long delay = prepareTransmit();
+                        if (delay > 0)
+                            return hold(delay);
+                    } catch (IOException retryException) {
+                        // Discarded below
+                    }
+                }
+            }
+            abandon();
+            return true;
+        }
+
+        private boolean hold(long delayNanos) {
+            transportDelayNanos = delayNanos;
+            batchBytes = batch.remaining();
+            return false;
+        }
+
+        private boolean canWait() {
+            return running || System.nanoTime() - stopDeadlineNanos < 0;
+        }
+
+        private void waitForTransport() {
+            long wait = Math.min(transportDelayNanos, DROP_REPORT_INTERVAL_NANOS);
+            if (!running)
+                wait = Math.min(wait, stopDeadlineNanos - System.nanoTime());
+            // Unparked by changes and by stop()
+            if (wait > 0)
+                LockSupport.parkNanos(this, wait);
+        }
+
+        private void onTransmitted() {
+            if (replayingBatch) {
+                journal.remove();
+                batchesReplayed++;
+            } else {
+                long now = System.nanoTime();
+                for (int i = 0; i < Math.min(batchSentences, dequeueNanos.length); i++)
+                    sendLatency.record(now - dequeueNanos[i]);
+                packetsSent++;
+                sentencesSent += batchSentences;
+            }
+            bytesSent += batch.limit();
+            clearBatch();
+        }
+
+        /**
+         * Give up on what the transport didn't take of the batch, journaling it if there's a
+         * journal. What it took counts as sent, so that it's never sent twice.
+         */
+        private void abandon() {
+            int taken = batch.position();
+            int sent = countSentences(0, taken);
+            // The rest of a torn sentence is useless without its beginning
+            if (taken > 0 && batch.get(taken - 1) != '\n') {
+                while (batch.hasRemaining() && batch.get() != '\n')
+                    continue;
+                if (!replayingBatch)
+                    sentencesLost++;
+            }
+            SentenceJournal journal = this.journal;
+            if (replayingBatch) {
+                // Still in the journal
+                journal.trimOldest(batch.position());
+                bytesSent += taken;
+            } else {
+                int remaining = batchSentences - countSentences(0, batch.position());
+                if (journal != null && batch.hasRemaining()) {
+                    journal.append(batch);
+                    sentencesJournaled += remaining;
+                } else {
+                    sentencesLost += remaining;
+                }
+                sentencesSent += sent;
+                bytesSent += taken;
+            }
+            clearBatch();
+        }
+
+        private int countSentences(int from, int to) {
+            int sentences = 0;
+            for (int i = from; i < to; i++) {
+                if (batch.get(i) == '\n')
+                    sentences++;
+            }
+            return sentences;
+        }
+
+        private void clearBatch() {
+            batch.clear();
+            transmitting = false;
+            replayingBatch = false;
+            batchSentences = 0;
+            batchBytes = 0;
+        }
+
+        private void transmitFrames() {
+            FrameQueue frames = frameQueue;
+            if (frames == null)
+                return;
+            for (ByteBuffer frame = frames.poll(); frame != null; frame = frames.poll()) {
+                try {
+                    transmitFrame(frame);
+                    framesSent++;
+                } catch (IOException e) {
+                    frameErrors++;
+                }
+                frames.release(frame);
+            }
+        }
+
+        private boolean isReplaying() {
+            SentenceJournal journal = this.journal;
+            return journal != null && !linkDown && !journal.isEmpty();
+        }
+
+        /**
+         * Replay journaled batches, limited to replayBytesPerSecond. Each is transmitted in place
+         * of a batch, between two batches.
+         */
+        private void replay() {
+            if (!isReplaying() || transmitting || batch.position() != 0 || heldLength >= 0)
+                return;
+            long now = System.nanoTime();
+            if (lastReplayNanos == 0)
+                lastReplayNanos = now;
+            replayTokens = Math.min(replayTokens + (now - lastReplayNanos) * replayBytesPerSecond / 1e9,
+                    batch.capacity());
+            lastReplayNanos = now;
+            while (isReplaying()) {
+                int length = journal.peek(batch);
+                if (length < 0) {
+                    journal.remove();  // Stored by a stream with larger batches
+                    continue;
+                }
+                if (length > replayTokens) {
+                    batch.clear();
+                    return;
+                }
+                replayTokens -= length;
+                transmitting = true;
+                replayingBatch = true;
+                if (!flush())
+                    return;
+            }
+            lastReplayNanos = 0;
+        }
+
+        private void onSendError(IOException e) {
+            sendErrors++;
+            onLinkDown(e);
+            Runnable listener = sendErrorListener;
+            if (listener != null)
+                listener.run();
+        }
+
+        private void onLinkDown(IOException e) {
+            if (linkDown)
+                return;
+            // Log once per outage, instead of once per batch
+            linkDown = true;
+            logger.warning(TAG, "Transmission failed" + (journal != null ? ", journaling sentences until the link returns" : "") +
+                    ": " + e.toString());
+        }
+
+        private void onLinkUp() {
+            if (!linkDown)
+                return;
+            linkDown = false;
+            SentenceJournal journal = this.journal;
+            logger.info(TAG, "Link restored" + (journal != null ? ", replaying " + journal.getStoredBytes() + " journaled bytes" : ""));
+        }
+
+        private void reportDrops() {
+            long now = System.nanoTime();
+            if (now - lastDropReportNanos < DROP_REPORT_INTERVAL_NANOS)
+                return;
+            long dropped = messageQueue.getDropped();
+            if (dropped != reportedDrops)
+                logger.warning(TAG, "Network queue full, dropped " + (dropped - reportedDrops) + " sentences in the last " +
+                        TimeUnit.NANOSECONDS.toSeconds(now - lastDropReportNanos) + " s");
+            reportedDrops = dropped;
+            lastDropReportNanos = now;
+        }
+
+        /**
+         * Check whether a sentence belongs to a new fix epoch.
+         * <p>
+         * Sentences carrying the fix time (GGA, RMC, GNS, GLL and ZDA) are compared against the
+         * time of the epoch being batched. Other sentences (GSA, GSV, VTG...) never start a new
+         * epoch and are kept with the sentences preceding them.
+         *
+         * @param  message       sentence to be checked
+         * @param  messageLength sentence length
+         * @return true if the sentence carries a fix time different from the current epoch
+         */
+        private boolean startsNewEpoch(byte[] message, int messageLength) {
+            if (!scanner.scan(message, messageLength) || !scanner.hasTime())
+                return false;
+            int start = scanner.getTimeStart();
+            int length = scanner.getTimeEnd() - start;
+            if (length > epochTime.length)
+                return false;
+            boolean sameEpoch = length == epochTimeLength;
+            for (int i = 0; sameEpoch && i < length; i++)
+                sameEpoch = epochTime[i] == message[start + i];
+            if (sameEpoch)
+                return false;
+            System.arraycopy(message, start, epochTime, 0, length);
+            epochTimeLength = length;
+            return true;
+        }
+
+        private void stopThread() {
+            stopDeadlineNanos = System.nanoTime() + STOP_FLUSH_NANOS;
+            running = false;
+            LockSupport.unpark(this);
+        }
+    }
+    private NetworkThread networkThread;
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * @param  tag                 log tag and network thread name
+     * @param  flushDeadlineMillis maximum time a sentence is held waiting for the rest of its
+     *                             epoch, or 0 to transmit as soon as the queue is drained
+     * @param  maxBatchSize        maximum size in bytes of each transmission
+     * @param  queueCapacity       size in bytes of the queue feeding the network thread
+     * @param  overflowPolicy      what to discard when the queue is full
+     */
+    QueuedSensorStream(String tag, long flushDeadlineMillis, int maxBatchSize, int queueCapacity,
+                       SentenceRingBuffer.OverflowPolicy overflowPolicy) {
+        TAG = tag;
+        networkThread = new NetworkThread(flushDeadlineMillis, maxBatchSize, queueCapacity, overflowPolicy);
+    }
+
+    /**
+     * Set where streams log to. Defaults to the standard error stream.
+     */
+    public static void setLogger(Logger logger) {
+        QueuedSensorStream.logger = logger;
+    }
+
+    /**
+     * Store batches that fail to be transmitted in a journal, to be replayed later. The journal is
+     * closed when the stream stops.
+     *
+     * Must be set before sending to the stream, or while sentences are held by {@link #hold}.
+     *
+     * @param  journal              journal, possibly holding batches from a previous stream
+     * @param  replayBytesPerSecond maximum rate of replayed data, on top of live data
+     */
+    public void setJournal(SentenceJournal journal, int replayBytesPerSecond) {
+        networkThread.replayBytesPerSecond = replayBytesPerSecond;
+        networkThread.journal = journal;
+        LockSupport.unpark(networkThread);
+    }
+
+    /**
+     * Hold queued sentences until {@link #release}, e.g. while a previous stream still transmits
+     * what it has queued, so that the switch doesn't reorder sentences, or still holds the
+     * journal. Must be called before sending to the stream.
+     */
+    public void hold() {
+        networkThread.held = true;
+    }
+
+    /**
+     * Transmit the sentences held since {@link #hold}.
+     */
+    public void release() {
+        networkThread.held = false;
+        LockSupport.unpark(networkThread);
+    }
+
+    /**
+     * Transmit binary frames published to a queue. The queue's producer must be a single thread.
+     *
+     * @param  frames queue of frames to be transmitted with {@link #transmitFrame}
+     */
+    public void setFrameQueue(FrameQueue frames) {
+        frames.setConsumer(networkThread);
+        networkThread.frameQueue = frames;
+        LockSupport.unpark(networkThread);
+    }
+
+    /**
+     * Notify every failed transmission of a batch, e.g. to resolve the servers again in case they
+     * moved. The listener is called from the network thread and must not block.
+     *
+     * @param  listener listener, or null to remove it
+     */
+    public void setSendErrorListener(Runnable listener) {
+        networkThread.sendErrorListener = listener;
+    }
+
+    /**
+     * Expire queued sentences older than a maximum age instead of sending them late. Takes
+     * effect immediately.
+     *
+     * @param  maxAgeMillis maximum time a sentence is queued, or 0 to keep sentences until sent
+     */
+    public void setMaxSentenceAge(long maxAgeMillis) {
+        networkThread.messageQueue.setMaxAge(maxAgeMillis);
+    }
+
+    /**
+     * Change the flush deadline of a running stream.
+     *
+     * @param  flushDeadlineMillis maximum time a sentence is held waiting for the rest of its
+     *                             epoch, or 0 to transmit as soon as the queue is drained
+     */
+    public void setFlushDeadline(long flushDeadlineMillis) {
+        long flushDeadlineNanos = TimeUnit.MILLISECONDS.toNanos(flushDeadlineMillis);
+        reconfigure(() -> networkThread.flushDeadlineNanos = flushDeadlineNanos);
+    }
+
+    /**
+     * Run a change on the network thread, between two batches. Changes are applied in order. A
+     * change made after {@link #stop} might not be applied.
+     *
+     * @param  change change to the transport, run before the next batch is gathered
+     */
+    void reconfigure(Runnable change) {
+        networkThread.reconfigurations.add(change);
+        LockSupport.unpark(networkThread);
+    }
+
+    /**
+     * Start the network thread. Called by subclasses once they are initialized.
+     */
+    void start() {
+        networkThread.start();
+    }
+
+    /**
+     * Make progress on the transport without blocking, e.g. finish connecting or check whether the
+     * socket accepts more data. Called from the network thread before each transmission and,
+     * while the transport isn't ready, instead of dequeueing more sentences.
+     * <p>
+     * After a failed transmission, a transport asking to wait, e.g. to reconnect, is given the
+     * batch again once ready, unless there's a journal. Otherwise the batch is discarded.
+     *
+     * @return 0 if a batch can be transmitted, or the time in nanoseconds after which to call
+     * again, with the batch and the sentences queued after it kept until then
+     * @throws IOException if the link failed, e.g. a connection was refused
+     */
+    long prepareTransmit() throws IOException {
+        return 0;
+    }
+
+    /**
+     * Transmit a batch of CRLF terminated sentences. Called from the network thread once
+     * {@link #prepareTransmit} returned 0. Must not block waiting for the link, failing instead.
+     * The transport may take only the beginning of the batch, leaving its position after what it
+     * took, in which case the rest is given again once the transport is ready.
+     *
+     * @param  data batch to be transmitted, from its position
+     * @throws IOException if the batch couldn't be transmitted
+     */
+    abstract void transmit(ByteBuffer data) throws IOException;
+
+    /**
+     * Transmit a binary frame. Called from the network thread. Must not block waiting for the
+     * link.
+     *
+     * @param  frame frame to be transmitted
+     * @throws IOException if the frame couldn't be transmitted, e.g. because the transport
+     * doesn't support frames
+     */
+    void transmitFrame(ByteBuffer frame) throws IOException {
+        throw new IOException(TAG + " doesn't support binary frames");
+    }
+
+    /**
+     * Release the transport. Called from the network thread when stopping.
+     */
+    abstract void close() throws IOException;
+
+    /**
+     * Queue a sentence to the networking thread.
+     * <p>
+     * The CRLF terminator is appended by the networking thread while copying the sentence to the
+     * batch buffer, so no intermediate strings are created.
+     * <p>
+     * Queueing is non-blocking, to avoid lockups if called from the UI
+     * thread. Note, however, that sentences might be discarded according to
+     * the overflow policy if the queue is full. Drops are logged periodically
+     * by the network thread.
+     *
+     * @param  data NMEA sentence to be transmitted, without terminator
+     */
+    @Override
+    public void send(final String data) {
+        networkThread.messageQueue.offer(data);
+    }
+
+    /**
+     * Time sentences go through the queue like any other, unless a subclass sends them on its own.
+     */
+    @Override
+    public boolean sendTime(CharSequence sentence, long timestamp) {
+        return false;
+    }
+
+    /**
+     * Stop the network thread, waiting briefly for it to transmit the sentences still queued and
+     * release the transport and the journal.
+     */
+    @Override
+    public void stop() {
+        networkThread.stopThread();
+        try {
+            networkThread.join(STOP_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return whether the network thread exited, releasing the transport and the journal. May be
+     * false after {@link #stop()} if the thread didn't exit within the stop timeout
+     */
+    public boolean isStopped() {
+        return !networkThread.isAlive();
+    }
+
+    @Override
+    public String getStatistics() {
+        String statistics = String.format(Locale.US, "Sent %d sentences in %d packets (%.2f packets/s, %.2f sentences/packet, %.0f bytes/s), dropped %d, lost %d, %d send errors",
+                getSentencesSent(), getPacketsSent(), getPacketsPerSecond(), getSentencesPerPacket(),
+                getBytesPerSecond(), getDroppedSentences(), networkThread.sentencesLost, getSendErrors());
+        SentenceJournal journal = networkThread.journal;
+        if (journal != null) {
+            statistics += String.format(Locale.US, ", journaled %d, replayed %d packets, %d bytes pending replay",
+                    networkThread.sentencesJournaled, networkThread.batchesReplayed, journal.getStoredBytes());
+        }
+        FrameQueue frames = networkThread.frameQueue;
+        if (frames != null) {
+            statistics += String.format(Locale.US, "\nSent %d sensor frames, %d send errors, frame pool exhausted %d times",
+                    networkThread.framesSent, networkThread.frameErrors, frames.getExhausted());
+        }
+        if (networkThread.reconfigured > 0)
+            statistics += String.format(Locale.US, ", reconfigured %d times", networkThread.reconfigured);
+        return statistics + String.format(Locale.US, "\nQueue high-water mark %d of %d bytes\n%s\nQueued: %s\nDequeue to sent: %s",
+                getQueueHighWaterMark(), networkThread.messageQueue.getCapacity(), networkThread.messageQueue.getStatistics(),
+                getQueueLatency().getSummary(), getSendLatency().getSummary());
+    }
+
+    public long getPacketsSent() {
+        return networkThread.packetsSent;
+    }
+
+    public long getSentencesSent() {
+        return networkThread.sentencesSent;
+    }
+
+    public long getDroppedSentences() {
+        return networkThread.messageQueue.getDropped();
+    }
+
+    /**
+     * @return bytes waiting in the queue and in the batch being transmitted
+     */
+    public int getQueuedBytes() {
+        return networkThread.messageQueue.getUsedBytes() + networkThread.batchBytes;
+    }
+
+    public long getFramesSent() {
+        return networkThread.framesSent;
+    }
+
+    public long getSendErrors() {
+        return networkThread.sendErrors;
+    }
+
+    /**
+     * @return the queue, for its per lane counters
+     */
+    public SentenceLanes getQueue() {
+        return networkThread.messageQueue;
+    }
+
+    public int getQueueHighWaterMark() {
+        return networkThread.messageQueue.getHighWaterMark();
+    }
+
+    /**
+     * @return time sentences spent in the queue, from {@link #send} to being dequeued
+     */
+    public LatencyHistogram getQueueLatency() {
+        return networkThread.queueLatency;
+    }
+
+    /**
+     * @return time from dequeueing sentences to their transmission returning
+     */
+    public LatencyHistogram getSendLatency() {
+        return networkThread.sendLatency;
+    }
+
+    public double getBytesPerSecond() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return seconds > 0 ? networkThread.bytesSent / seconds : 0;
+    }
+
+    public double getPacketsPerSecond() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return seconds > 0 ? networkThread.packetsSent / seconds : 0;
+    }
+
+    public double getSentencesPerPacket() {
+        long packets = networkThread.packetsSent;
+        return packets > 0 ? (double)networkThread.sentencesSent / packets : 0;
+    }
+}
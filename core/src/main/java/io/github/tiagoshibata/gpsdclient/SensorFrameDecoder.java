@@ -0,0 +1,110 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Decodes frames written by {@link SensorFrameEncoder}, counting frames lost or reordered on the
+ * way from their sequence numbers.
+ * <p>
+ * Not thread safe.
+ */
+public class SensorFrameDecoder {
+    private static final int MAX_AXES = 16;
+
+    public interface SampleListener {
+        /**
+         * @param  type           sensor type, one of SensorFrameEncoder.TYPE_*
+         * @param  timestampNanos sample timestamp
+         * @param  values         sample values, only valid during the call
+         * @param  axes           number of values
+         */
+        void onSample(int type, long timestampNanos, float[] values, int axes);
+    }
+
+    private final float[] values = new float[MAX_AXES];
+    // Next expected sequence number of each sensor type
+    private final long[] nextSequence = new long[256];
+    private long frames;
+    private long samples;
+    private long lostFrames;
+    private long reorderedFrames;
+    private long malformedFrames;
+
+    public SensorFrameDecoder() {
+        Arrays.fill(nextSequence, -1);
+    }
+
+    /**
+     * Decode a frame.
+     *
+     * @param  frame    frame between position and limit, which are left unchanged
+     * @param  listener receives each sample, or null to only count them
+     * @return false if the frame is malformed
+     */
+    public boolean decode(ByteBuffer frame, SampleListener listener) {
+        int start = frame.position();
+        int length = frame.remaining();
+        if (length < SensorFrameEncoder.HEADER_SIZE ||
+                (frame.getShort(start) & 0xffff) != SensorFrameEncoder.MAGIC ||
+                frame.get(start + 2) != SensorFrameEncoder.VERSION) {
+            malformedFrames++;
+            return false;
+        }
+        int type = frame.get(start + 3) & 0xff;
+        long sequence = frame.getInt(start + SensorFrameEncoder.SEQUENCE_OFFSET) & 0xffffffffL;
+        long timestamp = frame.getLong(start + SensorFrameEncoder.TIMESTAMP_OFFSET);
+        int count = frame.getShort(start + SensorFrameEncoder.COUNT_OFFSET) & 0xffff;
+        int axes = frame.get(start + SensorFrameEncoder.AXES_OFFSET) & 0xff;
+        int sampleSize = 4 + 4 * axes;
+        if (axes > MAX_AXES || SensorFrameEncoder.HEADER_SIZE + count * sampleSize != length) {
+            malformedFrames++;
+            return false;
+        }
+        long expected = nextSequence[type];
+        if (expected >= 0 && sequence > expected)
+            lostFrames += sequence - expected;
+        else if (expected >= 0 && sequence < expected)
+            reorderedFrames++;
+        nextSequence[type] = Math.max(expected, sequence + 1);
+        frames++;
+        samples += count;
+        if (listener == null)
+            return true;
+        int position = start + SensorFrameEncoder.HEADER_SIZE;
+        for (int i = 0; i < count; i++) {
+            timestamp += frame.getInt(position) & 0xffffffffL;
+            position += 4;
+            for (int axis = 0; axis < axes; axis++, position += 4)
+                values[axis] = frame.getFloat(position);
+            listener.onSample(type, timestamp, values, axes);
+        }
+        return true;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    public long getSamples() {
+        return samples;
+    }
+
+    public long getLostFrames() {
+        return lostFrames;
+    }
+
+    public long getReorderedFrames() {
+        return reorderedFrames;
+    }
+
+    public long getMalformedFrames() {
+        return malformedFrames;
+    }
+
+    public String getStatistics() {
+        return String.format(Locale.US, "Decoded %d samples in %d frames, %d frames lost, %d reordered, %d malformed",
+                samples, frames, lostFrames, reorderedFrames, malformedFrames);
+    }
+}
@@ -0,0 +1,125 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Packs samples of one sensor into fixed-layout binary frames.
+ * <p>
+ * Frames are big endian, with a 20 byte header:
+ * <pre>
+ * u16 magic (0x5346, "SF")
+ * u8  version (1)
+ * u8  sensor type (TYPE_*)
+ * u32 frame sequence number, counted per sensor
+ * i64 timestamp of the first sample, in nanoseconds (SensorEvent.timestamp)
+ * u16 sample count
+ * u8  values per sample
+ * u8  reserved (0)
+ * </pre>
+ * followed by the samples, each a u32 nanoseconds elapsed since the previous sample (0 for the
+ * first) and a f32 per value. A frame is published once full or once it spans
+ * {@link #MAX_FRAME_SPAN_NANOS}, when the next sample arrives.
+ * <p>
+ * Not thread safe, must be used from the producer thread of the {@link FrameQueue}.
+ */
+public class SensorFrameEncoder {
+    public static final int MAGIC = 0x5346;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 20;
+    static final int SEQUENCE_OFFSET = 4;
+    static final int TIMESTAMP_OFFSET = 8;
+    static final int COUNT_OFFSET = 16;
+    static final int AXES_OFFSET = 18;
+    public static final int TYPE_ACCELEROMETER = 1;
+    public static final int TYPE_GYROSCOPE = 2;
+    public static final int TYPE_PRESSURE = 3;
+    // Bounds the latency added by packing
+    public static final long MAX_FRAME_SPAN_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long MAX_DELTA_NANOS = 0xffffffffL;
+    private final FrameQueue queue;
+    private final int type;
+    private final int axes;
+    private final int sampleSize;
+    private ByteBuffer frame;
+    private int sequence;
+    private int samples;
+    private long firstNanos;
+    private long lastNanos;
+    private volatile long samplesEncoded;
+    private volatile long samplesDropped;
+
+    /**
+     * @param  queue frame pool and destination
+     * @param  type  sensor type, one of TYPE_*
+     * @param  axes  values per sample
+     */
+    public SensorFrameEncoder(FrameQueue queue, int type, int axes) {
+        if (HEADER_SIZE + 4 + 4 * axes > queue.getFrameSize())
+            throw new IllegalArgumentException("Frames too small for a single sample");
+        this.queue = queue;
+        this.type = type;
+        this.axes = axes;
+        sampleSize = 4 + 4 * axes;
+    }
+
+    /**
+     * Add a sample, publishing the current frame first if needed. The sample is dropped if no
+     * frame is free.
+     *
+     * @param  timestampNanos sample timestamp
+     * @param  values         sample values, at least as many as axes
+     */
+    public void add(long timestampNanos, float[] values) {
+        if (frame != null && (frame.remaining() < sampleSize ||
+                timestampNanos - firstNanos > MAX_FRAME_SPAN_NANOS ||
+                timestampNanos - lastNanos > MAX_DELTA_NANOS))
+            flush();
+        if (frame == null && !startFrame(timestampNanos)) {
+            samplesDropped++;
+            return;
+        }
+        frame.putInt((int)Math.max(0, timestampNanos - lastNanos));
+        for (int i = 0; i < axes; i++)
+            frame.putFloat(values[i]);
+        lastNanos = timestampNanos;
+        samples++;
+        samplesEncoded++;
+    }
+
+    private boolean startFrame(long timestampNanos) {
+        frame = queue.acquire();
+        if (frame == null)
+            return false;
+        frame.putShort((short)MAGIC).put((byte)VERSION).put((byte)type)
+                .putInt(sequence).putLong(timestampNanos)
+                .putShort((short)0).put((byte)axes).put((byte)0);
+        firstNanos = lastNanos = timestampNanos;
+        samples = 0;
+        return true;
+    }
+
+    /**
+     * Publish the current frame, if it holds any sample.
+     */
+    public void flush() {
+        if (frame == null)
+            return;
+        frame.putShort(COUNT_OFFSET, (short)samples);
+        frame.flip();
+        queue.publish(frame);
+        frame = null;
+        sequence++;
+    }
+
+    public long getSamplesEncoded() {
+        return samplesEncoded;
+    }
+
+    /**
+     * @return samples dropped because every frame was in use
+     */
+    public long getSamplesDropped() {
+        return samplesDropped;
+    }
+}
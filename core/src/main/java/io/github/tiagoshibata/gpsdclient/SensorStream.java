@@ -0,0 +1,29 @@
+package io.github.tiagoshibata.gpsdclient;
+
+public interface SensorStream {
+    /**
+     * Queue a sentence for transmission. Must not block, since it's called from the thread
+     * delivering NMEA messages.
+     *
+     * @param  sentence NMEA sentence to be transmitted, without terminator
+     */
+    void send(String sentence);
+
+    /**
+     * Send a time sentence right away, skipping batching, if the stream supports it. Must be
+     * called from the thread calling {@link #send}.
+     *
+     * @param  sentence  NMEA sentence, without terminator
+     * @param  timestamp time reported by the GNSS HAL with the sentence, in milliseconds since
+     *                   the epoch
+     * @return false if the sentence should be sent with {@link #send} instead
+     */
+    boolean sendTime(CharSequence sentence, long timestamp);
+
+    void stop();
+
+    /**
+     * @return human readable transmission statistics
+     */
+    String getStatistics();
+}
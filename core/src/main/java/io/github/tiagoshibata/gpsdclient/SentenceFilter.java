@@ -0,0 +1,171 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Filter and decimate sentences before they are queued.
+ * <p>
+ * The filter is configured with a comma separated list of rules. Each rule is either a sentence
+ * type (e.g. GSV, matching any talker), a talker and type (e.g. GPGSV) or a proprietary prefix
+ * (e.g. P or PUBX):
+ * <ul>
+ * <li>RULE allows the sentence. If any sentence is allowed, all others are blocked. Use * to allow
+ * everything else.</li>
+ * <li>-RULE blocks the sentence.</li>
+ * <li>RULE/SECONDS allows the sentence at most once every SECONDS. Sentences matching the same
+ * rule that immediately follow an allowed one are also allowed, so that multi-sentence reports
+ * such as GSV are kept whole.</li>
+ * </ul>
+ * For example, "GGA/1,RMC/1" forwards only GGA and RMC at 1 Hz, while "*,-P,GSV/10" forwards all
+ * standard sentences with GSV every 10 s. Sentences are classified from their first characters,
+ * without splitting or allocating.
+ */
+public class SentenceFilter {
+    private static final int MAX_TRACKED_TYPES = 32;
+
+    private static class Rule {
+        private final String pattern;
+        private final boolean allow;
+        private final long intervalNanos;
+        private long lastAllowedNanos;
+        private boolean allowedBefore;
+
+        private Rule(String pattern, boolean allow, long intervalNanos) {
+            this.pattern = pattern;
+            this.allow = allow;
+            this.intervalNanos = intervalNanos;
+        }
+
+        private boolean matches(String sentence) {
+            if (pattern.equals("*"))
+                return true;
+            if (pattern.length() == 3 && pattern.charAt(0) != 'P')
+                return sentence.length() > 1 && sentence.charAt(1) != 'P' && sentence.startsWith(pattern, 3);
+            return sentence.startsWith(pattern, 1);
+        }
+
+        private boolean decimate(long now) {
+            if (intervalNanos == 0)
+                return false;
+            if (allowedBefore && now - lastAllowedNanos < intervalNanos)
+                return true;
+            allowedBefore = true;
+            lastAllowedNanos = now;
+            return false;
+        }
+    }
+
+    private final Rule[] rules;
+    private final boolean whitelist;
+    // Decimated rule that allowed the previous sentence, if any
+    private Rule burstRule;
+    // Per type counters, keyed by the first 5 characters of the address field packed in a long
+    private final long[] typeKeys = new long[MAX_TRACKED_TYPES];
+    private final long[] typePassed = new long[MAX_TRACKED_TYPES];
+    private final long[] typeDropped = new long[MAX_TRACKED_TYPES];
+    private volatile int trackedTypes;
+    private long bytesPassed;
+    private long bytesDropped;
+
+    /**
+     * @param  configuration comma separated list of rules, empty to allow everything
+     * @throws IllegalArgumentException if the configuration is malformed
+     */
+    public SentenceFilter(String configuration) {
+        List<Rule> parsedRules = new ArrayList<>();
+        boolean hasAllowRule = false;
+        for (String entry : configuration.split(",")) {
+            String rule = entry.trim().toUpperCase(Locale.US);
+            if (rule.isEmpty())
+                continue;
+            boolean allow = rule.charAt(0) != '-';
+            if (!allow)
+                rule = rule.substring(1);
+            long intervalNanos = 0;
+            int separator = rule.indexOf('/');
+            if (separator >= 0) {
+                try {
+                    intervalNanos = (long)(Double.parseDouble(rule.substring(separator + 1)) * 1e9);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid interval in sentence filter rule " + entry);
+                }
+                rule = rule.substring(0, separator);
+            }
+            if (rule.isEmpty() || (!allow && intervalNanos != 0))
+                throw new IllegalArgumentException("Invalid sentence filter rule " + entry);
+            parsedRules.add(new Rule(rule, allow, intervalNanos));
+            hasAllowRule |= allow;
+        }
+        rules = parsedRules.toArray(new Rule[0]);
+        whitelist = hasAllowRule;
+    }
+
+    /**
+     * Decide whether a sentence should be forwarded. Must be called from a single thread.
+     *
+     * @param  sentence NMEA sentence, starting with $ or !
+     * @return true if the sentence should be forwarded
+     */
+    public boolean accept(String sentence) {
+        Rule matched = null;
+        // Most specific rules are expected last, so the last matching rule wins
+        for (int i = rules.length - 1; i >= 0 && matched == null; i--) {
+            if (rules[i].matches(sentence))
+                matched = rules[i];
+        }
+        boolean accepted;
+        if (matched == null)
+            accepted = !whitelist;
+        else
+            accepted = matched.allow && (matched == burstRule || !matched.decimate(System.nanoTime()));
+        burstRule = accepted && matched != null && matched.intervalNanos != 0 ? matched : null;
+        int type = typeIndex(sentence);
+        if (accepted) {
+            bytesPassed += sentence.length() + 2;
+            if (type >= 0)
+                typePassed[type]++;
+        } else {
+            bytesDropped += sentence.length() + 2;
+            if (type >= 0)
+                typeDropped[type]++;
+        }
+        return accepted;
+    }
+
+    private int typeIndex(String sentence) {
+        long key = 0;
+        for (int i = 1; i < 6 && i < sentence.length() && sentence.charAt(i) != ','; i++)
+            key = key << 8 | (sentence.charAt(i) & 0xff);
+        for (int i = 0; i < trackedTypes; i++) {
+            if (typeKeys[i] == key)
+                return i;
+        }
+        if (trackedTypes == MAX_TRACKED_TYPES)
+            return -1;
+        typeKeys[trackedTypes] = key;
+        return trackedTypes++;
+    }
+
+    /**
+     * @return human readable pass and drop counters per sentence type
+     */
+    public String getStatistics() {
+        long total = bytesPassed + bytesDropped;
+        StringBuilder statistics = new StringBuilder(String.format(Locale.US,
+                "Filter passed %d bytes, dropped %d bytes (%.1f%%)", bytesPassed, bytesDropped,
+                total > 0 ? 100. * bytesDropped / total : 0));
+        for (int i = 0; i < trackedTypes; i++) {
+            statistics.append('\n');
+            for (int shift = 32; shift >= 0; shift -= 8) {
+                char c = (char)(typeKeys[i] >>> shift & 0xff);
+                if (c != 0)
+                    statistics.append(c);
+            }
+            statistics.append(": ").append(typePassed[i]).append(" passed, ")
+                    .append(typeDropped[i]).append(" dropped");
+        }
+        return statistics.toString();
+    }
+}
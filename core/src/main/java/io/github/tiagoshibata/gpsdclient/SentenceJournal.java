@@ -0,0 +1,183 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Bounded, append-only ring of batches stored in a memory-mapped file.
+ * <p>
+ * Holds batches that couldn't be transmitted, so that they can be replayed once the link returns.
+ * Each record is a 2 byte length followed by the batch. Records are written before the header
+ * pointing to them is updated, and the oldest records are evicted when the ring is full. The
+ * mapping is never forced to disk: writes cost the same as writing to memory and survive the
+ * process being killed, since the kernel keeps the dirty pages, but not a kernel crash or power
+ * loss.
+ * <p>
+ * Not thread safe, must be used from a single thread.
+ */
+public class SentenceJournal implements Closeable {
+    private static final int MAGIC = 0x4e4d4a31;  // NMJ1
+    private static final int MAGIC_OFFSET = 0;
+    private static final int CAPACITY_OFFSET = 4;
+    private static final int HEAD_OFFSET = 8;
+    private static final int TAIL_OFFSET = 16;
+    private static final int DATA_OFFSET = 64;
+    private static final int RECORD_HEADER_SIZE = 2;
+    private final RandomAccessFile file;
+    private final MappedByteBuffer map;
+    private final int capacity;
+    // Positions grow monotonically and are wrapped with capacity when indexing the data region
+    private long head;
+    private long tail;
+    private long droppedRecords;
+
+    /**
+     * Open a journal, keeping records left by a previous instance if the file is consistent.
+     *
+     * @param  path     journal file, created if needed
+     * @param  capacity size of the data region in bytes
+     */
+    public SentenceJournal(File path, int capacity) throws IOException {
+        this.capacity = capacity;
+        file = new RandomAccessFile(path, "rw");
+        try {
+            map = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, DATA_OFFSET + capacity);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+        head = map.getLong(HEAD_OFFSET);
+        tail = map.getLong(TAIL_OFFSET);
+        if (map.getInt(MAGIC_OFFSET) != MAGIC || map.getInt(CAPACITY_OFFSET) != capacity || !isConsistent()) {
+            head = tail = 0;
+            map.putLong(HEAD_OFFSET, 0);
+            map.putLong(TAIL_OFFSET, 0);
+            map.putInt(CAPACITY_OFFSET, capacity);
+            map.putInt(MAGIC_OFFSET, MAGIC);
+        }
+    }
+
+    private boolean isConsistent() {
+        if (tail < 0 || head < tail || head - tail > capacity)
+            return false;
+        for (long position = tail; position != head; position += RECORD_HEADER_SIZE + readLength(position)) {
+            if (head - position < RECORD_HEADER_SIZE || RECORD_HEADER_SIZE + readLength(position) > head - position)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Append a batch, evicting the oldest records if needed.
+     *
+     * @param  data batch between position and limit, which are left unchanged
+     */
+    public void append(ByteBuffer data) {
+        int length = data.remaining();
+        int recordSize = RECORD_HEADER_SIZE + length;
+        if (length > 0xffff || recordSize > capacity) {
+            droppedRecords++;
+            return;
+        }
+        while (head + recordSize - tail > capacity)
+            evictOldest();
+        put(head, (byte)(length >>> 8));
+        put(head + 1, (byte)length);
+        for (int i = 0; i < length; i++)
+            put(head + RECORD_HEADER_SIZE + i, data.get(data.position() + i));
+        head += recordSize;
+        // Publish only after the record is complete
+        map.putLong(HEAD_OFFSET, head);
+    }
+
+    /**
+     * Copy the oldest record, without removing it.
+     *
+     * @param  destination buffer receiving the record, cleared and flipped for reading
+     * @return record length, or -1 if the journal is empty or the record doesn't fit
+     */
+    public int peek(ByteBuffer destination) {
+        if (isEmpty())
+            return -1;
+        int length = readLength(tail);
+        destination.clear();
+        if (length > destination.remaining())
+            return -1;
+        for (int i = 0; i < length; i++)
+            destination.put(get(tail + RECORD_HEADER_SIZE + i));
+        destination.flip();
+        return length;
+    }
+
+    /**
+     * Remove the oldest record, after it has been replayed.
+     */
+    public void remove() {
+        if (isEmpty())
+            return;
+        tail += RECORD_HEADER_SIZE + readLength(tail);
+        map.putLong(TAIL_OFFSET, tail);
+    }
+
+    /**
+     * Remove the beginning of the oldest record, after it was replayed and the link failed before
+     * the rest was, so that it isn't replayed again. Removes the whole record if that's all of it.
+     *
+     * @param  replayed bytes replayed from the start of the record
+     */
+    public void trimOldest(int replayed) {
+        if (isEmpty() || replayed <= 0)
+            return;
+        int length = readLength(tail);
+        if (replayed >= length) {
+            remove();
+            return;
+        }
+        // The new header is written over the end of what was replayed, then published by moving
+        // the tail
+        long newTail = tail + replayed;
+        put(newTail, (byte)((length - replayed) >>> 8));
+        put(newTail + 1, (byte)(length - replayed));
+        tail = newTail;
+        map.putLong(TAIL_OFFSET, tail);
+    }
+
+    private void evictOldest() {
+        remove();
+        droppedRecords++;
+    }
+
+    public boolean isEmpty() {
+        return head == tail;
+    }
+
+    public long getStoredBytes() {
+        return head - tail;
+    }
+
+    public long getDroppedRecords() {
+        return droppedRecords;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private int readLength(long position) {
+        return (get(position) & 0xff) << 8 | get(position + 1) & 0xff;
+    }
+
+    private byte get(long position) {
+        return map.get(DATA_OFFSET + (int)(position % capacity));
+    }
+
+    private void put(long position, byte value) {
+        map.put(DATA_OFFSET + (int)(position % capacity), value);
+    }
+}
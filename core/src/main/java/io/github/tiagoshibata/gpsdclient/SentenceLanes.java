@@ -0,0 +1,290 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single producer, single consumer queue of sentences in priority lanes sharing one byte budget.
+ * <p>
+ * Each sentence is queued in a lane by type: position and time (GGA, RMC, GNS, GLL, ZDA), status
+ * (GSA, VTG, GST and any other standard sentence), satellite detail (GSV, GRS) and proprietary.
+ * Lanes are drained in arrival order, keeping the order gpsd relies on to detect the end of each
+ * epoch. Only when the budget is so full that the next sentence would shed others are they drained
+ * strictly by priority, so that what is sent while sentences are being lost is the most valuable.
+ * When the budget is full, room for a sentence is made by shedding the oldest sentences of the
+ * lowest priority lanes first; only if no lower priority sentences are left is the overflow policy
+ * applied within its own lane. A position can thus only be lost to other positions.
+ * <p>
+ * With a maximum age, sentences older than it when dequeued, e.g. from epochs gathered while the
+ * link was stalled, are expired instead of being sent late.
+ * <p>
+ * Lanes are {@link SentenceRingBuffer}s, so offering never blocks nor allocates. Since any lane
+ * may use the whole budget, each is preallocated with the whole budget: the queue takes
+ * {@link #LANES} times the budget in memory, e.g. 4 MiB for a 1 MiB budget.
+ */
+public class SentenceLanes {
+    public static final int POSITION = 0;
+    public static final int STATUS = 1;
+    public static final int SATELLITES = 2;
+    public static final int PROPRIETARY = 3;
+    public static final int LANES = 4;
+    private static final String[] NAMES = {"position", "status", "satellites", "proprietary"};
+    private static final int TYPE_GGA = 'G' << 16 | 'G' << 8 | 'A';
+    private static final int TYPE_RMC = 'R' << 16 | 'M' << 8 | 'C';
+    private static final int TYPE_GNS = 'G' << 16 | 'N' << 8 | 'S';
+    private static final int TYPE_GLL = 'G' << 16 | 'L' << 8 | 'L';
+    private static final int TYPE_ZDA = 'Z' << 16 | 'D' << 8 | 'A';
+    private static final int TYPE_GSV = 'G' << 16 | 'S' << 8 | 'V';
+    private static final int TYPE_GRS = 'G' << 16 | 'R' << 8 | 'S';
+    // Longest standard sentence, without terminator
+    private static final int MAX_STANDARD_SENTENCE_LENGTH = 80;
+    private final SentenceRingBuffer[] lanes = new SentenceRingBuffer[LANES];
+    private final int budget;
+    // Queued bytes past which the next sentence would shed others
+    private final int sheddingThreshold;
+    private final SentenceRingBuffer.OverflowPolicy overflowPolicy;
+    private volatile Thread waitingConsumer;
+    private volatile long maxAgeNanos;
+    // Sentences discarded to make room, written by the producer
+    private final AtomicLongArray shed = new AtomicLongArray(LANES);
+    // Written by the consumer
+    private final AtomicLongArray expired = new AtomicLongArray(LANES);
+    private volatile int highWaterMark;
+    // Only accessed by the consumer
+    private int polledLane;
+    private long polledTimestamp;
+
+    /**
+     * @param  capacity          budget in bytes shared by every lane, rounded up to a power of two.
+     *                           {@link #LANES} times as much is allocated
+     * @param  maxSentenceLength longest sentence accepted, longer ones are dropped
+     * @param  overflowPolicy    what to do when a sentence doesn't fit, after shedding lower
+     *                           priority lanes
+     */
+    public SentenceLanes(int capacity, int maxSentenceLength, SentenceRingBuffer.OverflowPolicy overflowPolicy) {
+        // Each lane can hold the whole budget, which is enforced across lanes when offering
+        for (int i = 0; i < LANES; i++)
+            lanes[i] = new SentenceRingBuffer(capacity, maxSentenceLength, overflowPolicy);
+        budget = lanes[0].getCapacity();
+        sheddingThreshold = budget - SentenceRingBuffer.getRecordSize(MAX_STANDARD_SENTENCE_LENGTH);
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * @param  sentence NMEA sentence
+     * @return lane of the sentence, from its address
+     */
+    public static int classify(CharSequence sentence) {
+        if (sentence.length() < 6)
+            return STATUS;
+        if (sentence.charAt(1) == 'P')
+            return PROPRIETARY;
+        switch (sentence.charAt(3) << 16 | sentence.charAt(4) << 8 | sentence.charAt(5)) {
+            case TYPE_GGA:
+            case TYPE_RMC:
+            case TYPE_GNS:
+            case TYPE_GLL:
+            case TYPE_ZDA:
+                return POSITION;
+            case TYPE_GSV:
+            case TYPE_GRS:
+                return SATELLITES;
+            default:
+                return STATUS;
+        }
+    }
+
+    /**
+     * Queue a sentence in its lane. Must only be called from the producer thread.
+     *
+     * @param  sentence ASCII sentence
+     * @return false if the sentence was dropped
+     */
+    public boolean offer(CharSequence sentence) {
+        int lane = classify(sentence);
+        int recordSize = SentenceRingBuffer.getRecordSize(sentence.length());
+        // Lowest priority and oldest first. The consumer might free room concurrently
+        for (int victim = LANES - 1; victim > lane && getUsedBytes() + recordSize > budget; ) {
+            if (lanes[victim].discardOldest())
+                shed.incrementAndGet(victim);
+            else
+                victim--;
+        }
+        while (getUsedBytes() + recordSize > budget) {
+            if (overflowPolicy == SentenceRingBuffer.OverflowPolicy.DROP_NEWEST || !lanes[lane].discardOldest()) {
+                shed.incrementAndGet(lane);
+                return false;
+            }
+            shed.incrementAndGet(lane);
+            if (overflowPolicy == SentenceRingBuffer.OverflowPolicy.OVERWRITE) {
+                while (lanes[lane].discardOldest())
+                    shed.incrementAndGet(lane);
+            }
+        }
+        boolean queued = lanes[lane].offer(sentence);
+        int used = getUsedBytes();
+        if (used > highWaterMark)
+            highWaterMark = used;
+        Thread consumer = waitingConsumer;
+        if (consumer != null)
+            LockSupport.unpark(consumer);
+        return queued;
+    }
+
+    /**
+     * Dequeue the next sentence, waiting for one if every lane is empty. Must only be called
+     * from the consumer thread.
+     *
+     * @param  destination  array receiving the sentence, at least maxSentenceLength long
+     * @param  timeoutNanos maximum time to wait for a sentence
+     * @return sentence length, or -1 if timed out or unparked
+     */
+    public int poll(byte[] destination, long timeoutNanos) {
+        int length = poll(destination);
+        if (length >= 0 || timeoutNanos <= 0)
+            return length;
+        waitingConsumer = Thread.currentThread();
+        // Check again after publishing waitingConsumer, a sentence might have been offered
+        // before the producer could see it
+        length = poll(destination);
+        if (length < 0)
+            LockSupport.parkNanos(this, timeoutNanos);
+        waitingConsumer = null;
+        return length >= 0 ? length : poll(destination);
+    }
+
+    private int poll(byte[] destination) {
+        for (int lane = nextLane(); lane >= 0; lane = nextLane()) {
+            SentenceRingBuffer ring = lanes[lane];
+            int length = ring.poll(destination, 0);
+            if (length < 0)
+                continue;  // Evicted by the producer meanwhile
+            long timestamp = ring.getPolledTimestamp();
+            long maxAge = maxAgeNanos;
+            if (maxAge > 0 && System.nanoTime() - timestamp > maxAge) {
+                expired.incrementAndGet(lane);
+                continue;
+            }
+            polledLane = lane;
+            polledTimestamp = timestamp;
+            return length;
+        }
+        return -1;
+    }
+
+    /**
+     * @return lane to be polled next, or -1 if every lane is empty
+     */
+    private int nextLane() {
+        if (getUsedBytes() > sheddingThreshold) {
+            for (int lane = 0; lane < LANES; lane++) {
+                if (lanes[lane].getUsedBytes() > 0)
+                    return lane;
+            }
+            return -1;
+        }
+        int seen = oldestLane();
+        if (seen < 0)
+            return -1;
+        // The producer is a single thread, so queue timestamps follow arrival order. A lane
+        // might be filled after being scanned with a sentence older than the head of a lane
+        // scanned later, so the lanes are scanned a second time: anything older than the sentence
+        // seen was queued before it and is now visible
+        int oldest = oldestLane();
+        return oldest >= 0 ? oldest : seen;
+    }
+
+    private int oldestLane() {
+        int oldest = -1;
+        long oldestTimestamp = 0;
+        for (int lane = 0; lane < LANES; lane++) {
+            long timestamp = lanes[lane].peekTimestamp();
+            if (timestamp != Long.MAX_VALUE && (oldest < 0 || timestamp - oldestTimestamp < 0)) {
+                oldest = lane;
+                oldestTimestamp = timestamp;
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * @param  maxAgeMillis age after which queued sentences are expired, or 0 to keep them until
+     *                      sent
+     */
+    public void setMaxAge(long maxAgeMillis) {
+        maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMillis);
+    }
+
+    /**
+     * @return {@link System#nanoTime()} at which the last polled sentence was queued. Must only be
+     * called from the consumer thread.
+     */
+    public long getPolledTimestamp() {
+        return polledTimestamp;
+    }
+
+    /**
+     * @return lane of the last polled sentence. Must only be called from the consumer thread.
+     */
+    public int getPolledLane() {
+        return polledLane;
+    }
+
+    /**
+     * @return sentences lost to overflow, shed to make room or too long
+     */
+    public long getDropped() {
+        long dropped = 0;
+        for (int i = 0; i < LANES; i++)
+            dropped += shed.get(i) + lanes[i].getDropped();
+        return dropped;
+    }
+
+    public long getShed(int lane) {
+        return shed.get(lane);
+    }
+
+    public long getExpired(int lane) {
+        return expired.get(lane);
+    }
+
+    public long getExpired() {
+        long total = 0;
+        for (int i = 0; i < LANES; i++)
+            total += expired.get(i);
+        return total;
+    }
+
+    public int getUsedBytes(int lane) {
+        return lanes[lane].getUsedBytes();
+    }
+
+    public int getUsedBytes() {
+        int used = 0;
+        for (SentenceRingBuffer lane : lanes)
+            used += lane.getUsedBytes();
+        return used;
+    }
+
+    /**
+     * @return the most bytes ever queued at once across lanes
+     */
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    public int getCapacity() {
+        return budget;
+    }
+
+    public String getStatistics() {
+        StringBuilder statistics = new StringBuilder("Lanes:");
+        for (int i = 0; i < LANES; i++) {
+            statistics.append(String.format(Locale.US, "%s %s %d bytes queued, %d shed, %d expired",
+                    i > 0 ? ";" : "", NAMES[i], getUsedBytes(i), shed.get(i), expired.get(i)));
+        }
+        return statistics.toString();
+    }
+}
@@ -0,0 +1,227 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single producer, single consumer queue of ASCII sentences, stored in a preallocated byte ring.
+ * <p>
+ * Each sentence is stored as a 2 byte length and the 8 byte {@link System#nanoTime()} at which it
+ * was queued, followed by its characters. Capacity is given in bytes, so a burst of long sentences
+ * takes as much space as an equivalent amount of short ones.
+ * Offering never blocks nor allocates. The consumer parks while the ring is empty and is unparked
+ * by the producer.
+ */
+public class SentenceRingBuffer {
+    public enum OverflowPolicy {
+        // Discard the sentence being offered
+        DROP_NEWEST,
+        // Discard as many of the oldest queued sentences as needed to fit the new one
+        DROP_OLDEST,
+        // Discard the whole backlog, which is stale if the consumer can't keep up, and keep the
+        // new sentence
+        OVERWRITE,
+    }
+
+    private static final int LENGTH_SIZE = 2;
+    private static final int HEADER_SIZE = LENGTH_SIZE + 8;
+    private final byte[] ring;
+    private final int mask;
+    private final int maxSentenceLength;
+    private final OverflowPolicy overflowPolicy;
+    // Positions grow monotonically and are wrapped with mask when indexing the ring. head is only
+    // written by the producer. tail is advanced by the consumer and, when evicting, by the
+    // producer, so it is updated with compareAndSet.
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private volatile Thread waitingConsumer;
+    private volatile long dropped;
+    private volatile int highWaterMark;
+    // Only accessed by the consumer
+    private long polledTimestamp;
+
+    /**
+     * @param  capacity          ring size in bytes, rounded up to a power of two
+     * @param  maxSentenceLength longest sentence accepted, longer ones are dropped
+     * @param  overflowPolicy    what to do when a sentence doesn't fit
+     */
+    public SentenceRingBuffer(int capacity, int maxSentenceLength, OverflowPolicy overflowPolicy) {
+        int size = Integer.highestOneBit(Math.max(capacity, 64) - 1) << 1;
+        ring = new byte[size];
+        mask = size - 1;
+        this.maxSentenceLength = Math.min(maxSentenceLength, Math.min(0xffff, size - HEADER_SIZE));
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Queue a sentence. Must only be called from the producer thread.
+     *
+     * @param  sentence ASCII sentence
+     * @return false if the sentence (or, with OVERWRITE and DROP_OLDEST, older ones) was dropped
+     */
+    public boolean offer(CharSequence sentence) {
+        int length = sentence.length();
+        if (length > maxSentenceLength) {
+            dropped++;
+            return false;
+        }
+        int recordSize = HEADER_SIZE + length;
+        long position = head.get();
+        boolean discarded = false;
+        while (position + recordSize - tail.get() > ring.length) {
+            if (overflowPolicy == OverflowPolicy.DROP_NEWEST) {
+                dropped++;
+                return false;
+            }
+            // Records between tail and head are never modified by the consumer, so they can be
+            // safely walked here. The consumer might dequeue concurrently, making the CAS fail
+            long oldest = tail.get();
+            if (oldest == position)
+                break;  // Emptied by the consumer meanwhile
+            long newTail = overflowPolicy == OverflowPolicy.OVERWRITE ?
+                    position : oldest + HEADER_SIZE + readLength(oldest);
+            if (tail.compareAndSet(oldest, newTail)) {
+                dropped += countRecords(oldest, newTail);
+                discarded = true;
+            }
+        }
+        ring[(int)position & mask] = (byte)(length >>> 8);
+        ring[(int)(position + 1) & mask] = (byte)length;
+        long now = System.nanoTime();
+        for (int i = 0; i < 8; i++)
+            ring[(int)(position + LENGTH_SIZE + i) & mask] = (byte)(now >>> (56 - 8 * i));
+        for (int i = 0; i < length; i++)
+            ring[(int)(position + HEADER_SIZE + i) & mask] = (byte)sentence.charAt(i);
+        // Volatile write: publishes the record and orders it before reading waitingConsumer
+        head.set(position + recordSize);
+        int used = (int)(position + recordSize - tail.get());
+        if (used > highWaterMark)
+            highWaterMark = used;
+        Thread consumer = waitingConsumer;
+        if (consumer != null)
+            LockSupport.unpark(consumer);
+        return !discarded;
+    }
+
+    /**
+     * Discard the oldest queued sentence, e.g. to make room in another ring sharing the same
+     * budget. Not counted as dropped. Must only be called from the producer thread.
+     *
+     * @return false if the ring is empty
+     */
+    public boolean discardOldest() {
+        while (true) {
+            long oldest = tail.get();
+            if (oldest == head.get())
+                return false;
+            // Fails if the consumer dequeued it meanwhile
+            if (tail.compareAndSet(oldest, oldest + HEADER_SIZE + readLength(oldest)))
+                return true;
+        }
+    }
+
+    /**
+     * Dequeue a sentence, waiting for one if the ring is empty. Must only be called from the
+     * consumer thread.
+     *
+     * @param  destination  array receiving the sentence, at least maxSentenceLength long
+     * @param  timeoutNanos maximum time to wait for a sentence
+     * @return sentence length, or -1 if timed out or unparked
+     */
+    public int poll(byte[] destination, long timeoutNanos) {
+        int length = poll(destination);
+        if (length >= 0 || timeoutNanos <= 0)
+            return length;
+        waitingConsumer = Thread.currentThread();
+        // Check again after publishing waitingConsumer, a sentence might have been offered
+        // before the producer could see it
+        length = poll(destination);
+        if (length < 0)
+            LockSupport.parkNanos(this, timeoutNanos);
+        waitingConsumer = null;
+        return length >= 0 ? length : poll(destination);
+    }
+
+    private int poll(byte[] destination) {
+        while (true) {
+            long position = tail.get();
+            if (position == head.get())
+                return -1;
+            int length = readLength(position);
+            long timestamp = 0;
+            for (int i = 0; i < 8; i++)
+                timestamp = timestamp << 8 | ring[(int)(position + LENGTH_SIZE + i) & mask] & 0xff;
+            if (length <= destination.length) {
+                for (int i = 0; i < length; i++)
+                    destination[i] = ring[(int)(position + HEADER_SIZE + i) & mask];
+            }
+            // Fails if the producer evicted this record while it was being copied
+            if (tail.compareAndSet(position, position + HEADER_SIZE + length)) {
+                polledTimestamp = timestamp;
+                return length;
+            }
+        }
+    }
+
+    /**
+     * @return {@link System#nanoTime()} at which the oldest queued sentence was queued, or
+     * {@link Long#MAX_VALUE} if the ring is empty. Only a hint, since the producer might evict the
+     * sentence meanwhile. Must only be called from the consumer thread.
+     */
+    public long peekTimestamp() {
+        long position = tail.get();
+        if (position == head.get())
+            return Long.MAX_VALUE;
+        long timestamp = 0;
+        for (int i = 0; i < 8; i++)
+            timestamp = timestamp << 8 | ring[(int)(position + LENGTH_SIZE + i) & mask] & 0xff;
+        return timestamp;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} at which the last polled sentence was queued. Must only be
+     * called from the consumer thread.
+     */
+    public long getPolledTimestamp() {
+        return polledTimestamp;
+    }
+
+    public long getDropped() {
+        return dropped;
+    }
+
+    public int getUsedBytes() {
+        return (int)(head.get() - tail.get());
+    }
+
+    /**
+     * @return the most bytes ever queued at once
+     */
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    public int getCapacity() {
+        return ring.length;
+    }
+
+    /**
+     * @return bytes taken in the ring by a sentence
+     */
+    static int getRecordSize(int sentenceLength) {
+        return HEADER_SIZE + sentenceLength;
+    }
+
+    private int readLength(long position) {
+        return (ring[(int)position & mask] & 0xff) << 8 | ring[(int)(position + 1) & mask] & 0xff;
+    }
+
+    private int countRecords(long from, long to) {
+        int records = 0;
+        while (from < to) {
+            from += HEADER_SIZE + readLength(from);
+            records++;
+        }
+        return records;
+    }
+}
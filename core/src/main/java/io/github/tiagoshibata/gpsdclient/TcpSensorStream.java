@@ -0,0 +1,252 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stream over a persistent TCP connection, reconnecting with exponential backoff.
+ * <p>
+ * The channel is non-blocking: connecting is completed and a batch the socket only partially
+ * accepted is written on by the network thread as the socket allows, while sentences wait in the
+ * queue. Everything queued meanwhile is gathered into the next write. A sentence torn by a lost
+ * connection isn't resent, since the server discarded its beginning.
+ */
+public class TcpSensorStream extends QueuedSensorStream {
+    private static final int MAX_WRITE_SIZE = 8192;
+    private static final long CONNECT_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+    // A connection in progress or a full socket is checked again after an interval doubling
+    // between these
+    private static final long MIN_POLL_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long MAX_POLL_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    // setAddress wakes up the network thread, this only bounds the wait
+    private static final long ADDRESS_WAIT_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long MIN_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final long MAX_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(60);
+    private volatile SocketAddress address;
+    private final Random random = new Random();
+    private SocketChannel tcpChannel;
+    private boolean connected;
+    private long connectStartNanos;
+    // Whether anything was written on this connection
+    private boolean written;
+    // Whether the socket didn't accept all of the last write
+    private boolean full;
+    private long pollIntervalNanos;
+    private long backoffNanos;
+    private long nextConnectNanos = System.nanoTime();
+    private volatile long connectLatencyNanos = -1;
+    private volatile long connections;
+    private volatile long tornSentences;
+
+    /**
+     * @param  address        destination address, or null to wait for {@link #setAddress}
+     * @param  queueCapacity  size in bytes of the queue feeding the network thread
+     * @param  overflowPolicy what to discard when the queue is full, e.g. while disconnected
+     */
+    public TcpSensorStream(SocketAddress address, int queueCapacity, SentenceRingBuffer.OverflowPolicy overflowPolicy) {
+        super("TcpSensorStream", 0, MAX_WRITE_SIZE, queueCapacity, overflowPolicy);
+        this.address = address;
+        start();
+    }
+
+    /**
+     * Switch to a new server without stopping the stream. Sentences queued or batched so far are
+     * sent to the previous server as far as it takes them right away, and the following ones to
+     * the new server, which is connected to right away. The connection is kept if the address
+     * didn't change.
+     *
+     * @param  address destination address
+     */
+    public void setAddress(SocketAddress address) {
+        reconfigure(() -> {
+            if (address.equals(this.address))
+                return;
+            try {
+                close();
+            } catch (IOException e) {
+                // Ignored, the connection is discarded anyway
+            }
+            this.address = address;
+            backoffNanos = 0;
+            nextConnectNanos = System.nanoTime();
+            logger.info(TAG, "Switched to " + address);
+        });
+    }
+
+    /**
+     * Drop the connection and connect again right away, e.g. because the network changed and the
+     * connection is bound to the previous one.
+     */
+    public void reconnect() {
+        reconfigure(() -> {
+            if (tcpChannel == null)
+                return;
+            try {
+                close();
+            } catch (IOException e) {
+                // Ignored, the connection is discarded anyway
+            }
+            backoffNanos = 0;
+            nextConnectNanos = System.nanoTime();
+            logger.info(TAG, "Reconnecting to " + address);
+        });
+    }
+
+    /**
+     * Connect, or check the connection in progress, once the backoff elapsed.
+     *
+     * @return time to wait for the address, the backoff, the connection or the socket to accept
+     * more data, or 0 if connected and writable
+     */
+    @Override
+    long prepareTransmit() throws IOException {
+        if (tcpChannel == null) {
+            if (address == null)
+                return ADDRESS_WAIT_NANOS;
+            long backoff = nextConnectNanos - System.nanoTime();
+            if (backoff > 0)
+                return backoff;
+            connect();
+        }
+        if (!connected)
+            return finishConnect();
+        if (full) {
+            // Checked again after a while, instead of spinning on writes the socket refuses
+            full = false;
+            return nextPollInterval();
+        }
+        return 0;
+    }
+
+    private long nextPollInterval() {
+        long interval = pollIntervalNanos;
+        pollIntervalNanos = Math.min(interval * 2, MAX_POLL_INTERVAL_NANOS);
+        return interval;
+    }
+
+    /**
+     * Write as much of a batch as the socket accepts.
+     */
+    @Override
+    void transmit(ByteBuffer data) throws IOException {
+        if (!connected)
+            throw new IOException(address == null ? "Waiting for the server address" : "Not connected to " + address);
+        if (!written && data.position() > 0 && data.get(data.position() - 1) != '\n') {
+            // The beginning was written to a previous connection
+            while (data.hasRemaining() && data.get() != '\n')
+                continue;
+            tornSentences++;
+        }
+        try {
+            while (data.hasRemaining() && tcpChannel.write(data) > 0) {
+                written = true;
+                pollIntervalNanos = MIN_POLL_INTERVAL_NANOS;
+            }
+        } catch (IOException e) {
+            disconnect();
+            throw e;
+        }
+        full = data.hasRemaining();
+    }
+
+    @Override
+    void close() throws IOException {
+        if (tcpChannel == null)
+            return;
+        try {
+            tcpChannel.close();
+        } finally {
+            tcpChannel = null;
+            connected = false;
+            full = false;
+        }
+    }
+
+    /**
+     * Close after a failure and wait for the backoff before reconnecting.
+     */
+    private void disconnect() {
+        try {
+            close();
+        } catch (IOException e) {
+            // Ignored, the connection is discarded anyway
+        }
+        scheduleReconnect();
+    }
+
+    private void connect() throws IOException {
+        connectStartNanos = System.nanoTime();
+        pollIntervalNanos = MIN_POLL_INTERVAL_NANOS;
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            tcpChannel = channel;
+            if (channel.connect(address))
+                onConnected();
+        } catch (IOException | UnresolvedAddressException e) {
+            disconnect();
+            throw e instanceof IOException ? (IOException)e : new UnknownHostException(address.toString());
+        }
+    }
+
+    /**
+     * @return time to wait for the connection in progress, or 0 once connected
+     */
+    private long finishConnect() throws IOException {
+        try {
+            if (!tcpChannel.finishConnect()) {
+                if (System.nanoTime() - connectStartNanos < CONNECT_TIMEOUT_NANOS)
+                    return nextPollInterval();
+                throw new SocketTimeoutException("Timed out connecting to " + address);
+            }
+        } catch (IOException e) {
+            disconnect();
+            throw e;
+        }
+        onConnected();
+        return 0;
+    }
+
+    private void onConnected() {
+        connected = true;
+        written = false;
+        connectLatencyNanos = System.nanoTime() - connectStartNanos;
+        connections++;
+        backoffNanos = 0;
+        logger.info(TAG, "Connected to " + address + " in " + TimeUnit.NANOSECONDS.toMillis(connectLatencyNanos) + " ms");
+    }
+
+    private void scheduleReconnect() {
+        backoffNanos = backoffNanos == 0 ? MIN_BACKOFF_NANOS : Math.min(backoffNanos * 2, MAX_BACKOFF_NANOS);
+        // Wait between half and the whole backoff, so that many devices losing the same server
+        // don't reconnect in lockstep
+        long delay = backoffNanos / 2 + (long)(random.nextDouble() * (backoffNanos / 2));
+        nextConnectNanos = System.nanoTime() + delay;
+    }
+
+    public long getConnectLatencyNanos() {
+        return connectLatencyNanos;
+    }
+
+    /**
+     * @return bytes queued for transmission and not yet accepted by the socket
+     */
+    public int getBytesInFlight() {
+        return getQueuedBytes();
+    }
+
+    @Override
+    public String getStatistics() {
+        return super.getStatistics() + String.format(Locale.US, ", %d connections, last connect latency %d ms, %d bytes in flight, %d sentences torn by lost connections",
+                connections, TimeUnit.NANOSECONDS.toMillis(connectLatencyNanos), getBytesInFlight(), tornSentences);
+    }
+}
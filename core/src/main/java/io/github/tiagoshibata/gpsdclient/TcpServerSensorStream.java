@@ -0,0 +1,408 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stream listening for TCP connections and broadcasting every batch to all connected clients.
+ * <p>
+ * Clients are served by a selector thread of their own, so that connections are accepted, closed
+ * connections detected and pending data written as soon as the sockets are ready, without waiting
+ * for the next batch. The network thread writes each batch to the clients that have nothing
+ * queued, and appends it to the output buffer of the others, so it never waits for a socket. Data
+ * sent by clients (e.g. gpsd's ?WATCH) is discarded.
+ * <p>
+ * A client is falling behind, and is disconnected so that a stalled reader never delays the
+ * others, when its buffer can't hold the next batch or when it hasn't been drained for
+ * {@link #MAX_BACKLOG_AGE_MS}. The socket send buffer is limited to the client buffer size, so
+ * that most of the backlog is kept where it is measured instead of in the kernel.
+ */
+public class TcpServerSensorStream extends QueuedSensorStream {
+    public static final int DEFAULT_CLIENT_BUFFER_SIZE = 16 * 1024;
+    // Longer than any stall of a client that keeps up, e.g. a GC pause of gpsd
+    public static final long MAX_BACKLOG_AGE_MS = 2000;
+    private static final int MAX_WRITE_SIZE = 8192;
+    private static final int MAX_CLIENTS = 1024;
+    private static final long AGE_CHECK_INTERVAL_MS = 100;
+    private static final long STOP_TIMEOUT_MS = 1000;
+
+    private static class Client {
+        private final SelectionKey key;
+        private final SocketAddress address;
+        // Guarded by the client: appended to by the network thread, taken by the selector thread
+        private final ByteBuffer pending;
+        // Taken from pending and being written, only accessed by the selector thread
+        private final ByteBuffer outgoing;
+        // Guarded by the client: bytes left in outgoing, and since when data has been queued
+        private int writing;
+        private long backlogSinceNanos;
+        private String failure;
+        private boolean fallingBehind;
+
+        private Client(SelectionKey key, SocketAddress address, int bufferSize) {
+            this.key = key;
+            this.address = address;
+            pending = ByteBuffer.allocateDirect(bufferSize);
+            outgoing = ByteBuffer.allocateDirect(bufferSize);
+            outgoing.limit(0);
+        }
+
+        private void fallBehind() {
+            failure = "falling behind";
+            fallingBehind = true;
+        }
+    }
+
+    private final Selector selector;
+    private final Thread selectorThread;
+    private volatile boolean serving = true;
+    private volatile ServerSocketChannel serverChannel;
+    private final int clientBufferSize;
+    private final long maxBacklogAgeNanos = TimeUnit.MILLISECONDS.toNanos(MAX_BACKLOG_AGE_MS);
+    // Changes to the selector's registrations, applied by the selector thread
+    private final Queue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+    // Written by the selector thread, replaced on every connection and disconnection
+    private volatile Client[] connected = new Client[0];
+    // Shared by every client, since received data is discarded. Only used by the selector thread
+    private final ByteBuffer discard = ByteBuffer.allocateDirect(1024);
+    private volatile long accepted;
+    private volatile long rejected;
+    private volatile long slowClientsDropped;
+    private volatile long disconnected;
+
+    /**
+     * @param  address          address to listen on, e.g. the wildcard address and a port
+     * @param  clientBufferSize bytes buffered per client before it is disconnected for falling
+     *                          behind, at least 8 KiB
+     * @param  queueCapacity    size in bytes of the queue feeding the network thread
+     * @param  overflowPolicy   what to discard when the queue is full
+     */
+    public TcpServerSensorStream(SocketAddress address, int clientBufferSize, int queueCapacity,
+                                 SentenceRingBuffer.OverflowPolicy overflowPolicy) throws IOException {
+        super("TcpServerSensorStream", 0, MAX_WRITE_SIZE, queueCapacity, overflowPolicy);
+        if (clientBufferSize < MAX_WRITE_SIZE)
+            throw new IllegalArgumentException("Client buffer smaller than " + MAX_WRITE_SIZE + " bytes");
+        this.clientBufferSize = clientBufferSize;
+        selector = Selector.open();
+        try {
+            serverChannel = listen(address);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            selector.close();
+            throw e;
+        }
+        logger.info(TAG, "Listening on " + serverChannel.socket().getLocalSocketAddress());
+        selectorThread = new Thread(this::serve, TAG + " selector");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+        start();
+    }
+
+    private static ServerSocketChannel listen(SocketAddress address) throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        try {
+            // Sized for every client connecting at once. Bound through the socket, since
+            // ServerSocketChannel.bind needs API level 24
+            channel.socket().bind(address, MAX_CLIENTS);
+            channel.configureBlocking(false);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    /**
+     * Listen on a new address without stopping the stream. Connected clients are kept.
+     *
+     * @param  address address to listen on
+     * @throws IOException if the address couldn't be bound, in which case the previous one is
+     *                     kept
+     */
+    public void setAddress(SocketAddress address) throws IOException {
+        ServerSocketChannel channel = listen(address);
+        runOnSelector(() -> {
+            try {
+                channel.register(selector, SelectionKey.OP_ACCEPT);
+            } catch (IOException e) {
+                logger.warning(TAG, e.toString());
+                close(channel);
+                return;
+            }
+            close(serverChannel);
+            serverChannel = channel;
+            logger.info(TAG, "Listening on " + address);
+        });
+    }
+
+    /**
+     * @return address the server is listening on, with the port chosen if listening on port 0
+     */
+    public SocketAddress getLocalAddress() {
+        return serverChannel.socket().getLocalSocketAddress();
+    }
+
+    /**
+     * Write a batch to every client, as much as each socket accepts, and leave the rest to the
+     * selector thread. Clients that already have data queued get the batch appended to their
+     * buffer. Having no clients isn't an error.
+     */
+    @Override
+    void transmit(ByteBuffer data) {
+        int start = data.position();
+        boolean wakeup = false;
+        for (Client client : connected) {
+            data.position(start);
+            synchronized (client) {
+                if (client.failure != null)
+                    continue;
+                int backlog = client.pending.position() + client.writing;
+                if (backlog + data.remaining() > clientBufferSize) {
+                    client.fallBehind();
+                    wakeup = true;
+                    continue;
+                }
+                if (backlog == 0) {
+                    client.backlogSinceNanos = System.nanoTime();
+                    try {
+                        ((SocketChannel)client.key.channel()).write(data);
+                    } catch (IOException e) {
+                        client.failure = e.toString();
+                        wakeup = true;
+                        continue;
+                    }
+                    // The selector thread writes the rest once the socket accepts more
+                    wakeup |= data.hasRemaining();
+                }
+                client.pending.put(data);
+            }
+        }
+        data.position(data.limit());
+        if (wakeup)
+            selector.wakeup();
+    }
+
+    private void runOnSelector(Runnable task) {
+        selectorTasks.add(task);
+        selector.wakeup();
+    }
+
+    private void serve() {
+        try {
+            while (serving) {
+                selector.select(AGE_CHECK_INTERVAL_MS);
+                for (Runnable task = selectorTasks.poll(); task != null; task = selectorTasks.poll())
+                    task.run();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid())
+                        continue;
+                    if (key.isAcceptable()) {
+                        try {
+                            accept((ServerSocketChannel)key.channel());
+                        } catch (IOException e) {
+                            // e.g. out of file descriptors, retried on the next connection
+                            logger.warning(TAG, e.toString());
+                        }
+                        continue;
+                    }
+                    if (key.isReadable())
+                        read((Client)key.attachment());
+                    if (key.isValid() && key.isWritable())
+                        write((Client)key.attachment());
+                }
+                checkClients();
+            }
+            // Best effort for what was sent last
+            for (Client client : connected)
+                write(client);
+        } catch (IOException | ClosedSelectorException e) {
+            logger.warning(TAG, e.toString());
+        }
+    }
+
+    /**
+     * Write what's pending for a client, as much as the socket accepts. Data is taken from the
+     * buffer shared with the network thread and written outside its lock, so that the network
+     * thread never waits for a socket. The network thread only writes to the socket itself while
+     * nothing is being written here.
+     */
+    private void write(Client client) {
+        SocketChannel channel = (SocketChannel)client.key.channel();
+        try {
+            while (true) {
+                if (!client.outgoing.hasRemaining()) {
+                    synchronized (client) {
+                        if (client.failure != null || client.pending.position() == 0) {
+                            client.writing = 0;
+                            return;
+                        }
+                        client.pending.flip();
+                        client.outgoing.clear();
+                        client.outgoing.put(client.pending).flip();
+                        client.pending.clear();
+                        client.writing = client.outgoing.remaining();
+                    }
+                }
+                channel.write(client.outgoing);
+                synchronized (client) {
+                    client.writing = client.outgoing.remaining();
+                }
+                // Waits for the socket to accept the rest
+                if (client.outgoing.hasRemaining())
+                    return;
+            }
+        } catch (IOException e) {
+            synchronized (client) {
+                if (client.failure == null)
+                    client.failure = e.toString();
+            }
+        }
+    }
+
+    /**
+     * Write what the network thread appended, disconnect failed clients and those falling behind,
+     * and wait for the socket of those with data left.
+     */
+    private void checkClients() {
+        long now = System.nanoTime();
+        for (Client client : connected) {
+            if (!client.outgoing.hasRemaining())
+                write(client);
+            String failure;
+            synchronized (client) {
+                if (client.failure == null && client.pending.position() + client.writing > 0 &&
+                        now - client.backlogSinceNanos > maxBacklogAgeNanos)
+                    client.fallBehind();
+                failure = client.failure;
+            }
+            if (failure == null) {
+                client.key.interestOps(client.outgoing.hasRemaining() ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+                continue;
+            }
+            if (client.fallingBehind)
+                slowClientsDropped++;
+            else
+                disconnected++;
+            disconnect(client, failure);
+        }
+    }
+
+    private void accept(ServerSocketChannel serverChannel) throws IOException {
+        for (SocketChannel channel = serverChannel.accept(); channel != null; channel = serverChannel.accept()) {
+            if (connected.length >= MAX_CLIENTS) {
+                rejected++;
+                channel.close();
+                continue;
+            }
+            Client client;
+            try {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                channel.socket().setSendBufferSize(clientBufferSize);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                client = new Client(key, channel.socket().getRemoteSocketAddress(), clientBufferSize);
+                key.attach(client);
+            } catch (IOException e) {
+                channel.close();
+                continue;
+            }
+            Client[] clients = Arrays.copyOf(connected, connected.length + 1);
+            clients[clients.length - 1] = client;
+            connected = clients;
+            accepted++;
+            logger.info(TAG, "Client " + client.address + " connected");
+        }
+    }
+
+    private void read(Client client) {
+        SocketChannel channel = (SocketChannel)client.key.channel();
+        String failure = null;
+        try {
+            discard.clear();
+            if (channel.read(discard) < 0)
+                failure = "closed the connection";
+        } catch (IOException e) {
+            failure = e.toString();
+        }
+        if (failure != null) {
+            synchronized (client) {
+                if (client.failure == null)
+                    client.failure = failure;
+            }
+        }
+    }
+
+    private void disconnect(Client client, String reason) {
+        client.key.cancel();
+        try {
+            client.key.channel().close();
+        } catch (IOException e) {
+            // Ignored, the connection is discarded anyway
+        }
+        Client[] clients = new Client[connected.length - 1];
+        int i = 0;
+        for (Client other : connected) {
+            if (other != client)
+                clients[i++] = other;
+        }
+        connected = clients;
+        logger.info(TAG, "Client " + client.address + " disconnected: " + reason);
+    }
+
+    private static void close(ServerSocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Ignored, the channel is discarded anyway
+        }
+    }
+
+    @Override
+    void close() throws IOException {
+        serving = false;
+        selector.wakeup();
+        try {
+            selectorThread.join(STOP_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            for (SelectionKey key : selector.keys())
+                key.channel().close();
+        } finally {
+            selector.close();
+        }
+    }
+
+    public int getClients() {
+        return connected.length;
+    }
+
+    /**
+     * @return clients disconnected because their buffer filled up or wasn't drained in time
+     */
+    public long getSlowClientsDropped() {
+        return slowClientsDropped;
+    }
+
+    @Override
+    public String getStatistics() {
+        return super.getStatistics() + String.format(Locale.US, "\n%d clients connected, %d accepted, %d rejected, %d dropped for falling behind, %d disconnected",
+                connected.length, accepted, rejected, slowClientsDropped, disconnected);
+    }
+}
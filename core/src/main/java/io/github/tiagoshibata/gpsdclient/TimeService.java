@@ -0,0 +1,206 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends time sentences as soon as they are received, for servers using the stream as a time
+ * source, e.g. gpsd feeding NTP through its SHM refclock.
+ * <p>
+ * Sentences are handed over through a small preallocated ring to a dedicated thread at the
+ * highest priority, which sends each one in its own datagram, without waiting for batching,
+ * journal replay or sensor frames on the network thread. Optionally, a proprietary sentence with
+ * the timestamp reported by the GNSS HAL is appended to the datagram:
+ * {@code $PGFTS,<address of the time sentence>,<HAL timestamp in ms since the epoch>*hh}.
+ * <p>
+ * The time from each sentence being handed over to its datagram being sent is recorded, and the
+ * spread of its percentiles reported as jitter.
+ */
+public class TimeService {
+    private static final String TAG = "TimeService";
+    private static final String TIMESTAMP_ADDRESS = "PGFTS";
+    private static final int SLOTS = 8;
+    // Longer than NMEA's 82 characters, for receivers emitting longer sentences
+    private static final int MAX_SENTENCE_LENGTH = 256;
+    // Room for the sentence, the timestamp sentence and their terminators
+    private static final int MAX_DATAGRAM_SIZE = MAX_SENTENCE_LENGTH + 64;
+    private static final long STOP_TIMEOUT_MS = 1000;
+
+    interface Transmitter {
+        /**
+         * Send a datagram. Called from the time service thread.
+         *
+         * @return false if the datagram was dropped, e.g. because the socket buffer was full
+         */
+        boolean transmit(ByteBuffer datagram) throws IOException;
+    }
+
+    private final Transmitter transmitter;
+    private final boolean halTimestamps;
+    private final Thread thread;
+    private volatile boolean running = true;
+    // Written by the producer only
+    private volatile long head;
+    // Written by the time service thread only
+    private volatile long tail;
+    private final byte[][] sentences = new byte[SLOTS][MAX_SENTENCE_LENGTH];
+    private final int[] lengths = new int[SLOTS];
+    private final long[] timestamps = new long[SLOTS];
+    private final long[] queuedNanos = new long[SLOTS];
+    private final ByteBuffer datagram = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+    private final LatencyHistogram sendLatency = new LatencyHistogram();
+    private final LatencyHistogram halLatency = new LatencyHistogram();
+    private volatile long sent;
+    // Written by the producer, when the ring is full or the sentence too long
+    private volatile long dropped;
+    // Written by the time service thread, when the transmitter drops the datagram
+    private volatile long refused;
+    private volatile long sendErrors;
+
+    /**
+     * Start the time service thread.
+     *
+     * @param  transmitter   sends each datagram
+     * @param  halTimestamps append a sentence with the HAL timestamp to each time sentence
+     */
+    TimeService(Transmitter transmitter, boolean halTimestamps) {
+        this.transmitter = transmitter;
+        this.halTimestamps = halTimestamps;
+        thread = new Thread(this::run, TAG);
+        thread.setDaemon(true);
+        // Mapped to a negative nice value on Android
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Hand a sentence to the time service thread. Never blocks nor allocates. Must only be called
+     * from a single thread.
+     *
+     * @param  sentence  NMEA sentence, without terminator
+     * @param  timestamp time reported by the GNSS HAL with the sentence, in milliseconds since
+     *                   the epoch
+     */
+    public void offer(CharSequence sentence, long timestamp) {
+        long position = head;
+        int length = sentence.length();
+        if (position - tail >= SLOTS || length > MAX_SENTENCE_LENGTH) {
+            dropped++;
+            return;
+        }
+        int slot = (int)position & (SLOTS - 1);
+        byte[] destination = sentences[slot];
+        for (int i = 0; i < length; i++)
+            destination[i] = (byte)sentence.charAt(i);
+        lengths[slot] = length;
+        timestamps[slot] = timestamp;
+        queuedNanos[slot] = System.nanoTime();
+        head = position + 1;
+        LockSupport.unpark(thread);
+    }
+
+    private void run() {
+        while (running) {
+            long position = tail;
+            if (position == head) {
+                LockSupport.park(this);
+                continue;
+            }
+            int slot = (int)position & (SLOTS - 1);
+            long queued = queuedNanos[slot];
+            long timestamp = timestamps[slot];
+            datagram.clear();
+            datagram.put(sentences[slot], 0, lengths[slot]).put((byte)'\r').put((byte)'\n');
+            if (halTimestamps)
+                putTimestampSentence(sentences[slot], lengths[slot], timestamp);
+            tail = position + 1;
+            datagram.flip();
+            try {
+                if (!transmitter.transmit(datagram)) {
+                    refused++;
+                    continue;
+                }
+                sendLatency.record(System.nanoTime() - queued);
+                halLatency.record(TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - timestamp));
+                sent++;
+            } catch (IOException e) {
+                if (sendErrors++ == 0)
+                    QueuedSensorStream.logger.warning(TAG, e.toString());
+            }
+        }
+    }
+
+    /**
+     * Append {@code $PGFTS,<address>,<timestamp>*hh} for a sentence.
+     */
+    private void putTimestampSentence(byte[] sentence, int length, long timestamp) {
+        int start = datagram.position();
+        datagram.put((byte)'$');
+        for (int i = 0; i < TIMESTAMP_ADDRESS.length(); i++)
+            datagram.put((byte)TIMESTAMP_ADDRESS.charAt(i));
+        datagram.put((byte)',');
+        // Address of the time sentence, e.g. GPRMC, from after the '$' to the first comma
+        for (int i = 1; i < length && sentence[i] != ',' && sentence[i] != '*'; i++)
+            datagram.put(sentence[i]);
+        datagram.put((byte)',');
+        putDecimal(timestamp);
+        int checksum = 0;
+        for (int i = start + 1; i < datagram.position(); i++)
+            checksum ^= datagram.get(i);
+        datagram.put((byte)'*')
+                .put((byte)Character.toUpperCase(Character.forDigit(checksum >> 4 & 0xf, 16)))
+                .put((byte)Character.toUpperCase(Character.forDigit(checksum & 0xf, 16)))
+                .put((byte)'\r').put((byte)'\n');
+    }
+
+    private void putDecimal(long value) {
+        if (value < 0) {
+            datagram.put((byte)'-');
+            value = -value;
+        }
+        long divisor = 1;
+        while (value / divisor >= 10)
+            divisor *= 10;
+        for (; divisor > 0; divisor /= 10)
+            datagram.put((byte)('0' + value / divisor % 10));
+    }
+
+    void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(STOP_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getSent() {
+        return sent;
+    }
+
+    /**
+     * @return time from {@link #offer} to the datagram being sent
+     */
+    public LatencyHistogram getSendLatency() {
+        return sendLatency;
+    }
+
+    /**
+     * @return time from the HAL timestamp to the datagram being sent. Both are wall clock times,
+     * so this includes any offset between the GNSS and system clocks
+     */
+    public LatencyHistogram getHalLatency() {
+        return halLatency;
+    }
+
+    public String getStatistics() {
+        long p50 = sendLatency.getPercentile(50);
+        return String.format(Locale.US, "Time service: sent %d sentences, dropped %d, %d send errors, jitter %.3f ms (p99 - p50), %.3f ms (p99.9 - p50)\nHand-over to sent: %s\nHAL to sent: %s",
+                sent, dropped + refused, sendErrors, (sendLatency.getPercentile(99) - p50) / 1e6,
+                (sendLatency.getPercentile(99.9) - p50) / 1e6, sendLatency.getSummary(), halLatency.getSummary());
+    }
+}
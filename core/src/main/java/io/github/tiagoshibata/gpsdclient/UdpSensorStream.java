@@ -0,0 +1,345 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Stream sending datagrams to one or more servers.
+ * <p>
+ * Each batch is encoded once and written to every destination. Channels are non-blocking, so an
+ * unreachable destination or a full socket buffer never delays the others: the datagram is
+ * counted as dropped for that destination instead.
+ * <p>
+ * Binary sensor frames can be sent to a separate port of each destination.
+ * <p>
+ * Time sentences can be sent ahead of batching by a {@link TimeService}.
+ * <p>
+ * Batches can be compressed with a {@link CompressedNmeaEncoder}, for a relay next to gpsd to
+ * decompress. Time sentences and sensor frames are always sent as they are.
+ * <p>
+ * A stream can start without destinations, e.g. while their names are being resolved. Batches
+ * fail until {@link #setDestinations} is called, to be journaled or discarded.
+ */
+public class UdpSensorStream extends QueuedSensorStream {
+    // Stay below the path MTU of common links (Ethernet, Wi-Fi, most cellular bearers and tunnels)
+    // to avoid IP fragmentation
+    public static final int MAX_DATAGRAM_SIZE = 1400;
+
+    private class Destination {
+        private final SocketAddress address;
+        private final DatagramChannel channel;
+        private final DatagramChannel frameChannel;
+        private volatile long packetsSent;
+        private volatile long packetsDropped;
+        private volatile long sendErrors;
+        private boolean failing;
+
+        private Destination(SocketAddress address, int sensorPort) throws IOException {
+            this.address = address;
+            channel = open(address);
+            if (sensorPort <= 0) {
+                frameChannel = null;
+                return;
+            }
+            try {
+                frameChannel = open(new InetSocketAddress(((InetSocketAddress)address).getAddress(), sensorPort));
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        private DatagramChannel open(SocketAddress address) throws IOException {
+            DatagramChannel channel = DatagramChannel.open();
+            try {
+                channel.configureBlocking(false);
+                // Connecting avoids resolving and checking the destination on every send
+                channel.connect(address);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            return channel;
+        }
+
+        private void close() throws IOException {
+            try {
+                channel.close();
+            } finally {
+                if (frameChannel != null)
+                    frameChannel.close();
+            }
+        }
+
+        /**
+         * @return the error, if the datagram couldn't be sent
+         */
+        private IOException transmit(ByteBuffer data) {
+            data.rewind();
+            try {
+                if (channel.write(data) == 0)
+                    packetsDropped++;  // Socket buffer full
+                else
+                    packetsSent++;
+                failing = false;
+                return null;
+            } catch (IOException e) {
+                sendErrors++;
+                // Log once when the destination starts failing, instead of once per datagram
+                if (!failing)
+                    logger.warning(TAG, address + ": " + e.toString());
+                failing = true;
+                return e;
+            }
+        }
+    }
+    private volatile Destination[] destinations;
+    private volatile TimeService timeService;
+    private volatile CompressedNmeaEncoder compressor;
+
+    /**
+     * Create a stream that coalesces each fix epoch into a single datagram, up to
+     * {@link #MAX_DATAGRAM_SIZE} bytes. gpsd accepts multiple CRLF terminated sentences in a
+     * single datagram.
+     *
+     * @param  addresses           destination addresses
+     * @param  flushDeadlineMillis maximum time a sentence is held waiting for the rest of its
+     *                             epoch, or 0 to send sentences as soon as they are queued
+     * @param  queueCapacity       size in bytes of the queue feeding the network thread
+     * @param  overflowPolicy      what to discard when the queue is full
+     */
+    public UdpSensorStream(SocketAddress[] addresses, long flushDeadlineMillis, int queueCapacity,
+                    SentenceRingBuffer.OverflowPolicy overflowPolicy) throws IOException {
+        this(addresses, 0, flushDeadlineMillis, queueCapacity, overflowPolicy);
+    }
+
+    /**
+     * Create a stream that also sends binary sensor frames.
+     *
+     * @param  addresses           destination addresses, which must be resolved, possibly none
+     * @param  sensorPort          port receiving binary frames on each destination, or 0 for none
+     * @param  flushDeadlineMillis maximum time a sentence is held waiting for the rest of its
+     *                             epoch, or 0 to send sentences as soon as they are queued
+     * @param  queueCapacity       size in bytes of the queue feeding the network thread
+     * @param  overflowPolicy      what to discard when the queue is full
+     * @see    #setFrameQueue
+     */
+    public UdpSensorStream(SocketAddress[] addresses, int sensorPort, long flushDeadlineMillis, int queueCapacity,
+                           SentenceRingBuffer.OverflowPolicy overflowPolicy) throws IOException {
+        super("UdpSensorStream", flushDeadlineMillis, MAX_DATAGRAM_SIZE, queueCapacity, overflowPolicy);
+        destinations = openDestinations(addresses, sensorPort);
+        start();
+    }
+
+    private Destination[] openDestinations(SocketAddress[] addresses, int sensorPort) throws IOException {
+        Destination[] destinations = new Destination[addresses.length];
+        try {
+            for (int i = 0; i < addresses.length; i++)
+                destinations[i] = new Destination(addresses[i], sensorPort);
+        } catch (IOException e) {
+            close(destinations);
+            throw e;
+        }
+        return destinations;
+    }
+
+    /**
+     * Switch to new destinations without stopping the stream. Sentences queued or batched so far
+     * are sent to the previous destinations, and the following ones to the new destinations.
+     *
+     * @param  addresses  destination addresses, which must be resolved
+     * @param  sensorPort port receiving binary frames on each destination, or 0 for none
+     * @throws IOException if a destination couldn't be opened, in which case the previous ones
+     *                     are kept
+     */
+    public void setDestinations(SocketAddress[] addresses, int sensorPort) throws IOException {
+        Destination[] newDestinations = openDestinations(addresses, sensorPort);
+        reconfigure(() -> {
+            Destination[] previous = destinations;
+            destinations = newDestinations;
+            try {
+                close(previous);
+            } catch (IOException e) {
+                logger.warning(TAG, e.toString());
+            }
+            logger.info(TAG, "Switched to " + Arrays.toString(addresses));
+        });
+    }
+
+    /**
+     * Compress batches, for servers reached through a relay running
+     * {@link CompressedNmeaDecoder}, e.g. over metered links. Can be changed while running, in
+     * which case the batch gathered so far is sent as before, and the following ones as set.
+     *
+     * @param  compress true to compress batches, false to send plain sentences
+     */
+    public void setCompression(boolean compress) {
+        reconfigure(() -> {
+            CompressedNmeaEncoder previous = compressor;
+            if (compress == (previous != null))
+                return;
+            compressor = compress ? new CompressedNmeaEncoder(MAX_DATAGRAM_SIZE) : null;
+            // Its statistics are lost with it
+            if (previous != null)
+                logger.info(TAG, previous.getStatistics());
+            logger.info(TAG, compress ? "Compressing batches" : "Sending plain sentences");
+        });
+    }
+
+    /**
+     * Send time sentences given to {@link #sendTime} through a {@link TimeService}. Must be called
+     * before sentences are sent.
+     *
+     * @param  halTimestamps append a sentence with the HAL timestamp to each time sentence
+     */
+    public void setTimeService(boolean halTimestamps) {
+        timeService = new TimeService(this::transmitTime, halTimestamps);
+    }
+
+    /**
+     * Send a time sentence right away, if a time service is set.
+     *
+     * @return false if there's no time service, in which case the sentence should be sent with
+     * {@link #send}
+     */
+    @Override
+    public boolean sendTime(CharSequence sentence, long timestamp) {
+        TimeService timeService = this.timeService;
+        if (timeService == null)
+            return false;
+        timeService.offer(sentence, timestamp);
+        return true;
+    }
+
+    /**
+     * Send a time sentence to every destination. Called from the time service thread, the
+     * channels being shared with the network thread.
+     *
+     * @return false if no destination took the datagram, the socket buffers being full
+     */
+    private boolean transmitTime(ByteBuffer datagram) throws IOException {
+        Destination[] destinations = this.destinations;
+        if (destinations.length == 0)
+            throw new IOException("No destination");
+        IOException error = null;
+        boolean sent = false;
+        for (Destination destination : destinations) {
+            datagram.rewind();
+            try {
+                // Non-blocking channels write nothing if the socket buffer is full
+                if (destination.channel.write(datagram) > 0)
+                    sent = true;
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        if (!sent && error != null)
+            throw error;
+        return sent;
+    }
+
+    /**
+     * Send a batch to every destination, compressed once if compression is enabled. The batch is
+     * always taken whole, even if dropped for a destination.
+     *
+     * @throws IOException if sending failed for every destination, e.g. if there's no network,
+     *                     or if there are no destinations
+     */
+    @Override
+    void transmit(ByteBuffer data) throws IOException {
+        if (destinations.length == 0)
+            throw new IOException("No destination");
+        CompressedNmeaEncoder compressor = this.compressor;
+        ByteBuffer datagram = compressor != null ? compressor.encode(data) : data;
+        IOException error = null;
+        boolean sent = false;
+        for (Destination destination : destinations) {
+            IOException destinationError = destination.transmit(datagram);
+            if (destinationError == null)
+                sent = true;
+            else
+                error = destinationError;
+        }
+        data.position(data.limit());
+        if (!sent && error != null)
+            throw error;
+    }
+
+    /**
+     * Send a frame to the sensor port of every destination.
+     *
+     * @throws IOException if sending failed for every destination, or if no sensor port was set
+     */
+    @Override
+    void transmitFrame(ByteBuffer frame) throws IOException {
+        if (destinations.length == 0)
+            throw new IOException("No destination");
+        IOException error = null;
+        boolean sent = false;
+        for (Destination destination : destinations) {
+            if (destination.frameChannel == null)
+                throw new IOException("No sensor port");
+            frame.rewind();
+            try {
+                destination.frameChannel.write(frame);
+                sent = true;
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        if (!sent && error != null)
+            throw error;
+    }
+
+    @Override
+    void close() throws IOException {
+        close(destinations);
+    }
+
+    /**
+     * Stop the time service, if any, and then the network thread.
+     */
+    @Override
+    public void stop() {
+        TimeService timeService = this.timeService;
+        if (timeService != null)
+            timeService.stop();
+        super.stop();
+    }
+
+    public TimeService getTimeService() {
+        return timeService;
+    }
+
+    public CompressedNmeaEncoder getCompressor() {
+        return compressor;
+    }
+
+    private static void close(Destination[] destinations) throws IOException {
+        for (Destination destination : destinations) {
+            if (destination != null)
+                destination.close();
+        }
+    }
+
+    @Override
+    public String getStatistics() {
+        StringBuilder statistics = new StringBuilder(super.getStatistics());
+        for (Destination destination : destinations) {
+            statistics.append(String.format(Locale.US, "\n%s: %d packets sent, %d dropped, %d send errors",
+                    destination.address, destination.packetsSent, destination.packetsDropped, destination.sendErrors));
+        }
+        CompressedNmeaEncoder compressor = this.compressor;
+        if (compressor != null)
+            statistics.append('\n').append(compressor.getStatistics());
+        TimeService timeService = this.timeService;
+        if (timeService != null)
+            statistics.append('\n').append(timeService.getStatistics());
+        return statistics.toString();
+    }
+}
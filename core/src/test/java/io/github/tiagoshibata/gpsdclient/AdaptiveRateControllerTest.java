@@ -0,0 +1,165 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Feeds the controller one epoch (GGA, GSA and RMC) per second of a simulated clock.
+ */
+public class AdaptiveRateControllerTest {
+    private static final long INTERVAL_SECONDS = 5;
+    private static final double MOVING_KNOTS = 5;
+    private static final double STOPPED_KNOTS = 0.2;
+    private static final double GOOD_HDOP = 0.8;
+    // Epochs of slow fixes after the first one before the receiver is considered stationary
+    private static final int STOP_EPOCHS = (int)TimeUnit.NANOSECONDS.toSeconds(AdaptiveRateController.STOP_DELAY_NANOS);
+    private static final long START_NANOS = 1000000000000L;
+
+    private final AdaptiveRateController controller = new AdaptiveRateController(TimeUnit.SECONDS.toMillis(INTERVAL_SECONDS));
+    private final NmeaScanner scanner = new NmeaScanner();
+    private int second;
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveInterval() {
+        new AdaptiveRateController(0);
+    }
+
+    @Test
+    public void forwardsEveryEpochWhileMoving() {
+        for (int i = 0; i < 30; i++)
+            assertForwarded(epoch(MOVING_KNOTS, GOOD_HDOP, '1', 'A'));
+        assertFalse(controller.isStationary());
+        assertEquals(30, controller.getEpochsForwarded());
+        assertEquals(0, controller.getEpochsSuppressed());
+    }
+
+    @Test
+    public void forwardsOneEpochPerIntervalOnceStopped() {
+        stop();
+        assertEquals(1, controller.getStops());
+        // The epoch that detected the stop was already forwarded
+        List<Integer> forwarded = new ArrayList<>();
+        for (int i = 1; i <= 20; i++) {
+            boolean[] accepted = epoch(STOPPED_KNOTS, GOOD_HDOP, '1', 'A');
+            if (accepted[0])
+                forwarded.add(i);
+            // Whole epochs are forwarded or suppressed
+            assertArrayEquals(new boolean[] {accepted[0], accepted[0], accepted[0]}, accepted);
+        }
+        assertEquals(Arrays.asList(5, 10, 15, 20), forwarded);
+        assertEquals(16, controller.getEpochsSuppressed());
+    }
+
+    @Test
+    public void doesNotStopBeforeTheStopDelay() {
+        for (int i = 0; i < STOP_EPOCHS; i++)
+            assertForwarded(epoch(STOPPED_KNOTS, GOOD_HDOP, '1', 'A'));
+        assertFalse(controller.isStationary());
+        assertForwarded(epoch(STOPPED_KNOTS, GOOD_HDOP, '1', 'A'));
+        assertTrue(controller.isStationary());
+    }
+
+    @Test
+    public void resumesWithinTheEpochThatReportsMotion() {
+        stop();
+        boolean[] accepted = epoch(MOVING_KNOTS, GOOD_HDOP, '1', 'A');
+        // GGA and GSA were suppressed before the RMC reported motion
+        assertArrayEquals(new boolean[] {false, false, true}, accepted);
+        assertFalse(controller.isStationary());
+        assertEquals(1, controller.getStarts());
+        assertEquals(0, controller.getEpochsSuppressed());
+        assertForwarded(epoch(MOVING_KNOTS, GOOD_HDOP, '1', 'A'));
+    }
+
+    @Test
+    public void speedsBetweenThresholdsKeepTheState() {
+        double between = (AdaptiveRateController.STOP_SPEED_KNOTS + AdaptiveRateController.START_SPEED_KNOTS) / 2;
+        // Restarts the stop delay while moving
+        for (int i = 0; i < 3 * STOP_EPOCHS; i++)
+            epoch(i % 2 == 0 ? STOPPED_KNOTS : between, GOOD_HDOP, '1', 'A');
+        assertFalse(controller.isStationary());
+
+        stop();
+        for (int i = 0; i < 20; i++)
+            epoch(between, GOOD_HDOP, '1', 'A');
+        assertTrue(controller.isStationary());
+    }
+
+    @Test
+    public void unreliableFixesDoNotChangeTheState() {
+        // Neither stop nor restart the delay when stopped with a poor HDOP, no fix or a void RMC
+        for (int i = 0; i < 3 * STOP_EPOCHS; i++)
+            epoch(STOPPED_KNOTS, AdaptiveRateController.MAX_HDOP + 1, '1', 'A');
+        for (int i = 0; i < 3 * STOP_EPOCHS; i++)
+            epoch(STOPPED_KNOTS, GOOD_HDOP, '0', 'A');
+        for (int i = 0; i < 3 * STOP_EPOCHS; i++)
+            epoch(STOPPED_KNOTS, GOOD_HDOP, '1', 'V');
+        assertFalse(controller.isStationary());
+
+        stop();
+        for (int i = 0; i < 20; i++) {
+            epoch(MOVING_KNOTS, AdaptiveRateController.MAX_HDOP + 1, '1', 'A');
+            epoch(MOVING_KNOTS, GOOD_HDOP, '0', 'A');
+            epoch(MOVING_KNOTS, GOOD_HDOP, '1', 'V');
+        }
+        assertTrue(controller.isStationary());
+        assertEquals(0, controller.getStarts());
+    }
+
+    @Test
+    public void unreliableFixRestartsTheStopDelay() {
+        for (int i = 0; i < STOP_EPOCHS; i++)
+            epoch(STOPPED_KNOTS, GOOD_HDOP, '1', 'A');
+        epoch(STOPPED_KNOTS, AdaptiveRateController.MAX_HDOP + 1, '1', 'A');
+        for (int i = 0; i < STOP_EPOCHS; i++)
+            epoch(STOPPED_KNOTS, GOOD_HDOP, '1', 'A');
+        assertFalse(controller.isStationary());
+        epoch(STOPPED_KNOTS, GOOD_HDOP, '1', 'A');
+        assertTrue(controller.isStationary());
+    }
+
+    private void stop() {
+        for (int i = 0; i <= STOP_EPOCHS; i++)
+            epoch(STOPPED_KNOTS, GOOD_HDOP, '1', 'A');
+        assertTrue(controller.isStationary());
+    }
+
+    /**
+     * Feed the next epoch, a second after the previous one.
+     *
+     * @return whether each of its GGA, GSA and RMC sentences was forwarded
+     */
+    private boolean[] epoch(double knots, double hdop, char quality, char status) {
+        long now = START_NANOS + TimeUnit.SECONDS.toNanos(second);
+        String time = String.format(Locale.US, "%02d%02d%02d.00", second / 3600 % 24, second / 60 % 60, second % 60);
+        second++;
+        return new boolean[] {
+                accept(String.format(Locale.US, "GPGGA,%s,4717.11437,N,00833.91522,E,%c,08,%.1f,499.6,M,48.0,M,,", time, quality, hdop), now),
+                accept("GPGSA,A,3,04,05,09,12,24,,,,,,,,2.5,1.3,2.1", now),
+                accept(String.format(Locale.US, "GPRMC,%s,%c,4717.11437,N,00833.91522,E,%.1f,0.0,121102,,,A", time, status, knots), now),
+        };
+    }
+
+    private boolean accept(String body, long now) {
+        int checksum = 0;
+        for (int i = 0; i < body.length(); i++)
+            checksum ^= body.charAt(i);
+        String sentence = String.format(Locale.US, "$%s*%02X", body, checksum);
+        assertTrue(sentence, scanner.scan(sentence));
+        return controller.accept(scanner, now);
+    }
+
+    private static void assertForwarded(boolean[] accepted) {
+        assertArrayEquals(new boolean[] {true, true, true}, accepted);
+    }
+}
@@ -0,0 +1,182 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs an {@link AddressResolver} against a stub {@link HostResolver} whose answers, TTLs and
+ * latency are set by each test.
+ */
+public class AddressResolverTest {
+    private static final String HOST = "gpsd.example";
+    private static final int PORT = 2947;
+    private static final long TTL_MS = 200;
+    private static final long LONG_TTL_MS = TimeUnit.MINUTES.toMillis(10);
+    private static final long REPORT_TIMEOUT_MS = 5000;
+    // Long enough for an unexpected report to show up
+    private static final long QUIET_MS = 3 * TTL_MS;
+
+    private static class StubResolver implements HostResolver {
+        private final Map<String, InetAddress> addresses = new ConcurrentHashMap<>();
+        private final Map<String, CountDownLatch> blocked = new ConcurrentHashMap<>();
+        private final BlockingQueue<String> lookups = new LinkedBlockingQueue<>();
+        private volatile long ttlMillis = LONG_TTL_MS;
+
+        @Override
+        public Result resolve(String host) throws UnknownHostException {
+            lookups.add(host);
+            CountDownLatch latch = blocked.get(host);
+            if (latch != null) {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            InetAddress address = addresses.get(host);
+            if (address == null)
+                throw new UnknownHostException(host);
+            return new Result(new InetAddress[] {address}, ttlMillis);
+        }
+
+        String awaitLookup() throws InterruptedException {
+            String host = lookups.poll(REPORT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            assertNotNull("Not resolved", host);
+            return host;
+        }
+    }
+
+    private final StubResolver stub = new StubResolver();
+    private final AddressResolver resolver = new AddressResolver(stub);
+    private final BlockingQueue<InetSocketAddress[]> reports = new LinkedBlockingQueue<>();
+
+    @After
+    public void tearDown() {
+        for (CountDownLatch latch : stub.blocked.values())
+            latch.countDown();
+        resolver.stop();
+    }
+
+    @Test
+    public void resolvesAgainOnceTheTtlExpires() throws Exception {
+        stub.ttlMillis = TTL_MS;
+        stub.addresses.put(HOST, address(1));
+        setTargets(HOST);
+        assertReported(address(1));
+        assertEquals(HOST, stub.awaitLookup());
+
+        // Unchanged addresses are resolved again, but not reported
+        long start = System.nanoTime();
+        assertEquals(HOST, stub.awaitLookup());
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(TTL_MS / 2));
+        assertNull(reports.poll(QUIET_MS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void reportsChangedAddresses() throws Exception {
+        stub.ttlMillis = TTL_MS;
+        stub.addresses.put(HOST, address(1));
+        setTargets(HOST);
+        assertReported(address(1));
+
+        stub.addresses.put(HOST, address(2));
+        assertReported(address(2));
+        assertArrayEquals(new InetSocketAddress[] {new InetSocketAddress(address(2), PORT)}, resolver.getResolved());
+    }
+
+    @Test
+    public void cachedAddressesAreReusedUntilTheTtlExpires() throws Exception {
+        stub.addresses.put(HOST, address(1));
+        setTargets(HOST);
+        assertReported(address(1));
+        assertEquals(HOST, stub.awaitLookup());
+
+        // A new list of servers is reported right away from the cache
+        setTargets(HOST);
+        assertReported(address(1));
+        assertNull(stub.lookups.poll(QUIET_MS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void networkChangeReportsUnchangedAddresses() throws Exception {
+        stub.addresses.put(HOST, address(1));
+        setTargets(HOST);
+        assertReported(address(1));
+        assertEquals(HOST, stub.awaitLookup());
+
+        // A refresh resolves again, but only reports changes
+        resolver.refresh();
+        assertEquals(HOST, stub.awaitLookup());
+        assertNull(reports.poll(QUIET_MS, TimeUnit.MILLISECONDS));
+
+        // Sockets opened through the previous network must be opened again
+        resolver.onNetworkChanged();
+        assertReported(address(1));
+    }
+
+    @Test
+    public void failuresKeepTheLastAddresses() throws Exception {
+        stub.addresses.put(HOST, address(1));
+        setTargets(HOST);
+        assertReported(address(1));
+        assertEquals(HOST, stub.awaitLookup());
+
+        stub.addresses.remove(HOST);
+        resolver.refresh();
+        assertEquals(HOST, stub.awaitLookup());
+        assertNull(reports.poll(QUIET_MS, TimeUnit.MILLISECONDS));
+        assertArrayEquals(new InetSocketAddress[] {new InetSocketAddress(address(1), PORT)}, resolver.getResolved());
+    }
+
+    @Test
+    public void replacedTargetsAreNotReported() throws Exception {
+        String stale = "stale.example";
+        CountDownLatch latch = new CountDownLatch(1);
+        stub.blocked.put(stale, latch);
+        stub.addresses.put(stale, address(1));
+        stub.addresses.put(HOST, address(2));
+        BlockingQueue<InetSocketAddress[]> staleReports = new LinkedBlockingQueue<>();
+        resolver.setTargets(new String[] {stale}, new int[] {PORT}, staleReports::add);
+        assertEquals(stale, stub.awaitLookup());
+
+        // Replaced while the stale host is still being resolved
+        setTargets(HOST);
+        latch.countDown();
+        assertReported(address(2));
+        assertNull(staleReports.poll(QUIET_MS, TimeUnit.MILLISECONDS));
+        assertNull(reports.poll(0, TimeUnit.MILLISECONDS));
+    }
+
+    private void setTargets(String host) {
+        resolver.setTargets(new String[] {host}, new int[] {PORT}, reports::add);
+    }
+
+    private void assertReported(InetAddress address) throws InterruptedException {
+        InetSocketAddress[] addresses = reports.poll(REPORT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        assertNotNull("Not reported", addresses);
+        assertArrayEquals(new InetSocketAddress[] {new InetSocketAddress(address, PORT)}, addresses);
+    }
+
+    /**
+     * @return an address in the documentation range, without a DNS query
+     */
+    private static InetAddress address(int host) throws UnknownHostException {
+        return InetAddress.getByAddress(HOST, new byte[] {(byte)192, 0, 2, (byte)host});
+    }
+}
@@ -0,0 +1,97 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+    // 5 bits of sub-bucket precision
+    private static final double MAX_RELATIVE_ERROR = 1 / 32.0;
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(50));
+        assertEquals(0, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        for (int value = 1; value <= 50; value++)
+            histogram.record(value);
+        assertEquals(50, histogram.getCount());
+        assertEquals(1, histogram.getPercentile(0));
+        assertEquals(25, histogram.getPercentile(50));
+        assertEquals(50, histogram.getPercentile(99));
+        assertEquals(50, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void negativeValuesCountAsZero() {
+        histogram.record(-1000);
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void percentileIsBucketUpperBoundWithinPrecision() {
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            long value = (long)Math.pow(10, 2 + random.nextDouble() * 16);
+            histogram.reset();
+            histogram.record(value);
+            long percentile = histogram.getPercentile(50);
+            assertTrue(value + " reported as " + percentile,
+                    percentile >= value && percentile <= value * (1 + MAX_RELATIVE_ERROR));
+        }
+        histogram.reset();
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void percentilesOfUniformLatencies() {
+        // 1 to 100000 us
+        for (long micros = 1; micros <= 100000; micros++)
+            histogram.record(micros * 1000);
+        assertEquals(100000, histogram.getCount());
+        assertPercentile(50000000, histogram.getPercentile(50));
+        assertPercentile(99000000, histogram.getPercentile(99));
+        assertPercentile(99900000, histogram.getPercentile(99.9));
+        assertPercentile(100000000, histogram.getPercentile(100));
+        assertEquals("p50 50.33 ms, p99 100.66 ms, p99.9 100.66 ms (100000 samples)", histogram.getSummary());
+    }
+
+    @Test
+    public void resetClearsCounts() {
+        histogram.record(1000);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(99));
+    }
+
+    @Test
+    public void concurrentRecordingKeepsEveryValue() throws InterruptedException {
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int value = 0; value < 100000; value++)
+                    histogram.record(value);
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        assertEquals(4 * 100000, histogram.getCount());
+    }
+
+    private static void assertPercentile(long expected, long actual) {
+        assertTrue(expected + " reported as " + actual,
+                actual >= expected && actual <= expected * (1 + MAX_RELATIVE_ERROR));
+    }
+}
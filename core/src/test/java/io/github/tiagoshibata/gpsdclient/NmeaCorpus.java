@@ -0,0 +1,50 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sentences of nmea-corpus.txt, each with the result expected from {@link NmeaScanner}.
+ */
+class NmeaCorpus {
+    static class Entry {
+        final NmeaScanner.Result expected;
+        final String sentence;
+
+        private Entry(NmeaScanner.Result expected, String sentence) {
+            this.expected = expected;
+            this.sentence = sentence;
+        }
+    }
+
+    static List<Entry> load() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        try (InputStream stream = NmeaCorpus.class.getResourceAsStream("/nmea-corpus.txt");
+             BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.ISO_8859_1))) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+                int separator = line.indexOf('\t');
+                entries.add(new Entry(NmeaScanner.Result.valueOf(line.substring(0, separator)), line.substring(separator + 1)));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @return valid sentences, in corpus order
+     */
+    static List<String> loadValid() throws IOException {
+        List<String> sentences = new ArrayList<>();
+        for (Entry entry : load()) {
+            if (entry.expected == NmeaScanner.Result.VALID)
+                sentences.add(entry.sentence);
+        }
+        return sentences;
+    }
+}
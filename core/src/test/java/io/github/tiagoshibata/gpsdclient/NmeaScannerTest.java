@@ -0,0 +1,79 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NmeaScannerTest {
+    private static final int TYPE_GGA = 'G' << 16 | 'G' << 8 | 'A';
+    private static final int TALKER_GN = 'G' << 8 | 'N';
+    private static final double DELTA = 1e-9;
+    private final NmeaScanner scanner = new NmeaScanner();
+
+    @Test
+    public void scansCorpus() throws IOException {
+        List<NmeaCorpus.Entry> corpus = NmeaCorpus.load();
+        long valid = 0;
+        for (NmeaCorpus.Entry entry : corpus) {
+            String sentence = entry.sentence;
+            assertEquals(sentence, entry.expected == NmeaScanner.Result.VALID, scanner.scan(sentence));
+            assertEquals(sentence, entry.expected, scanner.getResult());
+            scanner.scan(sentence + "\r\n");
+            assertEquals(sentence + " with terminator", entry.expected, scanner.getResult());
+            byte[] bytes = (sentence + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+            scanner.scan(bytes, bytes.length);
+            assertEquals(sentence + " from bytes", entry.expected, scanner.getResult());
+            if (entry.expected == NmeaScanner.Result.VALID)
+                valid++;
+        }
+        assertEquals(3 * valid, scanner.getValidSentences());
+        assertEquals(3 * (corpus.size() - valid), scanner.getInvalidSentences());
+    }
+
+    @Test
+    public void readsFields() {
+        assertTrue(scanner.scan("$GNGGA,083559.00,4717.11437,N,00833.91522,E,1,12,0.8,499.6,M,48.0,M,,*75"));
+        assertEquals(TYPE_GGA, scanner.getType());
+        assertEquals(TALKER_GN, scanner.getTalker());
+        assertFalse(scanner.isProprietary());
+        assertEquals(83559, scanner.getTime(), DELTA);
+        assertEquals('1', scanner.getCharField(6));
+        assertEquals(0.8, scanner.getDecimalField(8), DELTA);
+        assertEquals(4717.11437, scanner.getDecimalField(2), DELTA);
+        // Empty and missing fields
+        assertEquals(0, scanner.getCharField(13));
+        assertTrue(Double.isNaN(scanner.getDecimalField(14)));
+        assertTrue(Double.isNaN(scanner.getDecimalField(20)));
+    }
+
+    @Test
+    public void findsTimeFields() {
+        assertTrue(scanner.scan("$GNGLL,4717.11437,N,00833.91522,E,083559.00,A,A*75"));
+        assertEquals(83559, scanner.getTime(), DELTA);
+        assertTrue(scanner.scan("$GNZDA,083559.00,09,12,2002,00,00*70"));
+        assertEquals(83559, scanner.getTime(), DELTA);
+        assertTrue(scanner.scan("$GNGSA,A,3,23,29,07,08,09,18,26,,,,,,1.94,0.80,1.77,1*05"));
+        assertFalse(scanner.hasTime());
+        // Proprietary sentences aren't parsed, even if they carry a time
+        assertTrue(scanner.scan("$PUBX,00,083559.00,4717.11437,N,00833.91522,E,546.589,G3,2.1,2.0,0.007,77.52,0.007,,0.92,1.19,0.77,9,0,0*5C"));
+        assertTrue(scanner.isProprietary());
+        assertEquals(0, scanner.getType());
+        assertFalse(scanner.hasTime());
+    }
+
+    @Test
+    public void readsFixWithoutPosition() {
+        assertTrue(scanner.scan("$GPGGA,000001.00,,,,,0,00,99.99,,,,,,*67"));
+        assertEquals('0', scanner.getCharField(6));
+        assertEquals(99.99, scanner.getDecimalField(8), DELTA);
+        assertTrue(Double.isNaN(scanner.getDecimalField(2)));
+        assertTrue(scanner.scan("$GPRMC,000001.00,V,,,,,,,091202,,,N,V*0E"));
+        assertEquals('V', scanner.getCharField(2));
+    }
+}
@@ -0,0 +1,145 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Streams motion sensor samples at their highest rate through the same path as the app:
+ * {@link SensorFrameEncoder}, {@link FrameQueue}, {@link UdpSensorStream} and loopback UDP, and
+ * decodes them with {@link SensorFrameDecoder}.
+ */
+public class SensorFrameThroughputTest {
+    // Same pool as MotionSensorCapture
+    private static final int FRAMES = 64;
+    private static final int RATE_HZ = 400;
+    private static final int SECONDS = 3;
+    private static final int SAMPLES = RATE_HZ * SECONDS;
+    // Samples are delivered in batches, like a sensor with a short report latency
+    private static final int BATCH = 4;
+    private static final long PERIOD_NANOS = TimeUnit.SECONDS.toNanos(1) / RATE_HZ;
+    private static final long START_NANOS = 123456789012L;
+    // A gap longer than a frame's span, as when a sensor pauses
+    private static final int GAP_SAMPLE = SAMPLES / 2;
+    private static final long GAP_NANOS = 3 * SensorFrameEncoder.MAX_FRAME_SPAN_NANOS;
+    private static final int RECEIVE_BUFFER_SIZE = 1024 * 1024;
+    private static final long DELIVERY_TIMEOUT_MS = 10000;
+    private static final int[] TYPES = {
+            SensorFrameEncoder.TYPE_ACCELEROMETER,
+            SensorFrameEncoder.TYPE_GYROSCOPE,
+            SensorFrameEncoder.TYPE_PRESSURE,
+    };
+    private static final int[] AXES = {3, 3, 1};
+
+    private DatagramSocket nmeaSocket;
+    private DatagramSocket frameSocket;
+    private UdpSensorStream stream;
+    private final BlockingQueue<ByteBuffer> datagrams = new LinkedBlockingQueue<>();
+
+    @After
+    public void tearDown() {
+        if (stream != null)
+            stream.stop();
+        if (nmeaSocket != null)
+            nmeaSocket.close();
+        if (frameSocket != null)
+            frameSocket.close();
+    }
+
+    @Test
+    public void deliversEverySample() throws IOException, InterruptedException {
+        nmeaSocket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        frameSocket = new DatagramSocket(null);
+        frameSocket.setReceiveBufferSize(RECEIVE_BUFFER_SIZE);
+        frameSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        Thread receiver = new Thread(this::receive, "FrameReceiver");
+        receiver.setDaemon(true);
+        receiver.start();
+
+        FrameQueue frames = new FrameQueue(FRAMES, UdpSensorStream.MAX_DATAGRAM_SIZE);
+        SensorFrameEncoder[] encoders = new SensorFrameEncoder[TYPES.length];
+        for (int i = 0; i < TYPES.length; i++)
+            encoders[i] = new SensorFrameEncoder(frames, TYPES[i], AXES[i]);
+        stream = new UdpSensorStream(new SocketAddress[] {nmeaSocket.getLocalSocketAddress()},
+                frameSocket.getLocalPort(), 0, 64 * 1024, SentenceRingBuffer.OverflowPolicy.DROP_NEWEST);
+        stream.setFrameQueue(frames);
+
+        float[] values = new float[3];
+        for (int sample = 0; sample < SAMPLES; sample++) {
+            for (int i = 0; i < TYPES.length; i++) {
+                fill(values, TYPES[i], sample);
+                encoders[i].add(timestamp(sample), values);
+            }
+            if (sample % BATCH == BATCH - 1)
+                Thread.sleep(TimeUnit.NANOSECONDS.toMillis(BATCH * PERIOD_NANOS));
+        }
+        for (SensorFrameEncoder encoder : encoders)
+            encoder.flush();
+
+        SensorFrameDecoder decoder = new SensorFrameDecoder();
+        int[] next = new int[256];
+        float[] expected = new float[3];
+        while (decoder.getSamples() < (long)SAMPLES * TYPES.length) {
+            ByteBuffer datagram = datagrams.poll(DELIVERY_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            assertNotNull(decoder.getStatistics(), datagram);
+            decoder.decode(datagram, (type, timestampNanos, sampleValues, axes) -> {
+                int sample = next[type]++;
+                assertEquals("Sensor " + type + " sample " + sample, timestamp(sample), timestampNanos);
+                fill(expected, type, sample);
+                assertEquals(Arrays.toString(Arrays.copyOf(expected, axes)), Arrays.toString(Arrays.copyOf(sampleValues, axes)));
+            });
+        }
+
+        for (SensorFrameEncoder encoder : encoders) {
+            assertEquals(SAMPLES, encoder.getSamplesEncoded());
+            assertEquals(0, encoder.getSamplesDropped());
+        }
+        assertEquals(0, frames.getExhausted());
+        assertEquals(decoder.getStatistics(), (long)SAMPLES * TYPES.length, decoder.getSamples());
+        assertEquals(decoder.getStatistics(), 0, decoder.getLostFrames());
+        assertEquals(decoder.getStatistics(), 0, decoder.getReorderedFrames());
+        assertEquals(decoder.getStatistics(), 0, decoder.getMalformedFrames());
+        for (int type : TYPES)
+            assertEquals(SAMPLES, next[type]);
+    }
+
+    private void receive() {
+        DatagramPacket packet = new DatagramPacket(new byte[UdpSensorStream.MAX_DATAGRAM_SIZE], UdpSensorStream.MAX_DATAGRAM_SIZE);
+        try {
+            while (true) {
+                frameSocket.receive(packet);
+                datagrams.add(ByteBuffer.wrap(Arrays.copyOf(packet.getData(), packet.getLength())));
+            }
+        } catch (IOException e) {
+            // Closed by tearDown()
+        }
+    }
+
+    /**
+     * Irregular timestamps, to check that deltas are reconstructed exactly rather than assumed
+     * from the rate.
+     */
+    private static long timestamp(int sample) {
+        long timestamp = START_NANOS + sample * PERIOD_NANOS + (sample * 7919L) % 100000;
+        return sample >= GAP_SAMPLE ? timestamp + GAP_NANOS : timestamp;
+    }
+
+    private static void fill(float[] values, int type, int sample) {
+        for (int axis = 0; axis < values.length; axis++)
+            values[axis] = type * 1000 + sample + axis / 4f;
+    }
+}
@@ -0,0 +1,101 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class SentenceFilterTest {
+    // First sentence after the corpus' leading epoch
+    private static final String AFTER_EPOCH = "$GPGGA,000001.00,";
+    private List<String> corpus;
+    private List<String> epoch;
+
+    @Before
+    public void setUp() throws IOException {
+        corpus = NmeaCorpus.loadValid();
+        epoch = new ArrayList<>();
+        for (String sentence : corpus) {
+            if (sentence.startsWith(AFTER_EPOCH))
+                break;
+            epoch.add(sentence);
+        }
+    }
+
+    @Test
+    public void emptyConfigurationAllowsEverything() {
+        assertEquals(corpus, accepted(new SentenceFilter(" , "), corpus));
+    }
+
+    @Test
+    public void allowRulesBlockEverythingElse() {
+        assertEquals(Arrays.asList(
+                "$GNRMC,083559.00,A,4717.11437,N,00833.91522,E,0.004,77.52,091202,,,A,V*33",
+                "$GNGGA,083559.00,4717.11437,N,00833.91522,E,1,12,0.8,499.6,M,48.0,M,,*75",
+                "$GPGGA,000001.00,,,,,0,00,99.99,,,,,,*67",
+                "$GPRMC,000001.00,V,,,,,,,091202,,,N,V*0E"),
+                accepted(new SentenceFilter("gga, RMC"), corpus));
+    }
+
+    @Test
+    public void blockRulesMatchTypesAndProprietaryPrefixes() {
+        List<String> expected = new ArrayList<>();
+        for (String sentence : corpus) {
+            if (!sentence.startsWith("$P") && !sentence.startsWith("GSV", 3))
+                expected.add(sentence);
+        }
+        assertEquals(expected, accepted(new SentenceFilter("*,-P,-GSV"), corpus));
+    }
+
+    @Test
+    public void talkerRulesOnlyMatchThatTalker() {
+        List<String> expected = new ArrayList<>();
+        for (String sentence : corpus) {
+            if (sentence.startsWith("$GPGSV"))
+                expected.add(sentence);
+        }
+        assertEquals(expected, accepted(new SentenceFilter("GPGSV"), corpus));
+    }
+
+    @Test
+    public void decimationKeepsBurstsWhole() {
+        SentenceFilter filter = new SentenceFilter("*,GSV/10");
+        assertEquals(epoch, accepted(filter, epoch));
+        // The next epoch comes well within the interval
+        List<String> expected = new ArrayList<>();
+        for (String sentence : epoch) {
+            if (!sentence.startsWith("GSV", 3))
+                expected.add(sentence);
+        }
+        assertEquals(expected, accepted(filter, epoch));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMalformedInterval() {
+        new SentenceFilter("GGA/x");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDecimatedBlockRule() {
+        new SentenceFilter("-GGA/1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsRuleWithoutPattern() {
+        new SentenceFilter("GGA,/1");
+    }
+
+    private static List<String> accepted(SentenceFilter filter, List<String> sentences) {
+        List<String> accepted = new ArrayList<>();
+        for (String sentence : sentences) {
+            if (filter.accept(sentence))
+                accepted.add(sentence);
+        }
+        return accepted;
+    }
+}
@@ -0,0 +1,182 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SentenceJournalTest {
+    private static final int CAPACITY = 100;
+    // Offset of the head position in the file header
+    private static final int HEAD_OFFSET = 8;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+    private final ByteBuffer buffer = ByteBuffer.allocate(256);
+    private File file;
+    private SentenceJournal journal;
+
+    @After
+    public void tearDown() throws IOException {
+        if (journal != null)
+            journal.close();
+    }
+
+    @Test
+    public void replaysRecordsInOrder() throws IOException {
+        open(CAPACITY);
+        assertEquals(-1, journal.peek(buffer));
+        append("first");
+        append("second");
+        assertEquals(2 + 5 + 2 + 6, journal.getStoredBytes());
+        assertEquals("first", peek());
+        // Peeking doesn't remove
+        assertEquals("first", peek());
+        journal.remove();
+        assertEquals("second", peek());
+        journal.remove();
+        assertTrue(journal.isEmpty());
+        assertEquals(-1, journal.peek(buffer));
+    }
+
+    @Test
+    public void recordsWrapAroundTheEnd() throws IOException {
+        open(CAPACITY);
+        // 30 byte records don't divide the capacity, so they straddle the end of the ring
+        for (int i = 0; i < 20; i++) {
+            append(record(i, 28));
+            assertTrue(journal.getStoredBytes() <= CAPACITY);
+        }
+        // Three fit, the others were evicted oldest first
+        assertEquals(17, journal.getDroppedRecords());
+        for (int i = 17; i < 20; i++) {
+            assertEquals(record(i, 28), peek());
+            journal.remove();
+        }
+        assertTrue(journal.isEmpty());
+    }
+
+    @Test
+    public void dropsRecordsLargerThanTheJournal() throws IOException {
+        open(CAPACITY);
+        append("kept");
+        append(record(0, CAPACITY - 1));
+        assertEquals(1, journal.getDroppedRecords());
+        assertEquals("kept", peek());
+    }
+
+    @Test
+    public void trimOldestKeepsTheRestOfTheRecord() throws IOException {
+        open(CAPACITY);
+        append("ABCDEFGHIJ");
+        append("next");
+        journal.trimOldest(4);
+        assertEquals("EFGHIJ", peek());
+        journal.trimOldest(1);
+        assertEquals("FGHIJ", peek());
+        // Replaying all of it removes it
+        journal.trimOldest(5);
+        assertEquals("next", peek());
+        journal.trimOldest(0);
+        assertEquals("next", peek());
+        journal.trimOldest(100);
+        assertTrue(journal.isEmpty());
+        journal.trimOldest(1);
+        assertTrue(journal.isEmpty());
+    }
+
+    @Test
+    public void trimOldestAcrossTheEnd() throws IOException {
+        open(CAPACITY);
+        for (int i = 0; i < 3; i++)
+            append(record(i, 28));
+        journal.remove();
+        journal.remove();
+        // Records take 30 bytes, so the next one spans 90 to 120, straddling the end of the ring,
+        // and trimming it moves its header past the end
+        append(record(3, 28));
+        journal.remove();
+        assertEquals(record(3, 28), peek());
+        journal.trimOldest(12);
+        assertEquals(record(3, 28).substring(12), peek());
+        reopen(CAPACITY);
+        assertEquals(record(3, 28).substring(12), peek());
+    }
+
+    @Test
+    public void reopeningKeepsRecords() throws IOException {
+        open(CAPACITY);
+        for (int i = 0; i < 5; i++)
+            append(record(i, 28));
+        journal.trimOldest(3);
+        reopen(CAPACITY);
+        assertEquals(record(2, 28).substring(3), peek());
+        journal.remove();
+        assertEquals(record(3, 28), peek());
+        journal.remove();
+        assertEquals(record(4, 28), peek());
+    }
+
+    @Test
+    public void reopeningWithAnotherCapacityDiscardsRecords() throws IOException {
+        open(CAPACITY);
+        append("stale");
+        reopen(2 * CAPACITY);
+        assertTrue(journal.isEmpty());
+    }
+
+    @Test
+    public void inconsistentHeaderDiscardsRecords() throws IOException {
+        open(CAPACITY);
+        append("first");
+        append("second");
+        journal.close();
+        journal = null;
+        // A head in the middle of a record, as if the file was damaged
+        try (RandomAccessFile raw = new RandomAccessFile(file, "rw")) {
+            raw.seek(HEAD_OFFSET);
+            raw.writeLong(10);
+        }
+        reopen(CAPACITY);
+        assertTrue(journal.isEmpty());
+        append("third");
+        assertEquals("third", peek());
+    }
+
+    private void open(int capacity) throws IOException {
+        file = new File(folder.getRoot(), "journal");
+        journal = new SentenceJournal(file, capacity);
+    }
+
+    private void reopen(int capacity) throws IOException {
+        if (journal != null)
+            journal.close();
+        journal = new SentenceJournal(file, capacity);
+    }
+
+    private void append(String batch) {
+        journal.append(ByteBuffer.wrap(batch.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    private String peek() {
+        int length = journal.peek(buffer);
+        assertEquals(buffer.remaining(), length);
+        return StandardCharsets.US_ASCII.decode(buffer).toString();
+    }
+
+    private static String record(int sequence, int length) {
+        StringBuilder record = new StringBuilder().append(sequence).append(':');
+        while (record.length() < length)
+            record.append((char)('a' + record.length() % 26));
+        return record.toString();
+    }
+}
@@ -0,0 +1,168 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SentenceLanesTest {
+    private static final int BUDGET = 1024;
+    private static final int LENGTH = 40;
+    // Sentences of LENGTH that fit in the budget
+    private static final int FITTING = BUDGET / SentenceRingBuffer.getRecordSize(LENGTH);
+
+    private final byte[] buffer = new byte[256];
+
+    @Test
+    public void classifiesByAddress() {
+        for (String type : new String[] {"GGA", "RMC", "GNS", "GLL", "ZDA"})
+            assertEquals(type, SentenceLanes.POSITION, SentenceLanes.classify("$GN" + type + ",1*00"));
+        for (String type : new String[] {"GSA", "VTG", "GST", "TXT"})
+            assertEquals(type, SentenceLanes.STATUS, SentenceLanes.classify("$GP" + type + ",1*00"));
+        for (String type : new String[] {"GSV", "GRS"})
+            assertEquals(type, SentenceLanes.SATELLITES, SentenceLanes.classify("$GL" + type + ",1*00"));
+        assertEquals(SentenceLanes.PROPRIETARY, SentenceLanes.classify("$PUBX,00*00"));
+        assertEquals(SentenceLanes.STATUS, SentenceLanes.classify("$GP"));
+    }
+
+    @Test
+    public void keepsArrivalOrderAcrossLanes() {
+        SentenceLanes lanes = lanes(SentenceRingBuffer.OverflowPolicy.DROP_NEWEST);
+        List<String> offered = Arrays.asList(sentence("GPGGA", 0), sentence("GPGSV", 1), sentence("PUBX", 2),
+                sentence("GPGSA", 3), sentence("GPRMC", 4), sentence("GPGSV", 5));
+        for (String sentence : offered)
+            assertTrue(lanes.offer(sentence));
+        for (String sentence : offered) {
+            assertEquals(sentence, poll(lanes));
+            assertEquals(SentenceLanes.classify(sentence), lanes.getPolledLane());
+        }
+        assertEquals(-1, lanes.poll(buffer, 0));
+    }
+
+    @Test
+    public void shedsLowestPriorityOldestFirst() {
+        SentenceLanes lanes = lanes(SentenceRingBuffer.OverflowPolicy.DROP_NEWEST);
+        String[] types = {"PUBX", "GPGSV", "GPGSA", "GPGGA"};
+        for (int i = 0; i < FITTING; i++)
+            assertTrue(lanes.offer(sentence(types[i % types.length], i)));
+        int perLane = FITTING / types.length;
+
+        // Each position sheds one proprietary sentence, then satellites, then status
+        int sequence = FITTING;
+        int[] order = {SentenceLanes.PROPRIETARY, SentenceLanes.SATELLITES, SentenceLanes.STATUS};
+        for (int victim : order) {
+            for (int i = 0; i < perLane; i++) {
+                assertTrue(lanes.offer(sentence("GPGGA", sequence++)));
+                assertEquals(i + 1, lanes.getShed(victim));
+                assertEquals(0, lanes.getShed(SentenceLanes.POSITION));
+            }
+            assertEquals(0, lanes.getUsedBytes(victim));
+        }
+        // A position is only lost to other positions
+        assertFalse(lanes.offer(sentence("GPGGA", sequence)));
+        assertEquals(1, lanes.getShed(SentenceLanes.POSITION));
+        assertEquals(3 * perLane + 1, lanes.getDropped());
+        assertEquals(lanes.getCapacity() - BUDGET % SentenceRingBuffer.getRecordSize(LENGTH), lanes.getHighWaterMark());
+
+        // Only positions are left, oldest first
+        List<String> polled = new ArrayList<>();
+        for (String sentence = poll(lanes); sentence != null; sentence = poll(lanes))
+            polled.add(sentence);
+        assertEquals(FITTING, polled.size());
+        assertEquals(sentence("GPGGA", 3), polled.get(0));
+        assertEquals(sentence("GPGGA", sequence - 1), polled.get(polled.size() - 1));
+    }
+
+    @Test
+    public void lowerPriorityDoesNotShedPositions() {
+        for (SentenceRingBuffer.OverflowPolicy policy : SentenceRingBuffer.OverflowPolicy.values()) {
+            SentenceLanes lanes = lanes(policy);
+            for (int i = 0; i < FITTING; i++)
+                assertTrue(lanes.offer(sentence("GPRMC", i)));
+            assertFalse(policy.toString(), lanes.offer(sentence("GPGSV", FITTING)));
+            assertEquals(policy.toString(), 0, lanes.getShed(SentenceLanes.POSITION));
+            assertEquals(policy.toString(), 1, lanes.getShed(SentenceLanes.SATELLITES));
+            assertEquals(policy.toString(), FITTING * SentenceRingBuffer.getRecordSize(LENGTH),
+                    lanes.getUsedBytes(SentenceLanes.POSITION));
+        }
+    }
+
+    @Test
+    public void dropOldestMakesRoomWithinTheLane() {
+        SentenceLanes lanes = lanes(SentenceRingBuffer.OverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < FITTING; i++)
+            assertTrue(lanes.offer(sentence("GPGGA", i)));
+        assertTrue(lanes.offer(sentence("GPGGA", FITTING)));
+        assertEquals(1, lanes.getShed(SentenceLanes.POSITION));
+        assertEquals(sentence("GPGGA", 1), poll(lanes));
+    }
+
+    @Test
+    public void overwriteDiscardsTheWholeLane() {
+        SentenceLanes lanes = lanes(SentenceRingBuffer.OverflowPolicy.OVERWRITE);
+        for (int i = 0; i < FITTING; i++)
+            assertTrue(lanes.offer(sentence("GPGGA", i)));
+        assertTrue(lanes.offer(sentence("GPGGA", FITTING)));
+        assertEquals(FITTING, lanes.getShed(SentenceLanes.POSITION));
+        assertEquals(sentence("GPGGA", FITTING), poll(lanes));
+        assertEquals(null, poll(lanes));
+    }
+
+    @Test
+    public void drainsByPriorityOnlyWhenNearlyFull() {
+        SentenceLanes lanes = lanes(SentenceRingBuffer.OverflowPolicy.DROP_NEWEST);
+        // Older satellite detail, then positions up to the shedding threshold
+        assertTrue(lanes.offer(sentence("GPGSV", 0)));
+        for (int i = 1; i < FITTING; i++)
+            assertTrue(lanes.offer(sentence("GPGGA", i)));
+        // Nearly full: positions first, although the GSV is older, until the longest standard
+        // sentence fits again
+        int sequence = 1;
+        while (lanes.getUsedBytes() + SentenceRingBuffer.getRecordSize(80) > BUDGET)
+            assertEquals(sentence("GPGGA", sequence++), poll(lanes));
+        assertTrue(sequence > 1);
+        // Back to arrival order
+        assertEquals(sentence("GPGSV", 0), poll(lanes));
+        assertEquals(sentence("GPGGA", sequence), poll(lanes));
+    }
+
+    @Test
+    public void expiresSentencesOlderThanMaxAge() throws InterruptedException {
+        SentenceLanes lanes = lanes(SentenceRingBuffer.OverflowPolicy.DROP_NEWEST);
+        lanes.setMaxAge(100);
+        assertTrue(lanes.offer(sentence("GPGSV", 0)));
+        assertTrue(lanes.offer(sentence("GPGGA", 1)));
+        Thread.sleep(200);
+        assertTrue(lanes.offer(sentence("GPGGA", 2)));
+        assertEquals(sentence("GPGGA", 2), poll(lanes));
+        assertEquals(1, lanes.getExpired(SentenceLanes.SATELLITES));
+        assertEquals(1, lanes.getExpired(SentenceLanes.POSITION));
+        assertEquals(2, lanes.getExpired());
+        assertEquals(0, lanes.getDropped());
+    }
+
+    private static SentenceLanes lanes(SentenceRingBuffer.OverflowPolicy policy) {
+        return new SentenceLanes(BUDGET, 128, policy);
+    }
+
+    /**
+     * @return a sentence of LENGTH characters, in the lane of its address
+     */
+    private static String sentence(String address, int sequence) {
+        StringBuilder sentence = new StringBuilder("$").append(address).append(',').append(sequence).append(',');
+        while (sentence.length() < LENGTH)
+            sentence.append('0');
+        return sentence.toString();
+    }
+
+    private String poll(SentenceLanes lanes) {
+        int length = lanes.poll(buffer, 0);
+        return length < 0 ? null : new String(buffer, 0, length, StandardCharsets.US_ASCII);
+    }
+}
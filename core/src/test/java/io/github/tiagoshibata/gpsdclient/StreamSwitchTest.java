@@ -0,0 +1,278 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Switches a numbered stream of sentences between loopback receivers, the way the service does
+ * when settings change, and checks that each sentence arrives exactly once and in order.
+ */
+public class StreamSwitchTest {
+    private static final int QUEUE_BYTES = 256 * 1024;
+    private static final int RECEIVE_BUFFER_SIZE = 1024 * 1024;
+    private static final int SENTENCES = 3000;
+    private static final int BURST = 10;
+    private static final long BURST_INTERVAL_MS = 2;
+    private static final long DELIVERY_TIMEOUT_MS = 10000;
+    private static final long POLL_MS = 20;
+    private static final long FLUSH_DEADLINE_MS = 1;
+    private static final long SLOW_FLUSH_DEADLINE_MS = 500;
+    private static final long HANDOVER_DELAY_MS = 50;
+    private static final String PREFIX = "$GPTXT,01,01,02,SEQUENCE ";
+
+    /**
+     * Collects the sequence numbers received, in arrival order.
+     */
+    private abstract static class Receiver implements AutoCloseable {
+        private final List<Integer> received = new ArrayList<>();
+
+        abstract SocketAddress getAddress();
+
+        void receive(String line) {
+            assertTrue(line, line.startsWith(PREFIX) && line.endsWith("*00"));
+            synchronized (received) {
+                received.add(Integer.parseInt(line.substring(PREFIX.length(), line.length() - 3)));
+            }
+        }
+
+        List<Integer> getReceived() {
+            synchronized (received) {
+                return new ArrayList<>(received);
+            }
+        }
+
+        protected static Thread start(Runnable runnable, String name) {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            thread.start();
+            return thread;
+        }
+    }
+
+    private static class UdpReceiver extends Receiver {
+        private final DatagramSocket socket;
+
+        UdpReceiver() throws IOException {
+            socket = new DatagramSocket(null);
+            socket.setReceiveBufferSize(RECEIVE_BUFFER_SIZE);
+            socket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            start(this::serve, "UdpReceiver");
+        }
+
+        @Override
+        SocketAddress getAddress() {
+            return socket.getLocalSocketAddress();
+        }
+
+        private void serve() {
+            DatagramPacket packet = new DatagramPacket(new byte[UdpSensorStream.MAX_DATAGRAM_SIZE], UdpSensorStream.MAX_DATAGRAM_SIZE);
+            try {
+                while (true) {
+                    socket.receive(packet);
+                    String batch = new String(packet.getData(), 0, packet.getLength(), StandardCharsets.US_ASCII);
+                    for (String line : batch.split("\r\n"))
+                        receive(line);
+                }
+            } catch (IOException e) {
+                // Closed by close()
+            }
+        }
+
+        @Override
+        public void close() {
+            socket.close();
+        }
+    }
+
+    private static class TcpReceiver extends Receiver {
+        private final ServerSocket serverSocket;
+        private volatile Socket connection;
+
+        TcpReceiver() throws IOException {
+            serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+            start(this::serve, "TcpReceiver");
+        }
+
+        @Override
+        SocketAddress getAddress() {
+            return serverSocket.getLocalSocketAddress();
+        }
+
+        private void serve() {
+            try {
+                while (true) {
+                    connection = serverSocket.accept();
+                    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                            connection.getInputStream(), StandardCharsets.US_ASCII))) {
+                        for (String line = reader.readLine(); line != null; line = reader.readLine())
+                            receive(line);
+                    } catch (IOException e) {
+                        // Closed by close()
+                    }
+                }
+            } catch (IOException e) {
+                // Closed by close()
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+            Socket connection = this.connection;
+            if (connection != null)
+                connection.close();
+        }
+    }
+
+    private final List<QueuedSensorStream> streams = new ArrayList<>();
+    private final List<Receiver> receivers = new ArrayList<>();
+    // Stops previous streams off the sending thread, like the service's stream executor
+    private final ExecutorService streamExecutor = Executors.newSingleThreadExecutor();
+
+    @After
+    public void tearDown() throws Exception {
+        streamExecutor.shutdown();
+        streamExecutor.awaitTermination(DELIVERY_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        for (QueuedSensorStream stream : streams)
+            stream.stop();
+        for (Receiver receiver : receivers)
+            receiver.close();
+    }
+
+    @Test
+    public void replacingTheStreamKeepsOrder() throws Exception {
+        Receiver udp = add(new UdpReceiver());
+        Receiver tcp = add(new TcpReceiver());
+        // Holds a partial batch when replaced, which must still arrive before the next stream's
+        QueuedSensorStream stream = udpStream(udp, SLOW_FLUSH_DEADLINE_MS);
+        for (int sequence = 0; sequence < SENTENCES; sequence++) {
+            if (sequence == SENTENCES / 4)
+                stream = handOver(stream, udpStream(udp, FLUSH_DEADLINE_MS));
+            else if (sequence == SENTENCES / 2)
+                stream = handOver(stream, add(new TcpSensorStream(tcp.getAddress(), QUEUE_BYTES,
+                        SentenceRingBuffer.OverflowPolicy.DROP_NEWEST)));
+            else if (sequence == 3 * SENTENCES / 4)
+                stream = handOver(stream, udpStream(udp, FLUSH_DEADLINE_MS));
+            send(stream, sequence);
+        }
+        stream.stop();
+
+        awaitAll(udp, tcp);
+        // Order across receivers isn't observable, but each must see its sentences in order
+        assertSegments(udp.getReceived(), 0, SENTENCES / 2, 3 * SENTENCES / 4, SENTENCES);
+        assertSegments(tcp.getReceived(), SENTENCES / 2, 3 * SENTENCES / 4);
+        for (QueuedSensorStream s : streams)
+            assertEquals(0, s.getDroppedSentences());
+    }
+
+    @Test
+    public void changingDestinationsKeepsOrder() throws Exception {
+        Receiver first = add(new UdpReceiver());
+        Receiver second = add(new UdpReceiver());
+        UdpSensorStream stream = udpStream(first, FLUSH_DEADLINE_MS);
+        for (int sequence = 0; sequence < SENTENCES; sequence++) {
+            if (sequence == SENTENCES / 3)
+                stream.setDestinations(new SocketAddress[] {second.getAddress()}, 0);
+            else if (sequence == 2 * SENTENCES / 3)
+                stream.setDestinations(new SocketAddress[] {first.getAddress()}, 0);
+            send(stream, sequence);
+        }
+        stream.stop();
+
+        awaitAll(first, second);
+        assertSegments(first.getReceived(), 0, SENTENCES / 3, 2 * SENTENCES / 3, SENTENCES);
+        assertSegments(second.getReceived(), SENTENCES / 3, 2 * SENTENCES / 3);
+        assertEquals(0, stream.getDroppedSentences());
+    }
+
+    private <T extends Receiver> T add(T receiver) {
+        receivers.add(receiver);
+        return receiver;
+    }
+
+    private <T extends QueuedSensorStream> T add(T stream) {
+        streams.add(stream);
+        return stream;
+    }
+
+    private UdpSensorStream udpStream(Receiver receiver, long flushDeadlineMillis) throws IOException {
+        return add(new UdpSensorStream(new SocketAddress[] {receiver.getAddress()}, flushDeadlineMillis, QUEUE_BYTES,
+                SentenceRingBuffer.OverflowPolicy.DROP_NEWEST));
+    }
+
+    /**
+     * Switch streams the way the service does: the new stream holds what it's sent until the
+     * previous one has transmitted its queue and stopped.
+     */
+    private QueuedSensorStream handOver(QueuedSensorStream previous, QueuedSensorStream stream) {
+        stream.hold();
+        streamExecutor.execute(() -> {
+            try {
+                // The executor may be busy, e.g. opening the journal, before it stops the
+                // previous stream
+                Thread.sleep(HANDOVER_DELAY_MS);
+                previous.stop();
+                assertTrue(previous.isStopped());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                stream.release();
+            }
+        });
+        return stream;
+    }
+
+    private static void send(SensorStream stream, int sequence) throws InterruptedException {
+        stream.send(PREFIX + sequence + "*00");
+        if (sequence % BURST == BURST - 1)
+            Thread.sleep(BURST_INTERVAL_MS);
+    }
+
+    private static void awaitAll(Receiver... receivers) throws InterruptedException {
+        long start = System.nanoTime();
+        while (true) {
+            int received = 0;
+            for (Receiver receiver : receivers)
+                received += receiver.getReceived().size();
+            if (received >= SENTENCES)
+                return;
+            assertTrue("Received " + received + " of " + SENTENCES,
+                    System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(DELIVERY_TIMEOUT_MS));
+            Thread.sleep(POLL_MS);
+        }
+    }
+
+    /**
+     * Assert that a receiver got exactly the given ranges of sequence numbers, in order.
+     *
+     * @param  bounds start and end (exclusive) of each range
+     */
+    private static void assertSegments(List<Integer> received, int... bounds) {
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < bounds.length; i += 2) {
+            for (int sequence = bounds[i]; sequence < bounds[i + 1]; sequence++)
+                expected.add(sequence);
+        }
+        assertEquals(expected, received);
+    }
+}
@@ -0,0 +1,217 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs a {@link TcpSensorStream} against loopback {@link ServerSocket}s that start late, restart
+ * and stop reading.
+ */
+public class TcpSensorStreamTest {
+    private static final int QUEUE_BYTES = 64 * 1024;
+    // Longer than the reconnection backoff after a couple of failures
+    private static final long DELIVERY_TIMEOUT_MS = 10000;
+    private static final long ERROR_POLL_MS = 20;
+    private static final int RECEIVE_BUFFER_SIZE = 4096;
+
+    /**
+     * Accepts one connection at a time and collects the lines received.
+     */
+    private static class Server implements AutoCloseable {
+        private final ServerSocket serverSocket;
+        private final BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+        private final Thread thread;
+        private final boolean reading;
+        private volatile Socket connection;
+
+        Server(int port, boolean reading) throws IOException {
+            this.reading = reading;
+            serverSocket = new ServerSocket();
+            serverSocket.setReuseAddress(true);
+            if (!reading)
+                serverSocket.setReceiveBufferSize(RECEIVE_BUFFER_SIZE);
+            serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            thread = new Thread(this::serve, "Server");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        InetSocketAddress getAddress() {
+            return (InetSocketAddress)serverSocket.getLocalSocketAddress();
+        }
+
+        private void serve() {
+            try {
+                while (true) {
+                    connection = serverSocket.accept();
+                    if (!reading)
+                        continue;  // Never read, the stream's socket fills up
+                    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                            connection.getInputStream(), StandardCharsets.US_ASCII))) {
+                        for (String line = reader.readLine(); line != null; line = reader.readLine())
+                            lines.add(line);
+                    } catch (IOException e) {
+                        // Closed by close()
+                    }
+                }
+            } catch (IOException e) {
+                // Closed by close()
+            }
+        }
+
+        /**
+         * @return the next line, failing the test if none arrives in time
+         */
+        String take() throws InterruptedException {
+            String line = lines.poll(DELIVERY_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            assertNotNull("Nothing received", line);
+            return line;
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+            Socket connection = this.connection;
+            if (connection != null)
+                connection.close();
+        }
+    }
+
+    private TcpSensorStream stream;
+    private final List<Server> servers = new ArrayList<>();
+
+    @After
+    public void tearDown() throws IOException {
+        if (stream != null)
+            stream.stop();
+        for (Server server : servers)
+            server.close();
+    }
+
+    @Test
+    public void connectsOnceTheServerListens() throws IOException, InterruptedException {
+        int port = freePort();
+        stream = new TcpSensorStream(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), QUEUE_BYTES,
+                SentenceRingBuffer.OverflowPolicy.DROP_NEWEST);
+        send(0, 10);
+        awaitSendError(0);
+        Server server = listen(port, true);
+        expect(server, 0, 10);
+        assertEquals(0, stream.getDroppedSentences());
+    }
+
+    @Test
+    public void reconnectsAfterServerRestart() throws IOException, InterruptedException {
+        Server server = listen(0, true);
+        int port = server.getAddress().getPort();
+        stream = new TcpSensorStream(server.getAddress(), QUEUE_BYTES, SentenceRingBuffer.OverflowPolicy.DROP_NEWEST);
+        send(0, 10);
+        expect(server, 0, 10);
+
+        server.close();
+        // What the stream writes until it notices is lost with the connection
+        long sendErrors = stream.getSendErrors();
+        int sequence = 10;
+        while (stream.getSendErrors() == sendErrors) {
+            send(sequence++, 1);
+            Thread.sleep(ERROR_POLL_MS);
+        }
+        // Queued while disconnected, delivered once reconnected after what's left of the above
+        send(1000, 100);
+        Server restarted = listen(port, true);
+        skipTo(restarted, 1000);
+        expect(restarted, 1001, 99);
+        assertEquals(0, stream.getDroppedSentences());
+    }
+
+    @Test
+    public void stalledServerDoesNotBlockNetworkThread() throws IOException, InterruptedException {
+        Server stalled = listen(0, false);
+        stream = new TcpSensorStream(stalled.getAddress(), QUEUE_BYTES, SentenceRingBuffer.OverflowPolicy.DROP_NEWEST);
+        // Far more than the socket buffers hold
+        for (int i = 0; i < 100; i++)
+            send(0, 1000);
+        long start = System.nanoTime();
+        while (stream.getDroppedSentences() == 0) {
+            assertTrue("Queue never filled", System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(DELIVERY_TIMEOUT_MS));
+            send(0, 1000);
+            Thread.sleep(ERROR_POLL_MS);
+        }
+
+        // A network thread stuck in a blocking write would never switch
+        Server server = listen(0, true);
+        stream.setAddress(server.getAddress());
+        start = System.nanoTime();
+        while (stream.getQueuedBytes() > 0) {
+            assertTrue("Queue not drained", System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(DELIVERY_TIMEOUT_MS));
+            Thread.sleep(ERROR_POLL_MS);
+        }
+        send(1000, 10);
+        skipTo(server, 1000);
+        expect(server, 1001, 9);
+    }
+
+    private Server listen(int port, boolean reading) throws IOException {
+        Server server = new Server(port, reading);
+        servers.add(server);
+        return server;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static String sentence(int sequence) {
+        return "$GPTXT,01,01,02,SEQUENCE " + sequence + "*00";
+    }
+
+    private void send(int first, int count) {
+        for (int i = first; i < first + count; i++)
+            stream.send(sentence(i));
+    }
+
+    private void awaitSendError(long before) throws InterruptedException {
+        long start = System.nanoTime();
+        while (stream.getSendErrors() == before) {
+            assertTrue("No send error", System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(DELIVERY_TIMEOUT_MS));
+            Thread.sleep(ERROR_POLL_MS);
+        }
+    }
+
+    /**
+     * Skip what was sent before a sentence, and the sentence itself.
+     */
+    private static void skipTo(Server server, int sequence) throws InterruptedException {
+        String expected = sentence(sequence);
+        List<String> skipped = new ArrayList<>();
+        for (String line = server.take(); !line.equals(expected); line = server.take())
+            skipped.add(line);
+        // Sent before, so it can only have been received before
+        assertTrue(skipped.toString(), !skipped.contains(sentence(sequence + 1)));
+    }
+
+    private static void expect(Server server, int first, int count) throws InterruptedException {
+        for (int i = first; i < first + count; i++)
+            assertEquals(sentence(i), server.take());
+    }
+}
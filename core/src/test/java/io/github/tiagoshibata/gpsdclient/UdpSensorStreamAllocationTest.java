@@ -0,0 +1,138 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Counts the bytes allocated by the thread sending sentences and by the network thread, with
+ * HotSpot's per-thread allocation counters. Both must stay well below a byte per sentence once
+ * warmed up, i.e. nothing is allocated per sentence or per datagram.
+ */
+public class UdpSensorStreamAllocationTest {
+    private static final String[] SENTENCES = {
+            "$GPGGA,123519,4807.038,N,01131.000,E,1,08,0.9,545.4,M,46.9,M,,*47",
+            "$GPGSA,A,3,04,05,,09,12,,,24,,,,,2.5,1.3,2.1*39",
+            "$GPRMC,123519,A,4807.038,N,01131.000,E,022.4,084.4,230394,003.1,W*6A",
+    };
+    private static final int WARMUP_SENTENCES = 100_000;
+    private static final int MEASURED_SENTENCES = 200_000;
+    private static final int QUEUE_BYTES = 64 * 1024;
+    // Sending waits while more sentences than this are on their way, so that neither the queue
+    // nor the receiving socket drops any
+    private static final int MAX_IN_FLIGHT = 500;
+    private static final int RECEIVE_BUFFER_SIZE = 4 * 1024 * 1024;
+    private static final double MAX_BYTES_PER_SENTENCE = 1;
+    private static final long DELIVERY_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+    private DatagramChannel receiver;
+    private Thread receiverThread;
+    private long sent;
+    private volatile long received;
+    private UdpSensorStream stream;
+
+    @Before
+    public void setUp() throws IOException {
+        receiver = DatagramChannel.open();
+        receiver.setOption(StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER_SIZE);
+        receiver.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        receiverThread = new Thread(this::receive, "Receiver");
+        receiverThread.start();
+        stream = new UdpSensorStream(new SocketAddress[]{receiver.getLocalAddress()}, 0, QUEUE_BYTES,
+                SentenceRingBuffer.OverflowPolicy.DROP_NEWEST);
+    }
+
+    @After
+    public void tearDown() throws IOException, InterruptedException {
+        stream.stop();
+        receiver.close();
+        receiverThread.join();
+    }
+
+    @Test
+    public void sendsWithoutAllocating() throws InterruptedException {
+        assertTrue("Allocation counters unsupported by this JVM", threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        send(WARMUP_SENTENCES);
+        awaitDelivery(WARMUP_SENTENCES);
+        long networkThread = findThread("UdpSensorStream").getId();
+        long producer = Thread.currentThread().getId();
+
+        long producerBefore = threads.getThreadAllocatedBytes(producer);
+        long networkBefore = threads.getThreadAllocatedBytes(networkThread);
+        send(MEASURED_SENTENCES);
+        long producerAllocated = threads.getThreadAllocatedBytes(producer) - producerBefore;
+        awaitDelivery(WARMUP_SENTENCES + MEASURED_SENTENCES);
+        long networkAllocated = threads.getThreadAllocatedBytes(networkThread) - networkBefore;
+
+        assertEquals(0, stream.getDroppedSentences());
+        double producerPerSentence = (double)producerAllocated / MEASURED_SENTENCES;
+        double networkPerSentence = (double)networkAllocated / MEASURED_SENTENCES;
+        assertTrue("Producer allocated " + producerPerSentence + " bytes per sentence",
+                producerPerSentence < MAX_BYTES_PER_SENTENCE);
+        assertTrue("Network thread allocated " + networkPerSentence + " bytes per sentence",
+                networkPerSentence < MAX_BYTES_PER_SENTENCE);
+    }
+
+    private void send(int sentences) {
+        for (int i = 0; i < sentences; i++) {
+            while (sent - received > MAX_IN_FLIGHT)
+                Thread.yield();
+            stream.send(SENTENCES[i % SENTENCES.length]);
+            sent++;
+        }
+    }
+
+    private void awaitDelivery(long sentences) throws InterruptedException {
+        long start = System.nanoTime();
+        while (received < sentences) {
+            assertTrue("Received " + received + " of " + sentences + " sentences",
+                    System.nanoTime() - start < DELIVERY_TIMEOUT_NANOS);
+            Thread.sleep(1);
+        }
+    }
+
+    private static Thread findThread(String name) {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals(name))
+                return thread;
+        }
+        throw new AssertionError("No thread named " + name);
+    }
+
+    private void receive() {
+        ByteBuffer datagram = ByteBuffer.allocateDirect(UdpSensorStream.MAX_DATAGRAM_SIZE);
+        try {
+            while (true) {
+                datagram.clear();
+                receiver.receive(datagram);
+                long sentences = 0;
+                for (int i = 0; i < datagram.position(); i++) {
+                    if (datagram.get(i) == '\n')
+                        sentences++;
+                }
+                received += sentences;
+            }
+        } catch (ClosedChannelException e) {
+            // Closed by tearDown()
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays NMEA logs over a loopback round trip through a compressing {@link UdpSensorStream} and a
+ * {@link GpsdRelay}, and checks that what reaches the receiver standing in for gpsd is
+ * byte-identical to the valid sentences of the log. Reports the bytes per epoch with and without
+ * compression. Exits with status 1 if any log doesn't match.
+ * <p>
+ * Usage: {@code ./gradlew :loadtest:compressionCheck --args="LOG... [--speed FACTOR]"}, replaying
+ * 1000 times faster than recorded by default, slow enough for the queue not to overflow. Epochs
+ * are batched, as with "Send each fix in a single packet". CompressionCheckTest runs it on the
+ * bundled log.
+ */
+public class CompressionCheck {
+    private static final double DEFAULT_SPEED = 1000;
+    private static final long BATCH_DEADLINE_MS = 100;
+    private static final int QUEUE_BYTES = 1024 * 1024;
+    private static final int RECEIVE_BUFFER_SIZE = 4 * 1024 * 1024;
+    private static final long DRAIN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final long DRAIN_POLL_MS = 10;
+    // Time for the last batch to reach the receiver through the relay
+    private static final long IN_FLIGHT_MS = 200;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        double speed = DEFAULT_SPEED;
+        int logs = 0;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--speed") && i + 1 < args.length)
+                    speed = Double.parseDouble(args[++i]);
+                else if (args[i].startsWith("--"))
+                    usage();
+                else
+                    logs++;
+            }
+        } catch (NumberFormatException e) {
+            usage();
+        }
+        if (logs == 0)
+            usage();
+        boolean passed = true;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--speed"))
+                i++;
+            else
+                passed &= check(new File(args[i]), speed);
+        }
+        System.out.println(passed ? "PASSED" : "FAILED");
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * @return whether the receiver got exactly the valid sentences of the log
+     */
+    static boolean check(File log, double speed) throws IOException, InterruptedException {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        long epochs = readValidSentences(log, expected);
+        DatagramChannel receiver = DatagramChannel.open();
+        receiver.setOption(StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER_SIZE);
+        receiver.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        Thread receiverThread = new Thread(() -> receive(receiver, received), "Receiver");
+        receiverThread.start();
+        GpsdRelay relay = new GpsdRelay(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                receiver.getLocalAddress());
+        UdpSensorStream stream = new UdpSensorStream(new SocketAddress[]{relay.getLocalAddress()}, BATCH_DEADLINE_MS,
+                QUEUE_BYTES, SentenceRingBuffer.OverflowPolicy.DROP_NEWEST);
+        stream.setCompression(true);
+        NmeaForwarder forwarder = new NmeaForwarder();
+        forwarder.start(stream, null);
+        new NmeaReplaySource(log, speed).replay(forwarder);
+        forwarder.stop();
+        long drainStart = System.nanoTime();
+        while (stream.getQueuedBytes() > 0 && System.nanoTime() - drainStart < DRAIN_TIMEOUT_NANOS)
+            Thread.sleep(DRAIN_POLL_MS);
+        // Waits for the last batch's deadline
+        Thread.sleep(BATCH_DEADLINE_MS + IN_FLIGHT_MS);
+        stream.stop();
+        Thread.sleep(IN_FLIGHT_MS);
+        relay.close();
+        receiver.close();
+        receiverThread.join();
+
+        CompressedNmeaEncoder compressor = stream.getCompressor();
+        System.out.println(log + ": " + stream.getStatistics());
+        System.out.println(log + ": " + relay.getStatistics());
+        System.out.printf("%s: %d epochs, %.1f bytes per epoch plain, %.1f compressed (%.1f%%)%n", log, epochs,
+                (double)compressor.getBytesIn() / epochs, (double)compressor.getBytesOut() / epochs,
+                100. * compressor.getBytesOut() / compressor.getBytesIn());
+        boolean identical = Arrays.equals(expected.toByteArray(), received.toByteArray());
+        System.out.printf("%s: received %d of %d bytes, %s%n", log, received.size(), expected.size(),
+                identical ? "byte-identical" : "MISMATCH");
+        return identical;
+    }
+
+    /**
+     * Write the valid sentences of a log, CRLF terminated, as the forwarder sends them.
+     *
+     * @return number of epochs, counted from changes of UTC time
+     */
+    private static long readValidSentences(File log, ByteArrayOutputStream sentences) throws IOException {
+        NmeaScanner scanner = new NmeaScanner();
+        long epochs = 0;
+        double epochTime = Double.NaN;
+        for (String line : Files.readAllLines(log.toPath(), StandardCharsets.ISO_8859_1)) {
+            if (!scanner.scan(line))
+                continue;
+            double time = scanner.getTime();
+            if (!Double.isNaN(time) && time != epochTime) {
+                epochTime = time;
+                epochs++;
+            }
+            byte[] sentence = (line.trim() + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+            sentences.write(sentence, 0, sentence.length);
+        }
+        return Math.max(epochs, 1);
+    }
+
+    private static void receive(DatagramChannel channel, ByteArrayOutputStream received) {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        try {
+            while (true) {
+                buffer.clear();
+                channel.receive(buffer);
+                received.write(buffer.array(), 0, buffer.position());
+            }
+        } catch (ClosedChannelException e) {
+            // Closed once replayed
+        } catch (IOException e) {
+            System.err.println("Receiver: " + e.toString());
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: CompressionCheck LOG... [--speed FACTOR]");
+        System.exit(2);
+    }
+}
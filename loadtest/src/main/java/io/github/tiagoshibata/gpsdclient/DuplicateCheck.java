@@ -0,0 +1,229 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs recorded NMEA logs through a {@link DuplicateSuppressor} and checks what a receiver would
+ * see. Exits with status 1 if any check fails.
+ * <p>
+ * The clock follows the UTC time of the recorded sentences, so that refreshes happen as they
+ * would have while recording. Checks that:
+ * <ul>
+ * <li>sentences carrying time or position, and proprietary sentences, are always forwarded;</li>
+ * <li>runs of consecutive sentences with the same address, e.g. the parts of a GSV report, are
+ * forwarded whole, in their original order, or not at all;</li>
+ * <li>a suppressed sentence is byte-identical to the one the receiver last got for its address
+ * and index in the run, sent less than the refresh interval before.</li>
+ * </ul>
+ * Usage: {@code ./gradlew :loadtest:duplicateCheck --args="LOG... [--refresh MS]"}, with a
+ * refresh interval of 10000 ms by default. DuplicateCheckTest runs it on the bundled log.
+ */
+public class DuplicateCheck {
+    private static final long DAY_NANOS = TimeUnit.DAYS.toNanos(1);
+    private static final int TYPE_GGA = 'G' << 16 | 'G' << 8 | 'A';
+    private static final int TYPE_RMC = 'R' << 16 | 'M' << 8 | 'C';
+    private static final int TYPE_GNS = 'G' << 16 | 'N' << 8 | 'S';
+    private static final int TYPE_GLL = 'G' << 16 | 'L' << 8 | 'L';
+    private static final int TYPE_ZDA = 'Z' << 16 | 'D' << 8 | 'A';
+    private static final int TYPE_GST = 'G' << 16 | 'S' << 8 | 'T';
+    private static final int TYPE_GBS = 'G' << 16 | 'B' << 8 | 'S';
+    private static final int TYPE_GRS = 'G' << 16 | 'R' << 8 | 'S';
+
+    private static class Received {
+        private final String sentence;
+        private final long nanos;
+
+        private Received(String sentence, long nanos) {
+            this.sentence = sentence;
+            this.nanos = nanos;
+        }
+    }
+
+    private final long refreshNanos;
+    private final DuplicateSuppressor suppressor;
+    private final NmeaScanner scanner = new NmeaScanner();
+    // Last sentence the receiver got for each address and index in its run
+    private final Map<String, Received> receiver = new HashMap<>();
+    private final List<String> run = new ArrayList<>();
+    private final List<Long> runNanos = new ArrayList<>();
+    private final List<String> runOutput = new ArrayList<>();
+    private String runAddress;
+    private long clock;
+    private double lastTime = Double.NaN;
+    private long sentences;
+    private long forwarded;
+    private long bytesIn;
+    private long bytesOut;
+    private long failures;
+
+    DuplicateCheck(long refreshMillis) {
+        refreshNanos = TimeUnit.MILLISECONDS.toNanos(refreshMillis);
+        suppressor = new DuplicateSuppressor(refreshMillis);
+    }
+
+    public static void main(String[] args) throws IOException {
+        long refreshMillis = 10000;
+        List<String> logs = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--refresh") && i + 1 < args.length)
+                    refreshMillis = Long.parseLong(args[++i]);
+                else if (args[i].startsWith("--"))
+                    usage();
+                else
+                    logs.add(args[i]);
+            }
+        } catch (NumberFormatException e) {
+            usage();
+        }
+        if (logs.isEmpty() || refreshMillis <= 0)
+            usage();
+        boolean passed = true;
+        for (String log : logs) {
+            DuplicateCheck check = new DuplicateCheck(refreshMillis);
+            check.run(log);
+            passed &= check.failures == 0;
+        }
+        System.out.println(passed ? "PASSED" : "FAILED");
+        System.exit(passed ? 0 : 1);
+    }
+
+    void run(String log) throws IOException {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(log), StandardCharsets.ISO_8859_1))) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (scanner.scan(line))
+                    check(line);
+            }
+        }
+        endRun();
+        System.out.println(log + ": " + suppressor.getStatistics());
+        System.out.printf("%s: forwarded %d of %d sentences, %d of %d bytes, %d failures%n", log,
+                forwarded, sentences, bytesOut, bytesIn, failures);
+    }
+
+    private void check(String sentence) {
+        advanceClock();
+        String address = sentence.substring(1, Math.min(6, sentence.length()));
+        int comma = address.indexOf(',');
+        if (comma >= 0)
+            address = address.substring(0, comma);
+        if (!address.equals(runAddress))
+            endRun();
+        runAddress = address;
+        sentences++;
+        bytesIn += sentence.length() + 2;
+        boolean accepted = suppressor.accept(scanner, sentence, clock);
+        if (!accepted && isProtected())
+            fail("Suppressed a sentence carrying time or position: " + sentence);
+        if (accepted) {
+            for (int i = 0; i < suppressor.getReleasedCount(); i++)
+                output(suppressor.getReleased(i).toString());
+            output(sentence);
+        }
+        run.add(sentence);
+        runNanos.add(clock);
+    }
+
+    private void output(String sentence) {
+        runOutput.add(sentence);
+        forwarded++;
+        bytesOut += sentence.length() + 2;
+    }
+
+    private void endRun() {
+        if (runOutput.isEmpty()) {
+            for (int i = 0; i < run.size(); i++) {
+                Received last = receiver.get(runAddress + "," + i);
+                if (last == null || !last.sentence.equals(run.get(i)))
+                    fail("Suppressed a sentence the receiver doesn't have: " + run.get(i));
+                else if (runNanos.get(i) - last.nanos >= refreshNanos)
+                    fail("Suppressed a sentence past its refresh interval: " + run.get(i));
+            }
+        } else if (!runOutput.equals(run)) {
+            fail("Run not forwarded whole: sent " + runOutput + " for " + run);
+        } else {
+            // Received when its last part was, at the latest
+            long nanos = runNanos.get(run.size() - 1);
+            for (int i = 0; i < run.size(); i++)
+                receiver.put(runAddress + "," + i, new Received(run.get(i), nanos));
+        }
+        run.clear();
+        runNanos.clear();
+        runOutput.clear();
+    }
+
+    /**
+     * Move the clock forward to the UTC time of the scanned sentence, if it has one.
+     */
+    private void advanceClock() {
+        double time = scanner.getTime();
+        if (Double.isNaN(time))
+            return;
+        long nanos = toNanos(time);
+        if (!Double.isNaN(lastTime)) {
+            long elapsed = nanos - toNanos(lastTime);
+            // Past midnight
+            if (elapsed < 0)
+                elapsed += DAY_NANOS;
+            clock += elapsed;
+        }
+        lastTime = time;
+    }
+
+    long getSentences() {
+        return sentences;
+    }
+
+    long getForwarded() {
+        return forwarded;
+    }
+
+    long getFailures() {
+        return failures;
+    }
+
+    private static long toNanos(double hhmmss) {
+        int hours = (int)(hhmmss / 10000);
+        int minutes = (int)(hhmmss / 100) % 100;
+        double seconds = hhmmss % 100;
+        return TimeUnit.HOURS.toNanos(hours) + TimeUnit.MINUTES.toNanos(minutes) + (long)(seconds * 1e9);
+    }
+
+    private boolean isProtected() {
+        if (scanner.isProprietary() || scanner.hasTime())
+            return true;
+        switch (scanner.getType()) {
+            case TYPE_GGA:
+            case TYPE_RMC:
+            case TYPE_GNS:
+            case TYPE_GLL:
+            case TYPE_ZDA:
+            case TYPE_GST:
+            case TYPE_GBS:
+            case TYPE_GRS:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void fail(String message) {
+        if (failures++ < 10)
+            System.out.println(message);
+    }
+
+    private static void usage() {
+        System.err.println("Usage: DuplicateCheck LOG... [--refresh MS]");
+        System.exit(2);
+    }
+}
@@ -0,0 +1,83 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Local receiver of binary sensor frames, listening on the loopback interface.
+ * <p>
+ * Decodes frames with {@link SensorFrameDecoder} and records the latency from the last sample of
+ * each frame, timestamped with {@link System#nanoTime()} by the producer, until reception.
+ */
+class MotionSink implements Closeable {
+    private static final long STOP_TIMEOUT_MS = 1000;
+    private final DatagramChannel channel;
+    private final Thread thread;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(UdpSensorStream.MAX_DATAGRAM_SIZE);
+    private final SensorFrameDecoder decoder = new SensorFrameDecoder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private long lastTimestamp;
+
+    /**
+     * Bind to an ephemeral loopback port and start receiving.
+     */
+    MotionSink() throws IOException {
+        channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        thread = new Thread(this::receive, "MotionSink");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    int getPort() throws IOException {
+        return ((InetSocketAddress)channel.getLocalAddress()).getPort();
+    }
+
+    private void receive() {
+        SensorFrameDecoder.SampleListener listener = (type, timestampNanos, values, axes) ->
+                lastTimestamp = timestampNanos;
+        try {
+            while (true) {
+                buffer.clear();
+                channel.receive(buffer);
+                long now = System.nanoTime();
+                buffer.flip();
+                if (decoder.decode(buffer, listener))
+                    latency.record(now - lastTimestamp);
+            }
+        } catch (ClosedChannelException e) {
+            // Closed by close()
+        } catch (IOException e) {
+            System.err.println("MotionSink: " + e.toString());
+        }
+    }
+
+    /**
+     * @return samples received, valid after close()
+     */
+    long getSamples() {
+        return decoder.getSamples();
+    }
+
+    /**
+     * @return statistics, valid after close()
+     */
+    String getStatistics() {
+        return decoder.getStatistics() + "\nLast sample to reception: " + latency.getSummary();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        try {
+            thread.join(STOP_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.BitSet;
+import java.util.Locale;
+
+/**
+ * Local receiver standing in for gpsd, listening on the loopback interface or connecting to a
+ * local server.
+ * <p>
+ * Reads the sequence number and delivery time appended by {@link NmeaReplaySource} to each
+ * sentence, counting received, reordered and duplicated sentences and recording the latency from
+ * delivery to the listener until reception. Untagged sentences are only counted.
+ */
+class NmeaSink implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long STOP_TIMEOUT_MS = 1000;
+    private final DatagramChannel udpChannel;
+    private final ServerSocketChannel tcpServerChannel;
+    private volatile SocketChannel tcpChannel;
+    private final Thread thread;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final BitSet seen = new BitSet();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private long highestSequence = -1;
+    private volatile long received;
+    private volatile long reordered;
+    private volatile long duplicated;
+    private volatile long untagged;
+
+    /**
+     * Bind to an ephemeral loopback port and start receiving.
+     *
+     * @param  tcp true to accept TCP connections, false to receive datagrams
+     */
+    NmeaSink(boolean tcp) throws IOException {
+        this(tcp, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    /**
+     * Bind to an address and start receiving.
+     *
+     * @param  tcp     true to accept TCP connections, false to receive datagrams
+     * @param  address local address, e.g. another loopback address
+     */
+    NmeaSink(boolean tcp, SocketAddress address) throws IOException {
+        if (tcp) {
+            udpChannel = null;
+            tcpServerChannel = ServerSocketChannel.open();
+            tcpServerChannel.bind(address);
+        } else {
+            tcpServerChannel = null;
+            udpChannel = DatagramChannel.open();
+            udpChannel.bind(address);
+        }
+        thread = new Thread(this::receive, "NmeaSink");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Connect to a server and start receiving.
+     *
+     * @param  server address of a {@link TcpServerSensorStream}
+     */
+    NmeaSink(SocketAddress server) throws IOException {
+        udpChannel = null;
+        tcpServerChannel = null;
+        tcpChannel = SocketChannel.open(server);
+        thread = new Thread(this::receive, "NmeaSink");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    SocketAddress getAddress() throws IOException {
+        if (udpChannel != null)
+            return udpChannel.getLocalAddress();
+        return tcpServerChannel != null ? tcpServerChannel.getLocalAddress() : tcpChannel.getLocalAddress();
+    }
+
+    private void receive() {
+        try {
+            if (udpChannel != null) {
+                while (true) {
+                    buffer.clear();
+                    udpChannel.receive(buffer);
+                    parse(buffer.position());
+                }
+            }
+            if (tcpServerChannel == null) {
+                try (SocketChannel connection = tcpChannel) {
+                    read(connection);
+                }
+                return;
+            }
+            while (true) {
+                // The stream reconnects after errors, so keep accepting
+                try (SocketChannel connection = tcpServerChannel.accept()) {
+                    tcpChannel = connection;
+                    read(connection);
+                }
+            }
+        } catch (ClosedChannelException e) {
+            // Closed by close()
+        } catch (IOException e) {
+            System.err.println("NmeaSink: " + e.toString());
+        }
+    }
+
+    private void read(SocketChannel connection) throws IOException {
+        buffer.clear();
+        while (connection.read(buffer) >= 0) {
+            int consumed = parse(buffer.position());
+            if (consumed == 0 && !buffer.hasRemaining()) {
+                buffer.clear();  // Line longer than the buffer, discard it
+                continue;
+            }
+            buffer.flip();
+            buffer.position(consumed);
+            buffer.compact();
+        }
+    }
+
+    /**
+     * Parse the complete lines in the buffer.
+     *
+     * @return bytes consumed
+     */
+    private int parse(int length) {
+        long now = System.nanoTime();
+        byte[] data = buffer.array();
+        int lineStart = 0;
+        for (int i = 0; i < length; i++) {
+            if (data[i] != '\n')
+                continue;
+            parseLine(data, lineStart, i, now);
+            lineStart = i + 1;
+        }
+        return lineStart;
+    }
+
+    /**
+     * Parse a sentence ending in ",sequence,nanos*hh\r\n".
+     */
+    private void parseLine(byte[] data, int start, int end, long now) {
+        int checksumStart = end;
+        while (checksumStart > start && data[checksumStart] != '*')
+            checksumStart--;
+        int nanosStart = checksumStart;
+        while (nanosStart > start && data[nanosStart - 1] != ',')
+            nanosStart--;
+        int sequenceStart = nanosStart - 1;
+        while (sequenceStart > start && data[sequenceStart - 1] != ',')
+            sequenceStart--;
+        long nanos = parseLong(data, nanosStart, checksumStart);
+        long sequence = parseLong(data, sequenceStart, nanosStart - 1);
+        if (sequenceStart <= start || nanos < 0 || sequence < 0 || sequence > Integer.MAX_VALUE) {
+            untagged++;
+            return;
+        }
+        if (seen.get((int)sequence)) {
+            duplicated++;
+            return;
+        }
+        seen.set((int)sequence);
+        received++;
+        if (sequence < highestSequence)
+            reordered++;
+        else
+            highestSequence = sequence;
+        latency.record(now - nanos);
+    }
+
+    private static long parseLong(byte[] data, int start, int end) {
+        if (start >= end || end - start > 18)
+            return -1;
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = data[i] - '0';
+            if (digit < 0 || digit > 9)
+                return -1;
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    long getReceived() {
+        return received;
+    }
+
+    long getReordered() {
+        return reordered;
+    }
+
+    long getDuplicated() {
+        return duplicated;
+    }
+
+    /**
+     * @return sequence numbers received, valid after close()
+     */
+    BitSet getSeen() {
+        return seen;
+    }
+
+    String getStatistics(long expected) {
+        long lost = expected - received;
+        return String.format(Locale.US, "Received %d of %d sentences, lost %d (%.3f%%), %d reordered, %d duplicated, %d untagged\nDelivery to reception: %s",
+                received, expected, lost, expected > 0 ? 100.0 * lost / expected : 0, reordered, duplicated,
+                untagged, latency.getSummary());
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (udpChannel != null)
+            udpChannel.close();
+        else if (tcpServerChannel != null)
+            tcpServerChannel.close();
+        SocketChannel connection = tcpChannel;
+        if (connection != null)
+            connection.close();
+        try {
+            thread.join(STOP_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
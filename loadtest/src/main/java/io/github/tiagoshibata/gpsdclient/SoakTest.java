@@ -0,0 +1,381 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.SocketAddress;
+import java.util.BitSet;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a NMEA log through the forwarding pipeline into local receivers and reports loss,
+ * reordering and latency. Exits with status 1 if more sentences than allowed were lost, or if any
+ * motion sensor sample was dropped or lost.
+ * <p>
+ * Usage: {@code ./gradlew :loadtest:run --args="LOG [options]"}, with options:
+ * <ul>
+ * <li>--speed FACTOR: replay speed relative to the recording, 0 for as fast as possible (1)</li>
+ * <li>--repeat COUNT: times the log is replayed (1)</li>
+ * <li>--transport udp|tcp|server: server listens for receivers to connect (udp)</li>
+ * <li>--receivers COUNT: number of UDP receivers or server clients (1)</li>
+ * <li>--stalled-clients COUNT: server clients that never read, which must be disconnected without
+ * delaying the others (0)</li>
+ * <li>--batch-deadline MS: epoch batching deadline, 0 to disable (0)</li>
+ * <li>--queue BYTES: queue capacity (4096)</li>
+ * <li>--max-loss PERCENT: highest loss allowed per receiver (0)</li>
+ * <li>--max-age MS: expire sentences queued for longer, 0 to disable (0)</li>
+ * <li>--switch-interval MS: send to one UDP or TCP receiver at a time, switching the running stream
+ * to the next receiver at this interval. Every sentence must then be received exactly once by
+ * one of the receivers, 0 to disable (0)</li>
+ * <li>--dns-switch-interval MS: resolve the server name through {@link AddressResolver}, with a
+ * resolver answering with the next UDP or TCP receiver at this interval, each bound to its own
+ * loopback address. Every sentence must then be received exactly once by one of the receivers, 0
+ * to disable (0)</li>
+ * <li>--time-service off|on|hal: send RMC and ZDA through a {@link TimeService} over UDP, with
+ * hal also appending timestamp sentences, which receivers count as untagged (off)</li>
+ * <li>--imu-rate HZ: also stream synthetic accelerometer, gyroscope and barometer samples at this
+ * rate over UDP, 0 to disable (0)</li>
+ * </ul>
+ */
+public class SoakTest {
+    private static final long DRAIN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final long DRAIN_POLL_MS = 10;
+    // Time for the last batch to reach the receivers after leaving the queue
+    private static final long IN_FLIGHT_MS = 200;
+    private static final int MOTION_FRAMES = 64;
+    // Small enough for stalled clients to fill up quickly
+    private static final int STALLED_RECEIVE_BUFFER_SIZE = 4096;
+    private static final String SERVER_NAME = "gpsd.test";
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 0 || args.length % 2 == 0)
+            usage();
+        File log = new File(args[0]);
+        double speed = 1;
+        int repeat = 1;
+        boolean tcp = false;
+        boolean server = false;
+        int stalledClients = 0;
+        int receivers = 1;
+        long batchDeadlineMillis = 0;
+        int queueCapacity = 4096;
+        double maxLossPercent = 0;
+        long maxAgeMillis = 0;
+        int imuRate = 0;
+        long switchIntervalMillis = 0;
+        long dnsSwitchIntervalMillis = 0;
+        String timeService = "off";
+        try {
+            for (int i = 1; i < args.length; i += 2) {
+                String value = args[i + 1];
+                switch (args[i]) {
+                    case "--speed":
+                        speed = Double.parseDouble(value);
+                        break;
+                    case "--repeat":
+                        repeat = Integer.parseInt(value);
+                        break;
+                    case "--transport":
+                        if (!value.equals("udp") && !value.equals("tcp") && !value.equals("server"))
+                            usage();
+                        tcp = value.equals("tcp");
+                        server = value.equals("server");
+                        break;
+                    case "--stalled-clients":
+                        stalledClients = Integer.parseInt(value);
+                        break;
+                    case "--receivers":
+                        receivers = Integer.parseInt(value);
+                        break;
+                    case "--batch-deadline":
+                        batchDeadlineMillis = Long.parseLong(value);
+                        break;
+                    case "--queue":
+                        queueCapacity = Integer.parseInt(value);
+                        break;
+                    case "--max-loss":
+                        maxLossPercent = Double.parseDouble(value);
+                        break;
+                    case "--max-age":
+                        maxAgeMillis = Long.parseLong(value);
+                        break;
+                    case "--switch-interval":
+                        switchIntervalMillis = Long.parseLong(value);
+                        break;
+                    case "--dns-switch-interval":
+                        dnsSwitchIntervalMillis = Long.parseLong(value);
+                        break;
+                    case "--time-service":
+                        if (!value.equals("off") && !value.equals("on") && !value.equals("hal"))
+                            usage();
+                        timeService = value;
+                        break;
+                    case "--imu-rate":
+                        imuRate = Integer.parseInt(value);
+                        break;
+                    default:
+                        usage();
+                }
+            }
+        } catch (NumberFormatException e) {
+            usage();
+        }
+        boolean switching = switchIntervalMillis > 0 || dnsSwitchIntervalMillis > 0;
+        if (receivers < 1 || (tcp && receivers > 1 && !switching)) {
+            System.err.println("TCP supports a single receiver");
+            System.exit(2);
+        }
+        if (switching && (server || receivers < 2 || imuRate > 0 || (switchIntervalMillis > 0 && dnsSwitchIntervalMillis > 0))) {
+            System.err.println("Switching requires at least two UDP or TCP receivers");
+            System.exit(2);
+        }
+        if (!timeService.equals("off") && (tcp || server)) {
+            System.err.println("Time service requires the UDP transport");
+            System.exit(2);
+        }
+        if (stalledClients > 0 && !server) {
+            System.err.println("Stalled clients require the server transport");
+            System.exit(2);
+        }
+        if (imuRate > 0 && (tcp || server || receivers > 1)) {
+            // Every destination sends its frames to the same loopback port
+            System.err.println("Motion sensors require a single UDP receiver");
+            System.exit(2);
+        }
+
+        NmeaSink[] sinks = new NmeaSink[receivers];
+        SocketAddress[] addresses = new SocketAddress[receivers];
+        SocketChannel[] stalled = new SocketChannel[stalledClients];
+        MotionSink motionSink = imuRate > 0 ? new MotionSink() : null;
+        QueuedSensorStream stream;
+        AddressResolver resolver = null;
+        if (server) {
+            TcpServerSensorStream serverStream = new TcpServerSensorStream(
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                    TcpServerSensorStream.DEFAULT_CLIENT_BUFFER_SIZE, queueCapacity,
+                    SentenceRingBuffer.OverflowPolicy.DROP_NEWEST);
+            stream = serverStream;
+            for (int i = 0; i < receivers; i++) {
+                sinks[i] = new NmeaSink(serverStream.getLocalAddress());
+                addresses[i] = sinks[i].getAddress();
+            }
+            for (int i = 0; i < stalledClients; i++) {
+                stalled[i] = SocketChannel.open();
+                stalled[i].setOption(StandardSocketOptions.SO_RCVBUF, STALLED_RECEIVE_BUFFER_SIZE);
+                stalled[i].connect(serverStream.getLocalAddress());
+            }
+        } else if (dnsSwitchIntervalMillis > 0) {
+            // Same port on 127.0.0.1, 127.0.0.2..., so that only the resolved address changes
+            sinks[0] = new NmeaSink(tcp);
+            addresses[0] = sinks[0].getAddress();
+            int port = ((InetSocketAddress)addresses[0]).getPort();
+            for (int i = 1; i < receivers; i++) {
+                sinks[i] = new NmeaSink(tcp, new InetSocketAddress(InetAddress.getByAddress(new byte[]{127, 0, 0, (byte)(i + 1)}), port));
+                addresses[i] = sinks[i].getAddress();
+            }
+            stream = tcp ?
+                    new TcpSensorStream(null, queueCapacity, SentenceRingBuffer.OverflowPolicy.DROP_NEWEST) :
+                    new UdpSensorStream(new SocketAddress[0], batchDeadlineMillis, queueCapacity,
+                            SentenceRingBuffer.OverflowPolicy.DROP_NEWEST);
+            resolver = resolveRotating(stream, addresses, dnsSwitchIntervalMillis);
+        } else {
+            for (int i = 0; i < receivers; i++) {
+                sinks[i] = new NmeaSink(tcp);
+                addresses[i] = sinks[i].getAddress();
+            }
+            SocketAddress[] destinations = switchIntervalMillis > 0 ? new SocketAddress[]{addresses[0]} : addresses;
+            stream = tcp ?
+                    new TcpSensorStream(addresses[0], queueCapacity, SentenceRingBuffer.OverflowPolicy.DROP_NEWEST) :
+                    new UdpSensorStream(destinations, motionSink != null ? motionSink.getPort() : 0, batchDeadlineMillis,
+                            queueCapacity, SentenceRingBuffer.OverflowPolicy.DROP_NEWEST);
+        }
+        Thread switcher = null;
+        if (switchIntervalMillis > 0) {
+            QueuedSensorStream switchedStream = stream;
+            long interval = switchIntervalMillis;
+            switcher = new Thread(() -> switchReceivers(switchedStream, addresses, interval), "Switcher");
+            switcher.start();
+        }
+        if (!timeService.equals("off"))
+            ((UdpSensorStream)stream).setTimeService(timeService.equals("hal"));
+        stream.setMaxSentenceAge(maxAgeMillis);
+        NmeaForwarder forwarder = new NmeaForwarder();
+        forwarder.start(stream, null);
+        FrameQueue frameQueue = new FrameQueue(MOTION_FRAMES, UdpSensorStream.MAX_DATAGRAM_SIZE);
+        SensorFrameEncoder[] encoders = {
+                new SensorFrameEncoder(frameQueue, SensorFrameEncoder.TYPE_ACCELEROMETER, 3),
+                new SensorFrameEncoder(frameQueue, SensorFrameEncoder.TYPE_GYROSCOPE, 3),
+                new SensorFrameEncoder(frameQueue, SensorFrameEncoder.TYPE_PRESSURE, 1),
+        };
+        Thread motionSource = null;
+        if (motionSink != null) {
+            stream.setFrameQueue(frameQueue);
+            long periodNanos = TimeUnit.SECONDS.toNanos(1) / imuRate;
+            motionSource = new Thread(() -> produceMotion(encoders, periodNanos), "MotionSource");
+            motionSource.start();
+        }
+        NmeaReplaySource source = new NmeaReplaySource(log, speed);
+        source.setTagging(true);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < repeat; i++)
+            source.replay(forwarder);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        forwarder.stop();
+        if (switcher != null) {
+            switcher.interrupt();
+            switcher.join();
+        }
+        if (motionSource != null) {
+            motionSource.interrupt();
+            motionSource.join();
+        }
+        long drainStart = System.nanoTime();
+        while (stream.getQueuedBytes() > 0 && System.nanoTime() - drainStart < DRAIN_TIMEOUT_NANOS)
+            Thread.sleep(DRAIN_POLL_MS);
+        Thread.sleep(IN_FLIGHT_MS);
+        stream.stop();
+        if (resolver != null)
+            resolver.stop();
+        for (SocketChannel channel : stalled)
+            channel.close();
+
+        long expected = source.getTagged();
+        System.out.printf("Replayed %d sentences in %.1f s (%.0f sentences/s)%n", source.getDelivered(), seconds,
+                source.getDelivered() / seconds);
+        System.out.println("Source to callback: " + forwarder.getCallbackLatency().getSummary());
+        System.out.println(forwarder.getScanner().getStatistics());
+        System.out.println(stream.getStatistics());
+        if (resolver != null)
+            System.out.println(resolver.getStatistics());
+        boolean passed = true;
+        if (switching) {
+            BitSet received = new BitSet();
+            long duplicated = 0;
+            for (int i = 0; i < receivers; i++) {
+                sinks[i].close();
+                System.out.println("Receiver " + addresses[i] + ": " + sinks[i].getStatistics(sinks[i].getReceived()));
+                BitSet seen = sinks[i].getSeen();
+                BitSet overlap = (BitSet)seen.clone();
+                overlap.and(received);
+                duplicated += overlap.cardinality() + sinks[i].getDuplicated();
+                received.or(seen);
+            }
+            long lost = expected - received.cardinality();
+            System.out.printf("All receivers: received %d of %d sentences, lost %d, %d duplicated%n",
+                    received.cardinality(), expected, lost, duplicated);
+            if (duplicated > 0 || (expected > 0 && 100.0 * lost / expected > maxLossPercent))
+                passed = false;
+        } else {
+            for (int i = 0; i < receivers; i++) {
+                sinks[i].close();
+                System.out.println("Receiver " + addresses[i] + ": " + sinks[i].getStatistics(expected));
+                long lost = expected - sinks[i].getReceived();
+                if (expected > 0 && 100.0 * lost / expected > maxLossPercent)
+                    passed = false;
+            }
+        }
+        if (server && ((TcpServerSensorStream)stream).getSlowClientsDropped() < stalledClients) {
+            System.out.println("Stalled clients weren't disconnected");
+            passed = false;
+        }
+        if (motionSink != null) {
+            motionSink.close();
+            long encoded = 0;
+            long dropped = 0;
+            for (SensorFrameEncoder encoder : encoders) {
+                encoded += encoder.getSamplesEncoded();
+                dropped += encoder.getSamplesDropped();
+            }
+            System.out.printf("Motion sensors: encoded %d samples, dropped %d, frame pool exhausted %d times%n",
+                    encoded, dropped, frameQueue.getExhausted());
+            System.out.println("Motion receiver: " + motionSink.getStatistics());
+            if (dropped > 0 || motionSink.getSamples() != encoded)
+                passed = false;
+        }
+        System.out.println(passed ? "PASSED" : "FAILED");
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * Switch the stream to the next receiver every interval, until interrupted.
+     */
+    private static void switchReceivers(QueuedSensorStream stream, SocketAddress[] addresses, long intervalMillis) {
+        try {
+            for (int i = 1; !Thread.currentThread().isInterrupted(); i++) {
+                Thread.sleep(intervalMillis);
+                SocketAddress address = addresses[i % addresses.length];
+                if (stream instanceof TcpSensorStream)
+                    ((TcpSensorStream)stream).setAddress(address);
+                else
+                    ((UdpSensorStream)stream).setDestinations(new SocketAddress[]{address}, 0);
+            }
+        } catch (InterruptedException e) {
+            // Replay finished
+        } catch (IOException e) {
+            System.err.println("Switcher: " + e.toString());
+        }
+    }
+
+    /**
+     * Resolve the server name with a resolver answering with the next receiver every interval,
+     * waiting for the first answer.
+     */
+    private static AddressResolver resolveRotating(QueuedSensorStream stream, SocketAddress[] receivers,
+                                                   long intervalMillis) throws InterruptedException {
+        long start = System.nanoTime();
+        AddressResolver resolver = new AddressResolver(host -> {
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            InetSocketAddress receiver = (InetSocketAddress)receivers[(int)(elapsed / intervalMillis % receivers.length)];
+            // Short TTL, so that the change is seen within a fraction of the interval
+            return new HostResolver.Result(new InetAddress[]{receiver.getAddress()}, Math.max(intervalMillis / 4, 1));
+        });
+        stream.setSendErrorListener(resolver::onSendError);
+        int port = ((InetSocketAddress)receivers[0]).getPort();
+        resolver.setTargets(new String[]{SERVER_NAME}, new int[]{port}, addresses -> {
+            try {
+                if (stream instanceof TcpSensorStream)
+                    ((TcpSensorStream)stream).setAddress(addresses[0]);
+                else
+                    ((UdpSensorStream)stream).setDestinations(addresses, 0);
+            } catch (IOException e) {
+                System.err.println("Resolver: " + e.toString());
+            }
+        });
+        while (resolver.getResolved().length == 0)
+            Thread.sleep(DRAIN_POLL_MS);
+        return resolver;
+    }
+
+    /**
+     * Synthesize samples for each encoder every period, as a sensor hub would, until interrupted.
+     */
+    private static void produceMotion(SensorFrameEncoder[] encoders, long periodNanos) {
+        float[] values = new float[3];
+        long due = System.nanoTime();
+        for (long i = 0; !Thread.currentThread().isInterrupted(); i++) {
+            for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime())
+                LockSupport.parkNanos(wait);
+            long now = System.nanoTime();
+            values[0] = (float)Math.sin(i * 0.01);
+            values[1] = (float)Math.cos(i * 0.01);
+            values[2] = 9.81f;
+            for (SensorFrameEncoder encoder : encoders)
+                encoder.add(now, values);
+            due += periodNanos;
+        }
+        for (SensorFrameEncoder encoder : encoders)
+            encoder.flush();
+    }
+
+    private static void usage() {
+        System.err.println("Usage: SoakTest LOG [--speed FACTOR] [--repeat COUNT] [--transport udp|tcp|server] " +
+                "[--receivers COUNT] [--stalled-clients COUNT] [--batch-deadline MS] [--queue BYTES] [--max-loss PERCENT] [--max-age MS] " +
+                "[--switch-interval MS] [--dns-switch-interval MS] [--time-service off|on|hal] [--imu-rate HZ]");
+        System.exit(2);
+    }
+}
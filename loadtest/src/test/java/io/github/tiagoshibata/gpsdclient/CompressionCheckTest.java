@@ -0,0 +1,20 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs {@link CompressionCheck} on the log of {@link DuplicateCheckTest}.
+ */
+public class CompressionCheckTest {
+    private static final double SPEED = 1000;
+
+    @Test
+    public void roundTripIsByteIdentical() throws IOException, InterruptedException, URISyntaxException {
+        assertTrue(CompressionCheck.check(DuplicateCheckTest.log(), SPEED));
+    }
+}
@@ -0,0 +1,37 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs {@link DuplicateCheck} on drive.nmea, two minutes of a multi-constellation receiver
+ * standing still and then driving off, across midnight.
+ */
+public class DuplicateCheckTest {
+    static File log() throws URISyntaxException {
+        return new File(DuplicateCheckTest.class.getResource("/drive.nmea").toURI());
+    }
+
+    @Test
+    public void suppressesOnlyRepeatedSentences() throws IOException, URISyntaxException {
+        check(10000);
+    }
+
+    @Test
+    public void refreshesOften() throws IOException, URISyntaxException {
+        check(3000);
+    }
+
+    private static void check(long refreshMillis) throws IOException, URISyntaxException {
+        DuplicateCheck check = new DuplicateCheck(refreshMillis);
+        check.run(log().getPath());
+        assertEquals(0, check.getFailures());
+        assertTrue("Nothing suppressed", check.getForwarded() < check.getSentences());
+    }
+}
@@ -0,0 +1,86 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Broadcasts numbered sentences to many loopback clients, one of which never reads, and checks
+ * that every other client gets every sentence once and in order while the stalled one is
+ * disconnected.
+ */
+public class TcpServerSensorStreamTest {
+    private static final int CLIENTS = 100;
+    private static final int SENTENCES = 4000;
+    // Sent in bursts, about 2000 sentences per second
+    private static final int BURST = 20;
+    private static final long BURST_INTERVAL_MS = 10;
+    private static final int QUEUE_BYTES = 1024 * 1024;
+    private static final int STALLED_RECEIVE_BUFFER_SIZE = 4096;
+    private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(20);
+    private static final long POLL_MS = 10;
+
+    private TcpServerSensorStream stream;
+    private final NmeaSink[] sinks = new NmeaSink[CLIENTS];
+    private SocketChannel stalled;
+
+    @Before
+    public void setUp() throws IOException, InterruptedException {
+        stream = new TcpServerSensorStream(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                TcpServerSensorStream.DEFAULT_CLIENT_BUFFER_SIZE, QUEUE_BYTES,
+                SentenceRingBuffer.OverflowPolicy.DROP_NEWEST);
+        for (int i = 0; i < CLIENTS; i++)
+            sinks[i] = new NmeaSink(stream.getLocalAddress());
+        stalled = SocketChannel.open();
+        stalled.setOption(StandardSocketOptions.SO_RCVBUF, STALLED_RECEIVE_BUFFER_SIZE);
+        stalled.connect(stream.getLocalAddress());
+        long start = System.nanoTime();
+        while (stream.getClients() < CLIENTS + 1) {
+            assertTrue(stream.getClients() + " clients connected", System.nanoTime() - start < TIMEOUT_NANOS);
+            Thread.sleep(POLL_MS);
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        stream.stop();
+        for (NmeaSink sink : sinks) {
+            if (sink != null)
+                sink.close();
+        }
+        stalled.close();
+    }
+
+    @Test
+    public void stalledClientDoesNotDelayOthers() throws InterruptedException {
+        for (int i = 0; i < SENTENCES; i++) {
+            stream.send(String.format("$GPTXT,01,01,02,LOAD,%d,%d*00", i, System.nanoTime()));
+            if (i % BURST == BURST - 1)
+                Thread.sleep(BURST_INTERVAL_MS);
+        }
+        long start = System.nanoTime();
+        for (NmeaSink sink : sinks) {
+            while (sink.getReceived() < SENTENCES && System.nanoTime() - start < TIMEOUT_NANOS)
+                Thread.sleep(POLL_MS);
+        }
+
+        assertEquals(0, stream.getDroppedSentences());
+        assertEquals(1, stream.getSlowClientsDropped());
+        assertEquals(CLIENTS, stream.getClients());
+        for (NmeaSink sink : sinks) {
+            assertEquals(sink.getStatistics(SENTENCES), SENTENCES, sink.getReceived());
+            assertEquals(0, sink.getReordered());
+            assertEquals(0, sink.getDuplicated());
+        }
+    }
+}
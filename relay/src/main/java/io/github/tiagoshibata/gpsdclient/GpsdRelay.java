@@ -0,0 +1,175 @@
+package io.github.tiagoshibata.gpsdclient;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Receives datagrams sent with compression, decompresses them with {@link CompressedNmeaDecoder}
+ * and forwards the plain sentences to gpsd, one datagram for each received. Plain datagrams are
+ * forwarded as they are.
+ * <p>
+ * Usage: {@code ./gradlew :relay:run --args="[--listen PORT] [--gpsd HOST:PORT]"}, listening on
+ * port 29998 and forwarding to gpsd on localhost:29999 by default, e.g. started with
+ * {@code gpsd -N udp://localhost:29999}.
+ */
+public class GpsdRelay implements Closeable {
+    private static final String TAG = "GpsdRelay";
+    private static final int DEFAULT_LISTEN_PORT = 29998;
+    private static final int DEFAULT_GPSD_PORT = 29999;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Absorbs bursts, e.g. journal replay after an outage
+    private static final int RECEIVE_BUFFER_SIZE = 1024 * 1024;
+    private static final long STOP_TIMEOUT_MS = 1000;
+    private static final long STATISTICS_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+    private final DatagramChannel inputChannel;
+    private final DatagramChannel gpsdChannel;
+    private final Thread thread;
+    private final ByteBuffer input = ByteBuffer.allocate(BUFFER_SIZE);
+    private final ByteBuffer output = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CompressedNmeaDecoder decoder = new CompressedNmeaDecoder();
+    private volatile long bytesReceived;
+    private volatile long bytesForwarded;
+    private volatile long sendErrors;
+
+    /**
+     * Bind and start relaying.
+     *
+     * @param  listenAddress local address receiving the stream
+     * @param  gpsdAddress   address gpsd receives datagrams on
+     */
+    public GpsdRelay(SocketAddress listenAddress, SocketAddress gpsdAddress) throws IOException {
+        inputChannel = DatagramChannel.open();
+        gpsdChannel = DatagramChannel.open();
+        try {
+            inputChannel.setOption(StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER_SIZE);
+            inputChannel.bind(listenAddress);
+            gpsdChannel.connect(gpsdAddress);
+        } catch (IOException e) {
+            inputChannel.close();
+            gpsdChannel.close();
+            throw e;
+        }
+        thread = new Thread(this::relay, TAG);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public InetSocketAddress getLocalAddress() throws IOException {
+        return (InetSocketAddress)inputChannel.getLocalAddress();
+    }
+
+    private void relay() {
+        boolean failing = false;
+        try {
+            while (true) {
+                input.clear();
+                inputChannel.receive(input);
+                input.flip();
+                bytesReceived += input.remaining();
+                output.clear();
+                if (!decoder.decode(input, output))
+                    continue;
+                output.flip();
+                try {
+                    bytesForwarded += gpsdChannel.write(output);
+                    failing = false;
+                } catch (ClosedChannelException e) {
+                    throw e;
+                } catch (IOException e) {
+                    // e.g. ICMP port unreachable while gpsd isn't running. Logged once
+                    sendErrors++;
+                    if (!failing)
+                        QueuedSensorStream.logger.warning(TAG, "gpsd: " + e.toString());
+                    failing = true;
+                }
+            }
+        } catch (ClosedChannelException e) {
+            // Closed by close()
+        } catch (IOException e) {
+            QueuedSensorStream.logger.warning(TAG, e.toString());
+        }
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public long getBytesForwarded() {
+        return bytesForwarded;
+    }
+
+    public CompressedNmeaDecoder getDecoder() {
+        return decoder;
+    }
+
+    public String getStatistics() {
+        long received = bytesReceived;
+        long forwarded = bytesForwarded;
+        return String.format(Locale.US, "Relayed %d datagrams (%d compressed, %d malformed), received %d bytes, forwarded %d (%.1f%% saved), %d send errors",
+                decoder.getDatagrams(), decoder.getCompressed(), decoder.getMalformed(), received, forwarded,
+                forwarded > 0 ? 100. * (forwarded - received) / forwarded : 0, sendErrors);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            inputChannel.close();
+        } finally {
+            gpsdChannel.close();
+        }
+        try {
+            thread.join(STOP_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length % 2 != 0)
+            usage();
+        int listenPort = DEFAULT_LISTEN_PORT;
+        SocketAddress gpsdAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), DEFAULT_GPSD_PORT);
+        try {
+            for (int i = 0; i < args.length; i += 2) {
+                String value = args[i + 1];
+                switch (args[i]) {
+                    case "--listen":
+                        listenPort = Integer.parseInt(value);
+                        break;
+                    case "--gpsd":
+                        int separator = value.lastIndexOf(':');
+                        if (separator <= 0)
+                            usage();
+                        gpsdAddress = new InetSocketAddress(value.substring(0, separator),
+                                Integer.parseInt(value.substring(separator + 1)));
+                        break;
+                    default:
+                        usage();
+                }
+            }
+        } catch (NumberFormatException e) {
+            usage();
+        }
+        GpsdRelay relay = new GpsdRelay(new InetSocketAddress(listenPort), gpsdAddress);
+        QueuedSensorStream.logger.info(TAG, "Relaying port " + listenPort + " to " + gpsdAddress);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> QueuedSensorStream.logger.info(TAG, relay.getStatistics())));
+        while (true) {
+            Thread.sleep(STATISTICS_INTERVAL_MS);
+            QueuedSensorStream.logger.info(TAG, relay.getStatistics());
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: GpsdRelay [--listen PORT] [--gpsd HOST:PORT]");
+        System.exit(2);
+    }
+}